@@ -0,0 +1,159 @@
+/*
+ * @author Kyran Adams
+ */
+package interpreter;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import machine.Function;
+import machine.Tiering;
+import machine.bytecode.BytecodeCompiler;
+import machine.closure.ClosureCompiler;
+import machine.vm.VmCompiler;
+import parser.ExpressionNode;
+import parser.ExpressionNode.LambdaNode;
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Enum Engine. The ways the interpreter can run a parsed program. The
+ * engine used by default is named by the system property {@value #PROPERTY}.
+ */
+public enum Engine {
+
+    /** Walks the expression trees. */
+    TREE {
+        @Override
+        public ExpressionNode prepare(final ExpressionNode node) {
+            return node;
+        }
+
+        @Override
+        protected ExpressionNode compile(final ExpressionNode node) {
+            return node;
+        }
+    },
+
+    /** Compiles expressions and function bodies to JVM classes. */
+    BYTECODE {
+        @Override
+        protected ExpressionNode compile(final ExpressionNode node) {
+            return BytecodeCompiler.compile(node);
+        }
+    },
+
+    /** Compiles expressions and function bodies for the register machine. */
+    VM {
+        @Override
+        protected ExpressionNode compile(final ExpressionNode node) {
+            return VmCompiler.compile(node);
+        }
+    },
+
+    /** Compiles expressions and function bodies to trees of Java lambdas. */
+    CLOSURE {
+        @Override
+        protected ExpressionNode compile(final ExpressionNode node) {
+            return ClosureCompiler.compile(node);
+        }
+    },
+
+    /**
+     * Walks the expression trees, and compiles the bodies of hot functions to
+     * JVM classes in the background. The threshold is read from the system
+     * property {@value machine.Tiering#THRESHOLD_PROPERTY}.
+     */
+    TIERED {
+        @Override
+        public ExpressionNode prepare(final ExpressionNode node) {
+            final Tiering tiering = new Tiering(BYTECODE::compile,
+                    Tiering.getDefaultThreshold());
+            for (final Function function : functions(node)) {
+                function.setTiering(tiering);
+            }
+            return node;
+        }
+
+        @Override
+        protected ExpressionNode compile(final ExpressionNode node) {
+            return node;
+        }
+    };
+
+    /** The system property naming the default engine. */
+    public static final String PROPERTY = "apl.engine";
+
+    /**
+     * Prepares a top level expression to be run by this engine. The bodies of
+     * the lambdas in it are compiled as well.
+     *
+     * @param node
+     *            the expression
+     * @return the expression to run, which gives the same value
+     */
+    public ExpressionNode prepare(final ExpressionNode node) {
+        for (final Function function : functions(node)) {
+            if (function.getCode() == function.body) {
+                function.setCode(compile(function.body));
+            }
+        }
+        return compile(node);
+    }
+
+    /**
+     * Compiles one expression, leaving the lambdas in it to
+     * {@link #prepare(ExpressionNode)}.
+     *
+     * @param node
+     *            the expression
+     * @return the compiled expression, which gives the same value
+     */
+    protected abstract ExpressionNode compile(ExpressionNode node);
+
+    /**
+     * Finds the functions of the lambdas in an expression.
+     *
+     * @param node
+     *            the expression
+     * @return the functions
+     */
+    private static Set<Function> functions(final ExpressionNode node) {
+        final Set<Function> functions = Collections
+                .newSetFromMap(new IdentityHashMap<Function, Boolean>());
+        addFunctions(node, functions);
+        return functions;
+    }
+
+    /**
+     * Adds the functions of the lambdas in an expression.
+     *
+     * @param node
+     *            the expression
+     * @param functions
+     *            the functions found so far
+     */
+    private static void addFunctions(final ExpressionNode node,
+            final Set<Function> functions) {
+        if (node instanceof LambdaNode) {
+            functions.add(((LambdaNode) node).getFunction());
+        }
+        final List<ExpressionNode> children = node.getChildren();
+        for (final ExpressionNode child : children) {
+            addFunctions(child, functions);
+        }
+    }
+
+    /**
+     * Gets the engine named by the system property, or {@link #TREE} if it
+     * is not set.
+     *
+     * @return the default engine
+     */
+    public static Engine getDefault() {
+        final String name = System.getProperty(PROPERTY);
+        return name == null ? TREE : valueOf(name.toUpperCase(Locale.ROOT));
+    }
+}
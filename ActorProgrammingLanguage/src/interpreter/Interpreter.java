@@ -4,12 +4,20 @@
 package interpreter;
 
 import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
 
 import lexer.Lexer;
 import machine.Context;
+import machine.Profile;
+import machine.Tiering;
+import parser.Debug;
 import parser.ExpressionNode;
+import parser.ExpressionNode.AssignmentNode;
 import parser.Parser;
+import parser.checking.EffectAnalysis;
+import parser.ir.PassManager;
 
 // TODO: Auto-generated Javadoc
 /**
@@ -22,15 +30,94 @@ public class Interpreter {
     
     /** The print stream. */
     private final PrintStream printStream;
+
+    /** The engine that runs the code. */
+    private final Engine engine;
+
+    /** The profile file, or null to not profile. */
+    private Path profile = Profile.getDefaultFile();
+
+    /**
+     * The system property that turns on {@link #setLazy(boolean) lazy}
+     * bindings.
+     */
+    public static final String LAZY_PROPERTY = "apl.lazy";
+
+    /** The optimization passes run before the engine prepares the code. */
+    private PassManager passes = PassManager.getDefault();
+
+    /** Whether bindings that can be deferred are run when first read. */
+    private boolean lazy = Boolean.getBoolean(LAZY_PROPERTY);
     
     /**
-     * Instantiates a new interpreter.
+     * Instantiates a new interpreter using the default engine.
      *
      * @param printStream
      *            the print stream
      */
     public Interpreter(final PrintStream printStream) {
+        this(printStream, Engine.getDefault());
+    }
+
+    /**
+     * Instantiates a new interpreter.
+     *
+     * @param printStream
+     *            the print stream
+     * @param engine
+     *            the engine that runs the code
+     */
+    public Interpreter(final PrintStream printStream, final Engine engine) {
         this.printStream = printStream;
+        this.engine = engine;
+    }
+
+    /**
+     * Sets the profile file. Before code is run, what the last run of the
+     * same code saw is read from the file, and afterwards what this run saw
+     * is written to it. By default the file is given by the system property
+     * {@value machine.Profile#PROPERTY}.
+     *
+     * @param file
+     *            the file, or null to not profile
+     */
+    public void setProfile(final Path file) {
+        profile = file;
+    }
+
+    /**
+     * Sets the optimization passes. By default every pass runs, unless the
+     * system property {@value parser.ir.PassManager#PROPERTY} names the ones
+     * that do.
+     *
+     * @param passes
+     *            the passes
+     */
+    public void setPasses(final PassManager passes) {
+        this.passes = passes;
+    }
+
+    /**
+     * Sets whether bindings at the top of the program are lazy. A lazy
+     * binding is run when its variable is first read, and not at all if it
+     * is never read, so a program that uses only a few definitions of a large
+     * library does not pay for the others. Only a binding that is not
+     * mutable and whose value changes nothing and reads no mutable variable
+     * is lazy; the other statements still run in order.
+     * <p>
+     * This changes what some programs mean. A lazy binding is run with the
+     * variables bound when it is first read, so it may use a variable bound
+     * after it in the program: "a = b + 1; b = 5; println(a);" prints 6,
+     * where it fails with an undefined variable when bindings are not lazy.
+     * An error in a lazy binding is thrown where it is first read, or not at
+     * all if it is never read. By default bindings are lazy if the system
+     * property {@value #LAZY_PROPERTY} is true.
+     *
+     * @param lazy
+     *            whether bindings are lazy
+     */
+    public void setLazy(final boolean lazy) {
+        this.lazy = lazy;
     }
 
     /**
@@ -46,9 +133,56 @@ public class Interpreter {
         final Lexer lexer = new Lexer(code);
         final List<ExpressionNode> nodes = new Parser(lexer.lex())
                 .parse(context);
-        for (final ExpressionNode node : nodes) {
-            node.getValue(context);
-        }
+        run(nodes, context);
         return context;
     }
+
+    /**
+     * Runs parsed code in the context it was parsed in.
+     *
+     * @param parsed
+     *            the parsed code
+     * @param context
+     *            the context
+     */
+    public void run(final List<ExpressionNode> parsed, final Context context) {
+        final List<ExpressionNode> nodes = passes.run(parsed);
+        final EffectAnalysis effects = EffectAnalysis.analyze(nodes, context);
+        if (Boolean.getBoolean(Debug.EFFECTS_PROPERTY)) {
+            System.err.print(Debug.dumpEffects(nodes));
+        }
+        final Profile loaded = profile == null ? null : Profile.load(profile);
+        if (loaded != null) {
+            loaded.apply(nodes, context);
+        }
+        final List<ExpressionNode> prepared = new ArrayList<>(nodes.size());
+        final boolean[] deferred = lazy ? effects.canDefer(nodes)
+                : new boolean[nodes.size()];
+        for (int i = 0; i < nodes.size(); i++) {
+            final ExpressionNode node = nodes.get(i);
+            // a deferred binding only needs the code of its value
+            prepared.add(engine.prepare(deferred[i] ? ((AssignmentNode) node)
+                    .getExpression() : node));
+        }
+        if (loaded != null) {
+            loaded.promote(nodes, Tiering.getDefaultThreshold());
+        }
+        try {
+            for (int i = 0; i < prepared.size(); i++) {
+                final ExpressionNode node = prepared.get(i);
+                if (deferred[i]) {
+                    context.putLazyVariable(((AssignmentNode) nodes.get(i))
+                            .getVariable().getName(), () -> node
+                            .getValue(context));
+                } else {
+                    node.getValue(context);
+                }
+            }
+        } finally {
+            if (loaded != null) {
+                loaded.record(nodes);
+                loaded.save(profile);
+            }
+        }
+    }
 }
@@ -3,13 +3,22 @@
  */
 package interpreter.library;
 
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import machine.Context;
+import machine.Context.VariableMapping;
+import machine.Effect;
 import machine.Function;
+import machine.MemoCache;
+import machine.PersistentMemoStore;
+import machine.TypeRegistry;
 import parser.ExpressionNode;
 import parser.ExpressionNode.VariableNode;
 import parser.ParserException;
@@ -17,6 +26,7 @@ import type.APNumber;
 import type.APValue;
 import type.APValueBool;
 import type.APValueChar;
+import type.APValueFunction;
 import type.APValueList;
 import type.APValueNum;
 import type.APValueType;
@@ -30,12 +40,74 @@ import type.APValueType;
  * @version $Revision: 1.0 $
  */
 public final class LibraryFunction {
+
+    /**
+     * The type of the value returned by each library function that always
+     * returns the same type.
+     */
+    private static final Map<String, Integer> RETURN_TYPES = new HashMap<>();
+
+    static {
+        for (final String name : new String[] { "length", "num", "indexOf",
+                "sqrt", "sin", "cos", "tan" }) {
+            RETURN_TYPES.put(name, TypeRegistry.NUM);
+        }
+        RETURN_TYPES.put("in", TypeRegistry.BOOL);
+        RETURN_TYPES.put("isa", TypeRegistry.BOOL);
+    }
+
+    /**
+     * The library functions that do more than give a value. The others are
+     * pure.
+     */
+    private static final Map<String, Effect> EFFECTS = new HashMap<>();
+
+    static {
+        EFFECTS.put("print", Effect.EFFECTFUL);
+        EFFECTS.put("println", Effect.EFFECTFUL);
+        EFFECTS.put("foreach", Effect.EFFECTFUL);
+        EFFECTS.put("memoizeToFile", Effect.EFFECTFUL);
+        EFFECTS.put("memoStats", Effect.READ_ONLY);
+    }
     
     /**
      * Private constructor, this is a utility class.
      */
     private LibraryFunction() {
     }
+
+    /**
+     * Gets the argument a library function calls, for the functions that
+     * take a function to run on each element of a list.
+     *
+     * @param name
+     *            the name of the function
+     * @return the index of the argument, or -1 if it calls none
+     */
+    public static int getCalledArgument(final String name) {
+        switch (name) {
+            case "foreach":
+            case "foldl":
+            case "map":
+            case "mapWithIndex":
+                return 1;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Gets the type of the value a library function returns, if it always
+     * returns the same type.
+     *
+     * @param name
+     *            the name of the function
+     * @return the type id, or {@link TypeRegistry#NONE} if it is not known
+     */
+    public static int getReturnType(final String name) {
+        final Integer type = RETURN_TYPES.get(name);
+        return type == null ? TypeRegistry.NONE : type;
+    }
     
     /**
      * Apply all library functions.
@@ -50,8 +122,18 @@ public final class LibraryFunction {
         castingFunctions(context);
         isaFunction(context);
         listFunctions(context);
+        stringFunctions(context);
         printFunctions(context);
         mathFunctions(context);
+        memoFunctions(context);
+        for (final Map.Entry<String, VariableMapping> entry : context
+                .getVariables().entrySet()) {
+            if (entry.getValue().variable instanceof APValueFunction) {
+                final Effect effect = EFFECTS.get(entry.getKey());
+                ((APValueFunction) entry.getValue().variable).getValue()
+                        .setEffect(effect == null ? Effect.PURE : effect);
+            }
+        }
         return context;
     }
     
@@ -91,7 +173,8 @@ public final class LibraryFunction {
                     public APValue getValue(final Context context) {
                         final APValue value = new VariableNode(arg1)
                         .getValue(context);
-                        return new APValueType(value.getType());
+                        return new APValueType(value.getType(), value
+                                .getTypeId(), value.getParentTypeId());
                     }
                 }), false);
     }
@@ -186,7 +269,7 @@ public final class LibraryFunction {
                         final APValue value = new VariableNode(argName)
                                         .getValue(context);
                                 if (value instanceof APValueList) {
-                                    final List<ExpressionNode> numArg = (List<ExpressionNode>) value
+                                    final List<APValue> numArg = ((APValueList) value)
                                             .getValue();
                                     
                                     return new APValueNum(new APNumber(numArg
@@ -216,10 +299,10 @@ public final class LibraryFunction {
                             public APValue getValue(final Context context) {
                                 final APValue value = new VariableNode(arg1)
                                         .getValue(context);
-                                final List<ExpressionNode> numArg = (List<ExpressionNode>) new VariableNode(
+                                final List<APValue> numArg = (List<APValue>) new VariableNode(
                                         arg2).getValue(context).getValue();
-                                for (final ExpressionNode node : numArg) {
-                                    if (value.equals(node.getValue(context))) {
+                                for (final APValue element : numArg) {
+                                    if (value.equals(element)) {
                                         return new APValueBool(true);
                                     }
                                 }
@@ -242,20 +325,150 @@ public final class LibraryFunction {
                         new ExpressionNode<Void>(null) {
                             @Override
                             public APValue getValue(final Context context) {
-                                final List<ExpressionNode> characters = new ArrayList<>();
                                 final APValue value = new VariableNode(argName)
                                         .getValue(context);
-                                
-                                final String n = value.toString();
-                                for (final char c : n.toCharArray()) {
-                                    characters.add(new ConstantNode(
-                                            new APValueChar(c)));
-                                }
-                                return new APValueList(characters);
+                                return new APValueList(value.toString());
                             }
                         }), false);
     }
     
+    /**
+     * String functions. split, join, substring, indexOf, replace
+     *
+     * @param context
+     *            the context
+     */
+    private static void stringFunctions(final Context context) {
+        final String arg1 = "a";
+        final String arg2 = "b";
+        final String arg3 = "c";
+        context.putFunction(
+                new Function("split", Arrays.asList(new VariableNode(arg1),
+                        new VariableNode(arg2)),
+                        new ExpressionNode<Void>(null) {
+                            @Override
+                            public APValue getValue(final Context context) {
+                                final String string = stringArgument(context,
+                                        arg1, "split");
+                                final String separator = stringArgument(
+                                        context, arg2, "split");
+                                if (separator.isEmpty()) {
+                                    throw new ParserException(
+                                            "Can not split on an empty string");
+                                }
+                                final List<APValue> parts = new ArrayList<>();
+                                int start = 0;
+                                int end = string.indexOf(separator);
+                                while (end >= 0) {
+                                    parts.add(new APValueList(string.substring(
+                                            start, end)));
+                                    start = end + separator.length();
+                                    end = string.indexOf(separator, start);
+                                }
+                                parts.add(new APValueList(string
+                                        .substring(start)));
+                                return new APValueList(parts);
+                            }
+                        }), false);
+        context.putFunction(
+                new Function("join", Arrays.asList(new VariableNode(arg1),
+                        new VariableNode(arg2)),
+                        new ExpressionNode<Void>(null) {
+                            @Override
+                            public APValue getValue(final Context context) {
+                                final APValue list = new VariableNode(arg1)
+                                        .getValue(context);
+                                if (!(list instanceof APValueList)) {
+                                    throw new ParserException(
+                                            "Can not pass arg "
+                                                    + list.getClass()
+                                                    + " to function join");
+                                }
+                                final String separator = stringArgument(
+                                        context, arg2, "join");
+                                final StringBuilder builder = new StringBuilder();
+                                for (final APValue part : ((APValueList) list)
+                                        .getValue()) {
+                                    if (builder.length() > 0) {
+                                        builder.append(separator);
+                                    }
+                                    builder.append(part);
+                                }
+                                return new APValueList(builder.toString());
+                            }
+                        }), false);
+        context.putFunction(
+                new Function("substring", Arrays.asList(
+                        new VariableNode(arg1), new VariableNode(arg2),
+                        new VariableNode(arg3)),
+                        new ExpressionNode<Void>(null) {
+                            @Override
+                            public APValue getValue(final Context context) {
+                                final String string = stringArgument(context,
+                                        arg1, "substring");
+                                final int firstIndex = ((APNumber) new VariableNode(
+                                        arg2).getValue(context).getValue())
+                                        .intValueExact();
+                                final int secondIndex = ((APNumber) new VariableNode(
+                                        arg3).getValue(context).getValue())
+                                        .intValueExact();
+                                return new APValueList(string.substring(
+                                        firstIndex, secondIndex));
+                            }
+                        }), false);
+        context.putFunction(
+                new Function("indexOf", Arrays.asList(new VariableNode(arg1),
+                        new VariableNode(arg2)),
+                        new ExpressionNode<Void>(null) {
+                            @Override
+                            public APValue getValue(final Context context) {
+                                final String string = stringArgument(context,
+                                        arg1, "indexOf");
+                                final String part = stringArgument(context,
+                                        arg2, "indexOf");
+                                return new APValueNum(new APNumber(string
+                                        .indexOf(part)));
+                            }
+                        }), false);
+        context.putFunction(
+                new Function("replace", Arrays.asList(new VariableNode(arg1),
+                        new VariableNode(arg2), new VariableNode(arg3)),
+                        new ExpressionNode<Void>(null) {
+                            @Override
+                            public APValue getValue(final Context context) {
+                                final String string = stringArgument(context,
+                                        arg1, "replace");
+                                final String target = stringArgument(context,
+                                        arg2, "replace");
+                                final String replacement = stringArgument(
+                                        context, arg3, "replace");
+                                return new APValueList(string.replace(target,
+                                        replacement));
+                            }
+                        }), false);
+    }
+
+    /**
+     * Gets a string or character argument as a Java string.
+     *
+     * @param context
+     *            the context
+     * @param argName
+     *            the name of the argument
+     * @param functionName
+     *            the name of the function, used in the error message
+     * @return the string
+     */
+    private static String stringArgument(final Context context,
+            final String argName, final String functionName) {
+        final APValue value = new VariableNode(argName).getValue(context);
+        if (!(value instanceof APValueList) && !(value instanceof APValueChar)) {
+            throw new ParserException("Can not pass arg " + value.getClass()
+                    + " to function " + functionName);
+        }
+        return value.toString();
+    }
+
     /**
      * Foreach function.
      *
@@ -271,7 +484,7 @@ public final class LibraryFunction {
                         new ExpressionNode<Void>(null) {
                             @Override
                             public APValue getValue(final Context context) {
-                                final List<ExpressionNode> numArg = (List<ExpressionNode>) new VariableNode(
+                                final List<APValue> numArg = (List<APValue>) new VariableNode(
                                         arg1).getValue(context).getValue();
                                 final Function function = (Function) new VariableNode(
                                         arg2).getValue(context).getValue();
@@ -281,17 +494,18 @@ public final class LibraryFunction {
                                             "Lambda function passed to map must only have one argument");
                                 }
                                 
-                                for (final ExpressionNode v : numArg) {
+                                for (final APValue v : numArg) {
                                     final Context c = new Context(context
                                             .getOutputStream());
                                     
                                     // give parent functions
                                     c.setVariables(new HashMap<>(context
                                             .getVariables()));
+                                    function.bindEnvironment(c);
                                     
                                     c.putVariable(function.parameters.get(0)
-                                            .getName(), v.getValue(c), false);
-                                    function.body.getValue(c);
+                                            .getName(), v, false);
+                                    function.iterate(c);
                                 }
                                 
                                 return APValue.VOID;
@@ -315,9 +529,9 @@ public final class LibraryFunction {
                         new ExpressionNode<Void>(null) {
                             @Override
                             public APValue getValue(final Context context) {
-                                final List<ExpressionNode> unmodifiableList = (List<ExpressionNode>) new VariableNode(
+                                final List<APValue> unmodifiableList = (List<APValue>) new VariableNode(
                                         arg1).getValue(context).getValue();
-                                final List<ExpressionNode> numArg = new ArrayList<>(
+                                final List<APValue> numArg = new ArrayList<>(
                                         unmodifiableList);
                                 final Function function = (Function) new VariableNode(
                                         arg2).getValue(context).getValue();
@@ -328,9 +542,8 @@ public final class LibraryFunction {
                                 }
                                 
                                 for (int i = 0; i < numArg.size() - 1; i++) {
-                                    final ExpressionNode first = numArg.get(i);
-                                    final ExpressionNode second = numArg
-                                            .get(i + 1);
+                                    final APValue first = numArg.get(i);
+                                    final APValue second = numArg.get(i + 1);
                                     
                                     final Context c = new Context(context
                                             .getOutputStream());
@@ -338,19 +551,16 @@ public final class LibraryFunction {
                                     // give parent functions
                                     c.setVariables(new HashMap<>(context
                                             .getVariables()));
+                                    function.bindEnvironment(c);
                                     
                                     c.putVariable(function.parameters.get(0)
-                                            .getName(), first.getValue(c),
-                                    false);
+                                            .getName(), first, false);
                                     c.putVariable(function.parameters.get(1)
-                                            .getName(), second.getValue(c),
-                                    false);
-                                    numArg.set(i + 1, new ConstantNode(
-                                            function.body.getValue(c)));
+                                            .getName(), second, false);
+                                    numArg.set(i + 1, function.iterate(c));
                                 }
                                 
-                                return numArg.get(numArg.size() - 1).getValue(
-                                        context);
+                                return numArg.get(numArg.size() - 1);
                             }
                         }), false);
     }
@@ -370,11 +580,11 @@ public final class LibraryFunction {
                         new ExpressionNode<Void>(null) {
                             @Override
                             public APValue getValue(final Context context) {
-                                final List<ExpressionNode> numArg = (List<ExpressionNode>) new VariableNode(
+                                final List<APValue> numArg = (List<APValue>) new VariableNode(
                                         arg1).getValue(context).getValue();
                                 final Function function = (Function) new VariableNode(
                                         arg2).getValue(context).getValue();
-                                final List<ExpressionNode> result = new ArrayList<>(
+                                final List<APValue> result = new ArrayList<>(
                                         numArg.size());
                                 
                                 if (function.parameters.size() != 1) {
@@ -382,22 +592,21 @@ public final class LibraryFunction {
                                             "Lambda function passed to map must only have one argument");
                                 }
                                 
-                                for (final ExpressionNode v : numArg) {
+                                for (final APValue v : numArg) {
                                     final Context c = new Context(context
                                             .getOutputStream());
                                     
                                     // give parent functions
                                     c.setVariables(new HashMap<>(context
                                             .getVariables()));
+                                    function.bindEnvironment(c);
                                     
-                                    c.getVariables().remove(
-                                    function.parameters.get(0)
-                                    .getName());
+                                    c.removeVariable(function.parameters
+                                            .get(0).getName());
                                     
                                     c.putVariable(function.parameters.get(0)
-                                            .getName(), v.getValue(c), false);
-                                    result.add(new ConstantNode(function.body
-                                            .getValue(c)));
+                                            .getName(), v, false);
+                                    result.add(function.iterate(c));
                                 }
                                 
                                 return new APValueList(result);
@@ -409,11 +618,11 @@ public final class LibraryFunction {
                         new ExpressionNode<Void>(null) {
                             @Override
                             public APValue getValue(final Context context) {
-                                final List<ExpressionNode> numArg = (List<ExpressionNode>) new VariableNode(
+                                final List<APValue> numArg = (List<APValue>) new VariableNode(
                                         arg1).getValue(context).getValue();
                                 final Function function = (Function) new VariableNode(
                                         arg2).getValue(context).getValue();
-                                final List<ExpressionNode> result = new ArrayList<>(
+                                final List<APValue> result = new ArrayList<>(
                                         numArg.size());
                                 
                                 if (function.parameters.size() != 2) {
@@ -421,21 +630,21 @@ public final class LibraryFunction {
                                             "Lambda function passed to mapWithIndex must have two arguments");
                                 }
                                 APNumber index = APNumber.ZERO;
-                                for (final ExpressionNode v : numArg) {
+                                for (final APValue v : numArg) {
                                     final Context c = new Context(context
                                             .getOutputStream());
                                     
                                     // give parent functions
                                     c.setVariables(new HashMap<>(context
                                             .getVariables()));
+                                    function.bindEnvironment(c);
                                     
                                     c.putVariable(function.parameters.get(0)
-                                            .getName(), v.getValue(c), false);
+                                            .getName(), v, false);
                                     c.putVariable(function.parameters.get(1)
                                             .getName(), new APValueNum(index),
                                     false);
-                                    result.add(new ConstantNode(function.body
-                                            .getValue(c)));
+                                    result.add(function.iterate(c));
                                     index = index.add(APNumber.ONE);
                                 }
                                 
@@ -497,6 +706,236 @@ public final class LibraryFunction {
                         }), false);
     }
     
+    /**
+     * Memoization functions. memoize(f, capacity) returns a function that
+     * caches up to capacity results of f, and memoStats(f) returns the hits,
+     * misses and size of the cache of a memoized function.
+     * memoizeToFile(f, capacity, path) also keeps the results in a file, to be
+     * reused by later runs while the source of f and of the functions it
+     * calls is unchanged.
+     * <p>
+     * A function also reads the variables of its caller that it does not bind
+     * itself, see {@link Function#getFreeNames()}. So a result is keyed on
+     * the values of those variables as well as the arguments, and on the
+     * variables read by the functions they hold. The memoized function's own
+     * name is not part of the key.
+     *
+     * Example: fib = memoize(func a -> ..., 1000)
+     *
+     * @param context
+     *            the context
+     */
+    private static void memoFunctions(final Context context) {
+        final String functionArg = "f";
+        final String capacityArg = "capacity";
+        context.putFunction(
+                new Function("memoize", Arrays.asList(new VariableNode(
+                        functionArg), new VariableNode(capacityArg)),
+                        new ExpressionNode<Void>(null) {
+                            @Override
+                            public APValue getValue(final Context context) {
+                                final Function function = (Function) new VariableNode(
+                                        functionArg).getValue(context)
+                                        .getValue();
+                                final int capacity = ((APNumber) new VariableNode(
+                                        capacityArg).getValue(context)
+                                        .getValue()).intValueExact();
+                                if (capacity < 1) {
+                                    throw new ParserException(
+                                            "Memoize capacity must be at least 1, was "
+                                                    + capacity);
+                                }
+                                return new APValueFunction(new Function(
+                                        function.name, function.parameters,
+                                        new MemoizedBody(function,
+                                                new MemoCache(capacity), null)));
+                            }
+                        }), false);
+        final String pathArg = "path";
+        context.putFunction(
+                new Function("memoizeToFile", Arrays.asList(new VariableNode(
+                        functionArg), new VariableNode(capacityArg),
+                        new VariableNode(pathArg)), new ExpressionNode<Void>(
+                        null) {
+                    @Override
+                    public APValue getValue(final Context context) {
+                        final Function function = (Function) new VariableNode(
+                                functionArg).getValue(context).getValue();
+                        final int capacity = ((APNumber) new VariableNode(
+                                capacityArg).getValue(context).getValue())
+                                .intValueExact();
+                        if (capacity < 1) {
+                            throw new ParserException(
+                                    "Memoize capacity must be at least 1, was "
+                                            + capacity);
+                        }
+                        final String path = stringArgument(context, pathArg,
+                                "memoizeToFile");
+                        return new APValueFunction(new Function(function.name,
+                                function.parameters, new MemoizedBody(function,
+                                        new MemoCache(capacity),
+                                        new PersistentMemoStore(Paths
+                                                .get(path)))));
+                    }
+                }), false);
+        context.putFunction(
+                new Function("memoStats", Arrays.asList(new VariableNode(
+                        functionArg)), new ExpressionNode<Void>(null) {
+                    @Override
+                    public APValue getValue(final Context context) {
+                        final Function function = (Function) new VariableNode(
+                                functionArg).getValue(context).getValue();
+                        if (!(function.body instanceof MemoizedBody)) {
+                            throw new ParserException(
+                                    "memoStats requires a memoized function");
+                        }
+                        final MemoCache cache = ((MemoizedBody) function.body).cache;
+                        return new APValueList(Arrays.<APValue> asList(
+                                new APValueNum(new APNumber(cache.getHits())),
+                                new APValueNum(new APNumber(cache.getMisses())),
+                                new APValueNum(new APNumber(cache.size()))));
+                    }
+                }), false);
+    }
+
+    /**
+     * The Class MemoizedBody. The body of a memoized function. It reads the
+     * arguments and the variables the wrapped function reads from the call's
+     * context, and looks them up in the cache, then in the store if there is
+     * one, and only calls the wrapped function when they are not there.
+     */
+    private static final class MemoizedBody extends ExpressionNode<Void> {
+
+        /** The wrapped function. */
+        private final Function function;
+
+        /** The cache. */
+        private final MemoCache cache;
+
+        /** The store, or null. */
+        private final PersistentMemoStore store;
+
+        /** The hash of the wrapped function's source. */
+        private final long source;
+
+        /**
+         * Instantiates a new memoized body.
+         *
+         * @param function
+         *            the wrapped function
+         * @param cache
+         *            the cache
+         * @param store
+         *            the store, or null to keep results in memory only
+         */
+        private MemoizedBody(final Function function, final MemoCache cache,
+                final PersistentMemoStore store) {
+            super(null);
+            this.function = function;
+            this.cache = cache;
+            this.store = store;
+            source = PersistentMemoStore.hash(function.parameters + " -> "
+                    + function.body);
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ExpressionNode#getValue(machine.Context)
+         */
+        @Override
+        public APValue getValue(final Context context) {
+            final List<APValue> key = new ArrayList<>();
+            for (final VariableNode parameter : function.parameters) {
+                key.add(context.getVariable(parameter.getName()).reference());
+            }
+            final List<APValue> arguments = new ArrayList<>(key);
+            reads(function, context, new HashSet<String>(), key);
+            boolean cacheable = true;
+            for (final APValue value : key) {
+                cacheable &= MemoCache.isCacheable(value);
+            }
+            List<APValue> storeKey = null;
+            if (cacheable) {
+                final APValue result = cache.get(key);
+                if (result != null) {
+                    return result;
+                }
+                if (store != null) {
+                    // the stored key also holds the captured values, which
+                    // are part of what the function computes, and then the
+                    // values read from the caller, so that changing a
+                    // function it calls leaves its old results unused
+                    storeKey = arguments;
+                    storeKey.addAll(function.getEnvironment());
+                    storeKey.addAll(key.subList(function.parameters.size(),
+                            key.size()));
+                    final APValue stored = store.get(source, storeKey);
+                    if (stored != null) {
+                        cache.put(key, stored.reference());
+                        return stored;
+                    }
+                }
+            }
+            function.bindEnvironment(context);
+            final APValue result = function.invoke(context).reference();
+            if (cacheable) {
+                cache.put(key, result);
+                if (storeKey != null) {
+                    store.put(source, storeKey, result);
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Adds the values of the variables a function reads from the call's
+         * context, and of the variables read by the functions they hold. A
+         * variable that is not bound, or that holds this memoized function,
+         * adds null.
+         *
+         * @param read
+         *            the function
+         * @param context
+         *            the context of the call
+         * @param seen
+         *            the names already read
+         * @param values
+         *            the values read so far
+         */
+        private void reads(final Function read, final Context context,
+                final Set<String> seen, final List<APValue> values) {
+            final Function wrapped = read.body instanceof MemoizedBody
+                    ? ((MemoizedBody) read.body).function : read;
+            for (final String name : wrapped.getFreeNames()) {
+                if (!seen.add(name)) {
+                    continue;
+                }
+                APValue value = context.getVariable(name);
+                if (value instanceof APValueFunction) {
+                    final Function called = ((APValueFunction) value)
+                            .getValue();
+                    if (called.body == this) {
+                        value = null;
+                    } else {
+                        reads(called, context, seen, values);
+                    }
+                }
+                values.add(value == null ? null : value.reference());
+            }
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ExpressionNode#toString()
+         */
+        @Override
+        public String toString() {
+            return "memoize(" + function + ")";
+        }
+    }
+
     /**
      * Sublist function. First number is inclusive, second is exclusive.
      *
@@ -525,10 +964,9 @@ public final class LibraryFunction {
                                         secondIndexArg).getValue(context)
                                         .getValue()).intValueExact();
                                 
-                                final List<ExpressionNode> list = (List<ExpressionNode>) new VariableNode(
-                                        listArg).getValue(context).getValue();
-                                return new APValueList(list.subList(firstIndex,
-                                        secondIndex));
+                                final APValueList list = (APValueList) new VariableNode(
+                                        listArg).getValue(context);
+                                return list.slice(firstIndex, secondIndex);
                             }
                         }), false);
     }
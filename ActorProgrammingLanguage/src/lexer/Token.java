@@ -189,6 +189,9 @@ public class Token {
         /** The bar. */
         BAR,
         
+        /** The match. */
+        MATCH,
+        
         /** The type name. */
         TYPE_NAME;
     }
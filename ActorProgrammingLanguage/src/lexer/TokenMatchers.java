@@ -399,6 +399,7 @@ public enum TokenMatchers {
                 add(new StringToToken("datatype", TokenType.DATA_TYPE));
                 add(new StringToToken("return", TokenType.RETURN));
                 add(new StringToToken("seq", TokenType.SEQUENCE));
+                add(new StringToToken("match", TokenType.MATCH));
             }
         });
         
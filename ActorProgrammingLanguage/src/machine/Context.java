@@ -10,11 +10,11 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Supplier;
 
 import parser.ParserException;
 import type.APValue;
 import type.APValueFunction;
-import type.APValueType;
 
 // TODO: Auto-generated Javadoc
 /**
@@ -25,14 +25,15 @@ import type.APValueType;
  */
 public class Context {
 
+    /** The type registry. */
+    private final TypeRegistry types = new TypeRegistry();
+
     /** The variable mapping. */
     @SuppressWarnings("serial")
     private Map<String, VariableMapping> variables = new HashMap<String, VariableMapping>() {
         {
-            final String[] types = new String[] { "Num", "Char", "Bool",
-                    "Func", "List" };
-            for (final String s : types) {
-                put(s, new VariableMapping(new APValueType(s), false));
+            for (final String s : TypeRegistry.builtinNames()) {
+                put(s, new VariableMapping(types.get(s), false));
             }
         }
     };
@@ -73,7 +74,99 @@ public class Context {
                     "Can't change the value of non mutable function " + name);
         }
         
-        getVariables().put(name, new VariableMapping(value, isMutable));
+        bind(name, new VariableMapping(value.reference(), isMutable));
+    }
+
+    /**
+     * Assigns a variable without checking that the variable it replaces is
+     * mutable, which the assignment was checked for before the program ran. A
+     * variable bound in this context itself, rather than copied from the
+     * context it was made from, is stored in place, so a variable assigned
+     * again and again does not need a new mapping each time.
+     *
+     * @param name
+     *            the name
+     * @param value
+     *            the value
+     * @param isMutable
+     *            the is mutable
+     */
+    public void assignVariable(final String name, final APValue value,
+            final boolean isMutable) {
+        final VariableMapping map = getVariables().get(name);
+        if (map != null && map.owner == getVariables()) {
+            map.variable = value.reference();
+            map.isMutable = isMutable;
+        } else {
+            bind(name, new VariableMapping(value.reference(), isMutable));
+        }
+    }
+
+    /**
+     * Binds a variable that is not mutable to a value that is found when the
+     * variable is first read. The value must not depend on when it is found,
+     * since other code may run first.
+     *
+     * @param name
+     *            the name
+     * @param initializer
+     *            finds the value
+     */
+    public void putLazyVariable(final String name,
+            final Supplier<APValue> initializer) {
+        final VariableMapping map = getVariables().get(name);
+        if (map != null && !map.isMutable) {
+            throw new ParserException(
+                    "Can't change the value of non mutable function " + name);
+        }
+        final VariableMapping mapping = new VariableMapping(null, false);
+        mapping.initializer = initializer;
+        bind(name, mapping);
+    }
+
+    /**
+     * Binds a parameter or captured value of a function call as a mutable
+     * variable, replacing any variable of the same name. This is the same as
+     * removing the variable and putting it again, but looks the name up once.
+     *
+     * @param name
+     *            the name
+     * @param value
+     *            the value
+     */
+    public void putParameter(final String name, final APValue value) {
+        bind(name, new VariableMapping(value.reference(), true));
+    }
+
+    /**
+     * Removes a variable, so that it can be bound again in this context
+     * without changing the outer scope.
+     *
+     * @param name
+     *            the name
+     */
+    public void removeVariable(final String name) {
+        final VariableMapping old = getVariables().remove(name);
+        if (old != null) {
+            old.invalidate();
+        }
+    }
+
+    /**
+     * Binds a name to a new variable mapping. The mapping it replaces is
+     * invalidated, so nodes linked to it stop using it.
+     *
+     * @param name
+     *            the name
+     * @param mapping
+     *            the mapping
+     */
+    private void bind(final String name, final VariableMapping mapping) {
+        mapping.owner = getVariables();
+        final VariableMapping old = getVariables().put(name, mapping);
+        if (old != null) {
+            old.invalidate();
+        }
     }
     
     /**
@@ -90,7 +183,7 @@ public class Context {
         if (variableMapping == null) {
             return null;
         }
-        return variableMapping.variable;
+        return variableMapping.getVariable();
 
     }
 
@@ -168,13 +261,7 @@ public class Context {
             dataTypes.put(dataType.name, new ArrayList<>());
         }
         dataTypes.get(dataType.name).add(dataType);
-        final String name = dataType.name;
-        // // split on the parens
-        // final String[] parts = name.split("\\(");
-        // // Change it from format "name(sub)" to "name$sub"
-        // name = parts[0] + "$" + parts[1].substring(0, parts[1].length() - 1);
-        variables.put(name, new VariableMapping(new APValueType(dataType.name),
-                false));
+        bind(dataType.name, new VariableMapping(dataType.type, false));
     }
     
     /**
@@ -189,7 +276,28 @@ public class Context {
     }
 
     /**
-     * The Class VariableMapping.
+     * Gets the type registry.
+     *
+     * @return the type registry
+     */
+    public TypeRegistry getTypes() {
+        return types;
+    }
+
+    /**
+     * The Class VariableMapping. This is the cell a name is bound to. Copied
+     * contexts share the cells of their parent, so a node can link to a cell
+     * once and read it directly. Rebinding or shadowing its name replaces it
+     * and bumps its version, which tells linked nodes to look the name up
+     * again.
+     * <p>
+     * The only cells changed in place are those a checked assignment finds in
+     * the context that bound them, see
+     * {@link Context#assignVariable(String, APValue, boolean)}. This depends
+     * on {@link #owner} being the variables of the context that bound the
+     * cell: a copied context never owns the cells it copied, so it always
+     * binds a new cell instead of writing into one its parent can see. A lazy
+     * cell is also given its value in place, once, when it is first read.
      */
     public static class VariableMapping {
         
@@ -199,6 +307,25 @@ public class Context {
         /** The is mutable. */
         public boolean isMutable;
 
+        /** The version, bumped when this cell is replaced. */
+        private int version;
+
+        /**
+         * The variables of the context that bound this cell, or null. Only
+         * that context may change the cell in place.
+         */
+        private Map<String, VariableMapping> owner;
+
+        /**
+         * Finds the value of a lazy variable, or null once it is found. While
+         * it is being found the variable reads as null in the thread finding
+         * it, so a value that depends on itself is undefined.
+         */
+        private volatile Supplier<APValue> initializer;
+
+        /** Whether the value of the lazy variable is being found. */
+        private boolean initializing;
+
         /**
          * Instantiates a new variable mapping.
          *
@@ -212,6 +339,53 @@ public class Context {
             this.isMutable = isMutable;
         }
 
+        /**
+         * Gets the value of the variable, finding it first if the variable is
+         * lazy.
+         *
+         * @return the value, or null if it is being found
+         */
+        public APValue getVariable() {
+            if (initializer != null) {
+                initialize();
+            }
+            return variable;
+        }
+
+        /**
+         * Finds the value of a lazy variable. If finding it fails, it is
+         * found again when the variable is next read.
+         */
+        private synchronized void initialize() {
+            final Supplier<APValue> lazy = initializer;
+            if (lazy == null || initializing) {
+                return;
+            }
+            initializing = true;
+            try {
+                variable = lazy.get().reference();
+                initializer = null;
+            } finally {
+                initializing = false;
+            }
+        }
+
+        /**
+         * Gets the version.
+         *
+         * @return the version
+         */
+        public int getVersion() {
+            return version;
+        }
+
+        /**
+         * Marks this cell as replaced.
+         */
+        private void invalidate() {
+            version++;
+        }
+
         @Override
         public int hashCode() {
             final int prime = 31;
@@ -3,58 +3,54 @@
  */
 package machine;
 
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import parser.ExpressionNode;
-import parser.ParserException;
-import type.DataStructureInstance;
+import type.APValueType;
 
 // TODO: Auto-generated Javadoc
 /**
- * The Class DataConstructor.
+ * The Class DataConstructor. Also serves as the shape of its instances: each
+ * field has a fixed slot, which is its index in {@link #fields}.
  */
 public class DataConstructor {
     
     /** The name. */
     public final String name;
+
+    /** The type, whose parent is the datatype. */
+    public final APValueType type;
     
     /** The fields. */
     public final List<String> fields;
 
+    /** The slot of each field. */
+    private final Map<String, Integer> slots = new HashMap<>();
+
     /**
      * Instantiates a new data constructor.
      *
-     * @param name the name
-     * @param subName the sub name
+     * @param type the type, named "Name$Sub"
      * @param fields the fields
      */
-    public DataConstructor(final String name, final String subName,
-            final List<String> fields) {
-        this.name = name + "$" + subName;
+    public DataConstructor(final APValueType type, final List<String> fields) {
+        this.name = type.getValue();
+        this.type = type;
         this.fields = fields;
+        for (int i = 0; i < fields.size(); i++) {
+            slots.put(fields.get(i), i);
+        }
     }
-    
+
     /**
-     * Gets the single instance of DataConstructor.
+     * Gets the slot of a field.
      *
-     * @param fields the fields
-     * @return single instance of DataConstructor
+     * @param field the field name
+     * @return the slot, or -1 if this constructor has no such field
      */
-    public DataStructureInstance getInstance(
-            final Map<String, ExpressionNode> fields) {
-        for (final String s : this.fields) {
-            if (!fields.containsKey(s)) {
-                throw new ParserException(
-                        "Parameters must match data structure constructor");
-            }
-        }
-        for (final String s : fields.keySet()) {
-            if (!this.fields.contains(s)) {
-                throw new ParserException(
-                        "Parameters must match data structure constructor");
-            }
-        }
-        return new DataStructureInstance(name, fields);
+    public int slotOf(final String field) {
+        final Integer slot = slots.get(field);
+        return slot == null ? -1 : slot;
+    }
     }
-}
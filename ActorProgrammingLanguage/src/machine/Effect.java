@@ -0,0 +1,34 @@
+/*
+ *
+ */
+package machine;
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Enum Effect. What calling a function can do besides giving a value,
+ * from the least to the most. A call of a pure function can be cached,
+ * reordered or run in parallel; a read-only one can be reordered with other
+ * reads.
+ */
+public enum Effect {
+
+    /** Gives a value that depends only on the arguments. */
+    PURE,
+
+    /** Also reads state that can change, such as mutable variables. */
+    READ_ONLY,
+
+    /** Also changes state or prints, or its effects are not known. */
+    EFFECTFUL;
+
+    /**
+     * Gets the effect of doing both this and another effect.
+     *
+     * @param other
+     *            the other effect
+     * @return the larger of the two
+     */
+    public Effect join(final Effect other) {
+        return compareTo(other) >= 0 ? this : other;
+    }
+}
@@ -3,14 +3,24 @@
  */
 package machine;
 
+import java.util.Arrays;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 import parser.ExpressionNode;
+import parser.ExpressionNode.AssignmentNode;
+import parser.ExpressionNode.FunctionCallNode.TailCall;
+import parser.ExpressionNode.LambdaNode;
+import parser.ExpressionNode.MatchNode;
 import parser.ExpressionNode.VariableNode;
+import type.APValue;
 
 // TODO: Auto-generated Javadoc
 /**
- * The Class Function represents a function in the language.
+ * The Class Function represents a function in the language. A function made
+ * by a lambda also holds the values it captured, which are bound when it is
+ * called.
  *
  * @author Kyran Adams
  * @version $Revision: 1.0 $
@@ -26,6 +36,52 @@ public class Function {
     /** The name of the function. */
     public final String name;
 
+    /** The names of the captured variables. */
+    private final String[] captured;
+
+    /** The captured values, in the order of their names. */
+    private final APValue[] environment;
+
+    /**
+     * The function this is a closure of, or this function. The code that runs
+     * the body is kept there, so closures use code compiled after they were
+     * made.
+     */
+    private final Function original;
+
+    /** The code that runs the body, which starts out as the body itself. */
+    private volatile ExpressionNode code;
+
+    /** The tiering that promotes this function when it is hot, or null. */
+    private volatile Tiering tiering;
+
+    /** The number of calls. Updates from other threads may be lost. */
+    private int invocations;
+
+    /**
+     * The number of loop iterations, counting tail calls and calls from
+     * builtin loops. Updates from other threads may be lost.
+     */
+    private int backEdges;
+
+    /** Whether this function has been handed to its tiering. */
+    private volatile boolean promoted;
+
+    /**
+     * What calling this function can do. It is not known until the function
+     * is analyzed, so it starts out as {@link Effect#EFFECTFUL}.
+     */
+    private volatile Effect effect = Effect.EFFECTFUL;
+
+    /** The names the body reads from its caller, found when first needed. */
+    private volatile String[] freeNames;
+
+    /**
+     * The hash code of the body, name and parameters, or 0 if it has not been
+     * found yet.
+     */
+    private int hash;
+
     /**
      * Instantiates a new function.
      *
@@ -41,6 +97,265 @@ public class Function {
         this.name = name;
         this.parameters = parameters;
         this.body = body;
+        captured = new String[0];
+        environment = new APValue[0];
+        original = this;
+        code = body;
+    }
+
+    /**
+     * Instantiates a new closure of a function.
+     *
+     * @param function
+     *            the function
+     * @param captured
+     *            the names of the captured variables
+     * @param environment
+     *            the captured values
+     */
+    public Function(final Function function, final String[] captured,
+            final APValue[] environment) {
+        name = function.name;
+        parameters = function.parameters;
+        body = function.body;
+        this.captured = captured;
+        this.environment = environment;
+        original = function.original;
+    }
+
+    /**
+     * Calls this function in a context that already has its parameters bound.
+     * Tail calls made by the body are run here one after another, so they do
+     * not use any more of the Java stack.
+     *
+     * @param context
+     *            the context of the call
+     * @return the value of the call
+     */
+    public APValue invoke(final Context context) {
+        original.invocations++;
+        original.checkHot();
+        return run(context);
+    }
+
+    /**
+     * Calls this function as the body of a loop, in a context that already
+     * has its parameters bound. The call counts as a back edge rather than as
+     * an invocation.
+     *
+     * @param context
+     *            the context of the call
+     * @return the value of the call
+     */
+    public APValue iterate(final Context context) {
+        original.countBackEdge();
+        return run(context);
+    }
+
+    /**
+     * Runs the code of this function, then the tail calls it makes.
+     *
+     * @param context
+     *            the context of the call
+     * @return the value of the call
+     */
+    private APValue run(final Context context) {
+        APValue result = getCode().getValue(context);
+        while (result instanceof TailCall) {
+            final TailCall call = (TailCall) result;
+            call.function.original.countBackEdge();
+            result = call.function.getCode().getValue(call.context);
+        }
+        return result;
+    }
+
+    /**
+     * Counts a back edge.
+     */
+    private void countBackEdge() {
+        backEdges++;
+        checkHot();
+    }
+
+    /**
+     * Hands this function to its tiering once it is hot.
+     */
+    private void checkHot() {
+        final Tiering t = tiering;
+        if (t == null || promoted
+                || invocations + backEdges < t.getThreshold()) {
+            return;
+        }
+        promote();
+    }
+
+    /**
+     * Hands this function to its tiering now, as if it were hot, for example
+     * because it was hot in an earlier run of the program. Does nothing if
+     * the function has no tiering or was already promoted.
+     */
+    public void promote() {
+        synchronized (original) {
+            final Tiering t = original.tiering;
+            if (t != null && !original.promoted) {
+                original.promoted = true;
+                t.promote(original);
+            }
+        }
+    }
+
+    /**
+     * Sets the tiering that promotes this function when it is hot.
+     *
+     * @param tiering
+     *            the tiering, or null to stop promoting
+     */
+    public void setTiering(final Tiering tiering) {
+        original.tiering = tiering;
+        original.checkHot();
+    }
+
+    /**
+     * Gets the number of calls of this function and its closures.
+     *
+     * @return the invocations
+     */
+    public int getInvocations() {
+        return original.invocations;
+    }
+
+    /**
+     * Gets the number of loop iterations of this function and its closures.
+     *
+     * @return the back edges
+     */
+    public int getBackEdges() {
+        return original.backEdges;
+    }
+
+    /**
+     * Gets what calling this function and its closures can do.
+     *
+     * @return the effect
+     */
+    public Effect getEffect() {
+        return original.effect;
+    }
+
+    /**
+     * Sets what calling this function and its closures can do, as found by
+     * an analysis of the body.
+     *
+     * @param effect
+     *            the effect
+     */
+    public void setEffect(final Effect effect) {
+        original.effect = effect;
+    }
+
+    /**
+     * Gets the code that runs the body.
+     *
+     * @return the code
+     */
+    public ExpressionNode getCode() {
+        return original.code;
+    }
+
+    /**
+     * Replaces the code that runs the body, for example with a compiled
+     * version of it. Calls that start afterwards run the new code.
+     *
+     * @param code
+     *            the code, which must give the same values as the body
+     */
+    public void setCode(final ExpressionNode code) {
+        original.code = code;
+    }
+
+    /**
+     * Gets the captured values.
+     *
+     * @return the captured values
+     */
+    public List<APValue> getEnvironment() {
+        return Arrays.asList(environment);
+    }
+
+    /**
+     * Gets the names of the captured variables.
+     *
+     * @return the names
+     */
+    public List<String> getCaptured() {
+        return Arrays.asList(captured);
+    }
+
+    /**
+     * Gets the names the body reads that are not bound by the function
+     * itself, that is not its parameters, its captured variables or a name
+     * it binds in its body. Since a function is called in a copy of its
+     * caller's context, their values are found in the caller.
+     *
+     * @return the names, in the order they are first read
+     */
+    public List<String> getFreeNames() {
+        String[] names = original.freeNames;
+        if (names == null) {
+            final Set<String> read = new LinkedHashSet<>();
+            final Set<String> bound = new LinkedHashSet<>();
+            for (final VariableNode parameter : parameters) {
+                bound.add(parameter.getName());
+            }
+            bound.addAll(Arrays.asList(captured));
+            names(body, read, bound);
+            read.removeAll(bound);
+            names = read.toArray(new String[read.size()]);
+            original.freeNames = names;
+        }
+        return Arrays.asList(names);
+    }
+
+    /**
+     * Adds the names an expression reads and the names it binds.
+     *
+     * @param node
+     *            the expression
+     * @param read
+     *            the names read so far
+     * @param bound
+     *            the names bound so far
+     */
+    private static void names(final ExpressionNode node,
+            final Set<String> read, final Set<String> bound) {
+        if (node instanceof VariableNode) {
+            read.add(((VariableNode) node).getName());
+        } else if (node instanceof AssignmentNode) {
+            bound.add(((AssignmentNode) node).getVariable().getName());
+        } else if (node instanceof LambdaNode) {
+            for (final VariableNode parameter : ((LambdaNode) node)
+                    .getFunction().parameters) {
+                bound.add(parameter.getName());
+            }
+        } else if (node instanceof MatchNode) {
+            bound.addAll(((MatchNode) node).getBoundNames());
+        }
+        final List<ExpressionNode> children = node.getChildren();
+        for (final ExpressionNode child : children) {
+            names(child, read, bound);
+        }
+    }
+
+    /**
+     * Binds the captured values in the context of a call.
+     *
+     * @param context
+     *            the context of the call
+     */
+    public void bindEnvironment(final Context context) {
+        for (int i = 0; i < captured.length; i++) {
+            context.putParameter(captured[i], environment[i]);
+        }
     }
 
     /*
@@ -57,11 +372,17 @@ public class Function {
     @Override
     public int hashCode() {
         final int prime = 31;
-        int result = 1;
-        result = prime * result + (body == null ? 0 : body.hashCode());
-        result = prime * result + (name == null ? 0 : name.hashCode());
-        result = prime * result
-                + (parameters == null ? 0 : parameters.hashCode());
+        // the body is hashed whole, so that part is kept for memo cache keys
+        int result = hash;
+        if (result == 0) {
+            result = 1;
+            result = prime * result + (body == null ? 0 : body.hashCode());
+            result = prime * result + (name == null ? 0 : name.hashCode());
+            result = prime * result
+                    + (parameters == null ? 0 : parameters.hashCode());
+            hash = result;
+        }
+        result = prime * result + Arrays.hashCode(environment);
         return result;
     }
     
@@ -98,6 +419,9 @@ public class Function {
         } else if (!parameters.equals(other.parameters)) {
             return false;
         }
+        if (!Arrays.equals(environment, other.environment)) {
+            return false;
+        }
         return true;
     }
     
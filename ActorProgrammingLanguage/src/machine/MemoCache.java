@@ -0,0 +1,139 @@
+/*
+ *
+ */
+package machine;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import type.APValue;
+import type.APValueData;
+import type.APValueList;
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class MemoCache. Holds the results of a memoized function, keyed on its
+ * argument values. The cache keeps at most a fixed number of results and
+ * evicts the least recently used one when it is full. It may be used from
+ * several threads.
+ */
+public class MemoCache {
+
+    /** The maximum number of results. */
+    private final int capacity;
+
+    /** The results, least recently used first. */
+    private final Map<List<APValue>, APValue> results;
+
+    /** The number of lookups that found a result. */
+    private final AtomicLong hits = new AtomicLong();
+
+    /** The number of lookups that did not find a result. */
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Instantiates a new memo cache.
+     *
+     * @param capacity
+     *            the maximum number of results
+     */
+    public MemoCache(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException(
+                    "Memo cache capacity must be at least 1, was " + capacity);
+        }
+        this.capacity = capacity;
+        results = new LinkedHashMap<List<APValue>, APValue>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                    final Map.Entry<List<APValue>, APValue> eldest) {
+                return size() > MemoCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Gets the result for some arguments, counting a hit or a miss.
+     *
+     * @param arguments
+     *            the arguments
+     * @return the result, or null if there is none
+     */
+    public APValue get(final List<APValue> arguments) {
+        final APValue result;
+        synchronized (results) {
+            result = results.get(arguments);
+        }
+        (result == null ? misses : hits).incrementAndGet();
+        return result;
+    }
+
+    /**
+     * Stores the result for some arguments.
+     *
+     * @param arguments
+     *            the arguments
+     * @param result
+     *            the result
+     */
+    public void put(final List<APValue> arguments, final APValue result) {
+        synchronized (results) {
+            results.put(arguments, result);
+        }
+    }
+
+    /**
+     * Gets the number of lookups that found a result.
+     *
+     * @return the hits
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Gets the number of lookups that did not find a result.
+     *
+     * @return the misses
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Gets the number of stored results.
+     *
+     * @return the size
+     */
+    public int size() {
+        synchronized (results) {
+            return results.size();
+        }
+    }
+
+    /**
+     * Checks whether a value can be used as part of a key. Data structure
+     * instances can be changed in place, so calls with them are not cached.
+     *
+     * @param value
+     *            the value
+     * @return true, if the value can be a key
+     */
+    public static boolean isCacheable(final APValue value) {
+        if (value instanceof APValueData) {
+            return false;
+        }
+        if (value instanceof APValueList) {
+            for (final APValue element : ((APValueList) value).getValue()) {
+                if (!isCacheable(element)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
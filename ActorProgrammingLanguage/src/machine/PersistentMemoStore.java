@@ -0,0 +1,326 @@
+/*
+ *
+ */
+package machine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import type.APNumber;
+import type.APValue;
+import type.APValueBool;
+import type.APValueChar;
+import type.APValueFunction;
+import type.APValueList;
+import type.APValueNum;
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class PersistentMemoStore. Keeps the results of memoized functions in a
+ * file, so that a later run can reuse them. The file is memory mapped when the
+ * store is opened, and new results are appended to it.
+ * <p>
+ * Each result is keyed on a hash of the function's source and its argument
+ * values, so changing a function's source leaves its old results unused. Only
+ * numbers, characters, booleans and lists of them can be stored. A key may
+ * also hold functions, which are kept as a hash of their source and their
+ * captured values, and variables that are not bound.
+ */
+public class PersistentMemoStore {
+
+    /** The tag of a number. */
+    private static final byte NUM = 'N';
+
+    /** The tag of a character. */
+    private static final byte CHAR = 'C';
+
+    /** The tag of a boolean. */
+    private static final byte BOOL = 'B';
+
+    /** The tag of a list. */
+    private static final byte LIST = 'L';
+
+    /** The tag of a function, in a key. */
+    private static final byte FUNC = 'F';
+
+    /** The tag of a variable that is not bound, in a key. */
+    private static final byte UNBOUND = 'U';
+
+    /** The file. */
+    private final Path file;
+
+    /** The encoded results by encoded key. */
+    private final Map<ByteBuffer, byte[]> results = new HashMap<>();
+
+    /**
+     * Opens a store, reading the results already in its file. A record that
+     * is not complete, because a run stopped while writing it, is cut off the
+     * end of the file, so that new results are appended after the last
+     * complete one.
+     *
+     * @param file
+     *            the file, which is created when the first result is stored
+     */
+    public PersistentMemoStore(final Path file) {
+        this.file = file;
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final MappedByteBuffer buffer = channel.map(
+                    FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            // the end of the last complete record
+            int complete = 0;
+            while (buffer.remaining() >= 4) {
+                final int keyLength = buffer.getInt();
+                if (keyLength < 0 || keyLength > buffer.remaining() - 4) {
+                    break;
+                }
+                final byte[] key = new byte[keyLength];
+                buffer.get(key);
+                final int valueLength = buffer.getInt();
+                if (valueLength < 0 || valueLength > buffer.remaining()) {
+                    break;
+                }
+                final byte[] value = new byte[valueLength];
+                buffer.get(value);
+                results.put(ByteBuffer.wrap(key), value);
+                complete = buffer.position();
+            }
+            if (complete < channel.size()) {
+                channel.truncate(complete);
+            }
+        } catch (final IOException e) {
+            throw new ContextException("Could not read memo store " + file, e);
+        }
+    }
+
+    /**
+     * Hashes the source of a function. The hash is the same in every run
+     * while the source is unchanged.
+     *
+     * @param source
+     *            the source
+     * @return the hash
+     */
+    public static long hash(final String source) {
+        long hash = 0xcbf29ce484222325L;
+        for (final byte b : source.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Gets a stored result.
+     *
+     * @param source
+     *            the hash of the function's source
+     * @param arguments
+     *            the arguments
+     * @return the result, or null if none is stored
+     */
+    public APValue get(final long source, final List<APValue> arguments) {
+        final byte[] key = key(source, arguments);
+        if (key == null) {
+            return null;
+        }
+        final byte[] value;
+        synchronized (results) {
+            value = results.get(ByteBuffer.wrap(key));
+        }
+        return value == null ? null : decode(ByteBuffer.wrap(value));
+    }
+
+    /**
+     * Stores a result, if the arguments and the result can be stored.
+     *
+     * @param source
+     *            the hash of the function's source
+     * @param arguments
+     *            the arguments
+     * @param result
+     *            the result
+     */
+    public void put(final long source, final List<APValue> arguments,
+            final APValue result) {
+        final byte[] key = key(source, arguments);
+        final byte[] value = encode(result);
+        if (key == null || value == null) {
+            return;
+        }
+        final ByteBuffer record = ByteBuffer.allocate(8 + key.length
+                + value.length);
+        record.putInt(key.length).put(key).putInt(value.length).put(value);
+        record.flip();
+        synchronized (results) {
+            try (FileChannel channel = FileChannel.open(file,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND)) {
+                while (record.hasRemaining()) {
+                    channel.write(record);
+                }
+            } catch (final IOException e) {
+                throw new ContextException("Could not write memo store "
+                        + file, e);
+            }
+            results.put(ByteBuffer.wrap(key), value);
+        }
+    }
+
+    /**
+     * Encodes a key.
+     *
+     * @param source
+     *            the hash of the function's source
+     * @param arguments
+     *            the arguments, which may be null for a variable that is not
+     *            bound
+     * @return the key, or null if an argument can not be stored
+     */
+    private static byte[] key(final long source, final List<APValue> arguments) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeLong(source);
+            for (final APValue argument : arguments) {
+                if (!writeKey(argument, out)) {
+                    return null;
+                }
+            }
+        } catch (final IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes a value of a key. A function is written as the hash of its
+     * source and its captured values.
+     *
+     * @param value
+     *            the value, or null for a variable that is not bound
+     * @param out
+     *            the output
+     * @return true, if the value can be stored
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    private static boolean writeKey(final APValue value,
+            final DataOutputStream out) throws IOException {
+        if (value == null) {
+            out.writeByte(UNBOUND);
+        } else if (value instanceof APValueFunction) {
+            final Function function = ((APValueFunction) value).getValue();
+            out.writeByte(FUNC);
+            out.writeLong(hash(function.toString()));
+            for (final APValue captured : function.getEnvironment()) {
+                if (!writeKey(captured, out)) {
+                    return false;
+                }
+            }
+        } else {
+            return write(value, out);
+        }
+        return true;
+    }
+
+    /**
+     * Encodes a value.
+     *
+     * @param value
+     *            the value
+     * @return the bytes, or null if the value can not be stored
+     */
+    private static byte[] encode(final APValue value) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            if (!write(value, new DataOutputStream(bytes))) {
+                return null;
+            }
+        } catch (final IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes a value.
+     *
+     * @param value
+     *            the value
+     * @param out
+     *            the output
+     * @return true, if the value can be stored
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    private static boolean write(final APValue value,
+            final DataOutputStream out) throws IOException {
+        if (value instanceof APValueNum) {
+            out.writeByte(NUM);
+            out.writeDouble(((APNumber) value.getValue()).doubleValue());
+        } else if (value instanceof APValueChar) {
+            out.writeByte(CHAR);
+            out.writeChar((Character) value.getValue());
+        } else if (value instanceof APValueBool) {
+            out.writeByte(BOOL);
+            out.writeBoolean((Boolean) value.getValue());
+        } else if (value instanceof APValueList) {
+            final List<APValue> list = ((APValueList) value).getValue();
+            out.writeByte(LIST);
+            out.writeInt(list.size());
+            for (final APValue element : list) {
+                if (!write(element, out)) {
+                    return false;
+                }
+            }
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reads a value.
+     *
+     * @param in
+     *            the input
+     * @return the value
+     */
+    private static APValue decode(final ByteBuffer in) {
+        final byte tag = in.get();
+        switch (tag) {
+            case NUM:
+                return new APValueNum(new APNumber(in.getDouble()));
+            case CHAR:
+                return new APValueChar(in.getChar());
+            case BOOL:
+                return new APValueBool(in.get() != 0);
+            case LIST:
+                final int size = in.getInt();
+                final List<APValue> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(decode(in));
+                }
+                return new APValueList(list);
+            default:
+                throw new ContextException("Corrupt memo store, unknown tag "
+                        + tag);
+        }
+    }
+}
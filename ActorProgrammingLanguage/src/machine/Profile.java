@@ -0,0 +1,366 @@
+/*
+ *
+ */
+package machine;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import parser.ExpressionNode;
+import parser.ExpressionNode.FieldAccessNode;
+import parser.ExpressionNode.FunctionCallNode;
+import parser.ExpressionNode.LambdaNode;
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class Profile. What a run of a program saw, kept in a file so that the
+ * next run of the same program can start with it instead of warming up
+ * again. A profile has the operand types of each operator, the functions
+ * called at each call site, the shape seen by each field access and how hot
+ * each function was.
+ * <p>
+ * Each expression is found by its position in the program: the index of its
+ * statement, then the index of each child on the way down to it. A profile is
+ * only used for the program it was recorded for, which is checked by a hash
+ * of the program's source.
+ * <p>
+ * The file is text, with one line for each expression:
+ *
+ * <pre>
+ * apl-profile &lt;hash of the program&gt;
+ * types &lt;position&gt; &lt;operand types&gt;
+ * calls &lt;position&gt; &lt;position of a lambda&gt;...
+ * shape &lt;position&gt; &lt;constructor&gt;
+ * hot &lt;position of a lambda&gt; &lt;invocations and back edges&gt;
+ * </pre>
+ */
+public final class Profile {
+
+    /** The system property with the profile file. */
+    public static final String PROPERTY = "apl.profile";
+
+    /** The first word of a profile file. */
+    private static final String HEADER = "apl-profile";
+
+    /** The hash of the program the profile was recorded for. */
+    private long program;
+
+    /** The operand types of each operator. */
+    private final Map<String, Integer> types = new LinkedHashMap<>();
+
+    /** The positions of the lambdas called at each call site. */
+    private final Map<String, List<String>> calls = new LinkedHashMap<>();
+
+    /** The constructor seen by each field access. */
+    private final Map<String, String> shapes = new LinkedHashMap<>();
+
+    /** The invocations and back edges of each lambda. */
+    private final Map<String, Integer> hot = new LinkedHashMap<>();
+
+    /**
+     * Instantiates a new empty profile.
+     */
+    public Profile() {
+    }
+
+    /**
+     * Gets the profile file from the system property.
+     *
+     * @return the file, or null if the property is not set
+     */
+    public static Path getDefaultFile() {
+        final String file = System.getProperty(PROPERTY);
+        return file == null ? null : Paths.get(file);
+    }
+
+    /**
+     * Reads a profile. A missing file gives an empty profile, and lines that
+     * can not be read are skipped.
+     *
+     * @param file
+     *            the file
+     * @return the profile
+     */
+    public static Profile load(final Path file) {
+        final Profile profile = new Profile();
+        if (!Files.exists(file)) {
+            return profile;
+        }
+        try (BufferedReader in = Files.newBufferedReader(file,
+                StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                try {
+                    profile.read(line.trim().split(" "));
+                } catch (final RuntimeException e) {
+                    // a damaged line, skip it
+                }
+            }
+        } catch (final IOException e) {
+            throw new ContextException("Could not read profile " + file, e);
+        }
+        return profile;
+    }
+
+    /**
+     * Reads a line of a profile file.
+     *
+     * @param words
+     *            the words of the line
+     */
+    private void read(final String[] words) {
+        switch (words[0]) {
+            case HEADER:
+                program = Long.parseUnsignedLong(words[1], 16);
+                break;
+            case "types":
+                types.put(words[1], Integer.parseUnsignedInt(words[2], 16));
+                break;
+            case "calls":
+                calls.put(words[1], Arrays.asList(words).subList(2,
+                        words.length));
+                break;
+            case "shape":
+                shapes.put(words[1], words[2]);
+                break;
+            case "hot":
+                hot.put(words[1], Integer.parseInt(words[2]));
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Writes this profile to a file.
+     *
+     * @param file
+     *            the file
+     */
+    public void save(final Path file) {
+        try (BufferedWriter out = Files.newBufferedWriter(file,
+                StandardCharsets.UTF_8)) {
+            out.write(HEADER + " " + Long.toHexString(program));
+            out.newLine();
+            for (final Map.Entry<String, Integer> e : types.entrySet()) {
+                out.write("types " + e.getKey() + " "
+                        + Integer.toHexString(e.getValue()));
+                out.newLine();
+            }
+            for (final Map.Entry<String, List<String>> e : calls.entrySet()) {
+                out.write("calls " + e.getKey() + " "
+                        + String.join(" ", e.getValue()));
+                out.newLine();
+            }
+            for (final Map.Entry<String, String> e : shapes.entrySet()) {
+                out.write("shape " + e.getKey() + " " + e.getValue());
+                out.newLine();
+            }
+            for (final Map.Entry<String, Integer> e : hot.entrySet()) {
+                out.write("hot " + e.getKey() + " " + e.getValue());
+                out.newLine();
+            }
+        } catch (final IOException e) {
+            throw new ContextException("Could not write profile " + file, e);
+        }
+    }
+
+    /**
+     * Records what a run of a program saw, replacing what this profile had.
+     *
+     * @param nodes
+     *            the statements of the program, as parsed
+     */
+    public void record(final List<ExpressionNode> nodes) {
+        program = hash(nodes);
+        types.clear();
+        calls.clear();
+        shapes.clear();
+        hot.clear();
+        final Map<String, ExpressionNode> positions = positions(nodes);
+        final Map<ExpressionNode, String> lambdas = new IdentityHashMap<>();
+        for (final Map.Entry<String, ExpressionNode> e : positions.entrySet()) {
+            if (e.getValue() instanceof LambdaNode) {
+                lambdas.put(((LambdaNode) e.getValue()).getFunction().body,
+                        e.getKey());
+            }
+        }
+        for (final Map.Entry<String, ExpressionNode> e : positions.entrySet()) {
+            final String position = e.getKey();
+            final ExpressionNode node = e.getValue();
+            if (node.getOperandTypes() != 0) {
+                types.put(position, node.getOperandTypes());
+            }
+            if (node instanceof FunctionCallNode) {
+                final List<String> targets = new ArrayList<>();
+                final List<ExpressionNode> bodies = ((FunctionCallNode) node)
+                        .getTargetBodies();
+                for (final ExpressionNode body : bodies) {
+                    if (lambdas.containsKey(body)) {
+                        targets.add(lambdas.get(body));
+                    }
+                }
+                if (!targets.isEmpty()) {
+                    calls.put(position, targets);
+                }
+            } else if (node instanceof FieldAccessNode) {
+                final DataConstructor shape = ((FieldAccessNode) node)
+                        .getShape();
+                if (shape != null) {
+                    shapes.put(position, shape.name);
+                }
+            } else if (node instanceof LambdaNode) {
+                final Function function = ((LambdaNode) node).getFunction();
+                final int count = function.getInvocations()
+                        + function.getBackEdges();
+                if (count > 0) {
+                    hot.put(position, count);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gives the expressions of a program what this profile saw, if it was
+     * recorded for the same program. Should be called before the program is
+     * compiled, so that the compiler can use the operand types.
+     *
+     * @param nodes
+     *            the statements of the program, as parsed
+     * @param context
+     *            the context the program was parsed in
+     * @return true, if the profile was for this program
+     */
+    public boolean apply(final List<ExpressionNode> nodes,
+            final Context context) {
+        if (program != hash(nodes)) {
+            return false;
+        }
+        final Map<String, ExpressionNode> positions = positions(nodes);
+        for (final Map.Entry<String, Integer> e : types.entrySet()) {
+            final ExpressionNode node = positions.get(e.getKey());
+            if (node != null) {
+                node.addOperandTypes(e.getValue());
+            }
+        }
+        for (final Map.Entry<String, List<String>> e : calls.entrySet()) {
+            final ExpressionNode node = positions.get(e.getKey());
+            if (!(node instanceof FunctionCallNode)) {
+                continue;
+            }
+            for (final String target : e.getValue()) {
+                final ExpressionNode lambda = positions.get(target);
+                if (lambda instanceof LambdaNode) {
+                    ((FunctionCallNode) node).expect(((LambdaNode) lambda)
+                            .getFunction());
+                }
+            }
+        }
+        for (final Map.Entry<String, String> e : shapes.entrySet()) {
+            final ExpressionNode node = positions.get(e.getKey());
+            final List<DataConstructor> constructors = context.getDataType(e
+                    .getValue());
+            if (node instanceof FieldAccessNode && constructors != null) {
+                ((FieldAccessNode) node).expectShape(constructors.get(0));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Promotes the functions that were hot when this profile was recorded,
+     * so that they are compiled right away. Should be called once the
+     * functions have their tiering, and after {@link #apply(List, Context)}.
+     *
+     * @param nodes
+     *            the statements of the program, as parsed
+     * @param threshold
+     *            the number of invocations and back edges of a hot function
+     */
+    public void promote(final List<ExpressionNode> nodes, final int threshold) {
+        if (program != hash(nodes)) {
+            return;
+        }
+        final Map<String, ExpressionNode> positions = positions(nodes);
+        for (final Map.Entry<String, Integer> e : hot.entrySet()) {
+            final ExpressionNode node = positions.get(e.getKey());
+            if (node instanceof LambdaNode && e.getValue() >= threshold) {
+                ((LambdaNode) node).getFunction().promote();
+            }
+        }
+    }
+
+    /**
+     * Gets the invocations and back edges recorded for a lambda.
+     *
+     * @param position
+     *            the position of the lambda
+     * @return the count, or 0 if none was recorded
+     */
+    public int getHotness(final String position) {
+        final Integer count = hot.get(position);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * Finds the position of every expression in a program.
+     *
+     * @param nodes
+     *            the statements of the program
+     * @return the expressions by position, in the order they are found
+     */
+    public static Map<String, ExpressionNode> positions(
+            final List<ExpressionNode> nodes) {
+        final Map<String, ExpressionNode> positions = new LinkedHashMap<>();
+        for (int i = 0; i < nodes.size(); i++) {
+            addPositions(Integer.toString(i), nodes.get(i), positions);
+        }
+        return positions;
+    }
+
+    /**
+     * Adds the positions of an expression and its children.
+     *
+     * @param position
+     *            the position of the expression
+     * @param node
+     *            the expression
+     * @param positions
+     *            the positions found so far
+     */
+    private static void addPositions(final String position,
+            final ExpressionNode node,
+            final Map<String, ExpressionNode> positions) {
+        positions.put(position, node);
+        final List<ExpressionNode> children = node.getChildren();
+        for (int i = 0; i < children.size(); i++) {
+            addPositions(position + "." + i, children.get(i), positions);
+        }
+    }
+
+    /**
+     * Hashes the source of a program.
+     *
+     * @param nodes
+     *            the statements of the program
+     * @return the hash
+     */
+    private static long hash(final List<ExpressionNode> nodes) {
+        final StringBuilder source = new StringBuilder();
+        for (final ExpressionNode node : nodes) {
+            source.append(node).append(';');
+        }
+        return PersistentMemoStore.hash(source.toString());
+    }
+}
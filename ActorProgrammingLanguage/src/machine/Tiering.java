@@ -0,0 +1,96 @@
+/*
+ *
+ */
+package machine;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.UnaryOperator;
+
+import parser.ExpressionNode;
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class Tiering. Promotes hot functions to faster code. A function starts
+ * out running its body with the tree walker and counts its invocations and
+ * loop back edges. Once the sum reaches the threshold its body is compiled on
+ * a background thread, and calls that start after the compiled code is
+ * installed run it.
+ */
+public final class Tiering {
+
+    /** The system property with the threshold. */
+    public static final String THRESHOLD_PROPERTY = "apl.tier.threshold";
+
+    /** The threshold used when the property is not set. */
+    public static final int DEFAULT_THRESHOLD = 1000;
+
+    /** The thread that compiles hot functions. */
+    private static final ExecutorService COMPILER = Executors
+            .newSingleThreadExecutor(task -> {
+                final Thread thread = new Thread(task, "apl-compiler");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    /** The compiler of the faster tier. */
+    private final UnaryOperator<ExpressionNode> compiler;
+
+    /** The number of invocations and back edges before promotion. */
+    private final int threshold;
+
+    /**
+     * Instantiates a new tiering.
+     *
+     * @param compiler
+     *            the compiler of the faster tier
+     * @param threshold
+     *            the number of invocations and back edges before promotion
+     */
+    public Tiering(final UnaryOperator<ExpressionNode> compiler,
+            final int threshold) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException(
+                    "Tier threshold must not be negative, was " + threshold);
+        }
+        this.compiler = compiler;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Gets the threshold from the system property, or the default one.
+     *
+     * @return the threshold
+     */
+    public static int getDefaultThreshold() {
+        return Integer.getInteger(THRESHOLD_PROPERTY, DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Gets the number of invocations and back edges before promotion.
+     *
+     * @return the threshold
+     */
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Compiles the body of a function in the background and installs the
+     * code. If the body can not be compiled the function keeps its code.
+     *
+     * @param function
+     *            the function
+     */
+    void promote(final Function function) {
+        COMPILER.execute(() -> {
+            final ExpressionNode code;
+            try {
+                code = compiler.apply(function.body);
+            } catch (final RuntimeException e) {
+                return;
+            }
+            function.setCode(code);
+        });
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ *
+ */
+package machine;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import type.APValueType;
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class TypeRegistry. Gives every type an integer id, so that type checks
+ * are integer compares. The builtin types have fixed ids, datatypes and their
+ * constructors get the next free id when they are first named. A constructor
+ * links to the id of its datatype as its parent.
+ */
+public class TypeRegistry {
+
+    /** The id used when a type has no parent. */
+    public static final int NONE = -1;
+
+    /** The id of Num. */
+    public static final int NUM = 0;
+
+    /** The id of Char. */
+    public static final int CHAR = 1;
+
+    /** The id of Bool. */
+    public static final int BOOL = 2;
+
+    /** The id of Func. */
+    public static final int FUNC = 3;
+
+    /** The id of List. */
+    public static final int LIST = 4;
+
+    /** The names of the builtin types, indexed by id. */
+    private static final String[] BUILTIN_NAMES = new String[] { "Num",
+            "Char", "Bool", "Func", "List" };
+
+    /** The types by name. */
+    private final Map<String, APValueType> types = new HashMap<>();
+
+    /** The next free id. */
+    private int nextId = BUILTIN_NAMES.length;
+
+    /**
+     * Instantiates a new type registry holding the builtin types.
+     */
+    public TypeRegistry() {
+        for (int id = 0; id < BUILTIN_NAMES.length; id++) {
+            types.put(BUILTIN_NAMES[id], new APValueType(BUILTIN_NAMES[id],
+                    id, NONE));
+        }
+    }
+
+    /**
+     * Gets the type with a given name. A name that has not been seen yet is
+     * given a new id, so a type can be named before it is declared.
+     *
+     * @param name
+     *            the name
+     * @return the type
+     */
+    public APValueType get(final String name) {
+        APValueType type = types.get(name);
+        if (type == null) {
+            type = new APValueType(name, nextId++, NONE);
+            types.put(name, type);
+        }
+        return type;
+    }
+
+    /**
+     * Defines a type with a parent, keeping the id it may already have.
+     *
+     * @param name
+     *            the name
+     * @param parent
+     *            the id of the parent type, or {@link #NONE}
+     * @return the type
+     */
+    public APValueType define(final String name, final int parent) {
+        final APValueType type = new APValueType(name, get(name).id, parent);
+        types.put(name, type);
+        return type;
+    }
+
+    /**
+     * Gets the builtin types.
+     *
+     * @return the builtin types
+     */
+    public static String[] builtinNames() {
+        return BUILTIN_NAMES.clone();
+    }
+}
@@ -0,0 +1,622 @@
+/*
+ *
+ */
+package machine.bytecode;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import machine.Context;
+import machine.Function;
+import machine.TypeRegistry;
+import machine.bytecode.ClassBuilder.Code;
+import machine.bytecode.ClassBuilder.CodeTooLargeException;
+import parser.ExpressionNode;
+import parser.ExpressionNode.ConstantNode;
+import parser.ExpressionNode.FunctionCallNode;
+import parser.ExpressionNode.IfNode;
+import parser.ExpressionNode.SequenceNode;
+import type.APValue;
+import type.APValue.Operators;
+import type.APValueNum;
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class BytecodeCompiler. Compiles expressions to JVM classes, so that
+ * HotSpot can optimize them.
+ * <p>
+ * Operators, if expressions, sequences and calls are compiled. Operators on
+ * two numbers are done on doubles, and other operands go through
+ * {@link APValue#callMethod(Operators, APValue)} as in the tree walker. Where
+ * type inference proved that operands are numbers, the check is left out and
+ * nested arithmetic stays on unboxed doubles. Any
+ * other expression is kept as a tree and evaluated from the compiled code, so
+ * every program can be compiled and gives the same values as the tree walker.
+ */
+public final class BytecodeCompiler {
+
+    /** The prefix of the names of the generated classes. */
+    private static final String CLASS_PREFIX = "machine/bytecode/generated/Code";
+
+    /** The number of generated classes. */
+    private static final AtomicInteger CLASS_COUNT = new AtomicInteger();
+
+    /** The local slot of the context. */
+    private static final int CONTEXT = 1;
+
+    /** The class being written. */
+    private final ClassBuilder builder;
+
+    /** The code of the run method. */
+    private final Code code;
+
+    /** The local slot of the constants array. */
+    private final int constantsSlot;
+
+    /** The constants used by the code, in the order of their indexes. */
+    private final List<Object> constants = new ArrayList<>();
+
+    /** The index of each constant. */
+    private final Map<Object, Integer> constantIndex = new IdentityHashMap<>();
+
+    /**
+     * Instantiates a new bytecode compiler for one class.
+     */
+    private BytecodeCompiler() {
+        builder = new ClassBuilder(CLASS_PREFIX
+                + CLASS_COUNT.incrementAndGet(), "java/lang/Object",
+                internalName(CompiledCode.class));
+        code = new Code(2);
+        constantsSlot = code.newLocal();
+    }
+
+    /**
+     * Compiles an expression to a class. The lambdas in it are not compiled.
+     *
+     * @param node
+     *            the expression
+     * @return the compiled expression, or the expression itself if it can
+     *         not be compiled
+     */
+    public static ExpressionNode compile(final ExpressionNode node) {
+        if (!isCompiled(node)) {
+            return node;
+        }
+        try {
+            return new CompiledNode(node, new BytecodeCompiler().generate(node));
+        } catch (final CodeTooLargeException e) {
+            return node;
+        }
+    }
+
+    /**
+     * Checks whether an expression is compiled to instructions rather than
+     * evaluated as a tree.
+     *
+     * @param node
+     *            the expression
+     * @return true, if the expression is compiled
+     */
+    private static boolean isCompiled(final ExpressionNode node) {
+        return node.getOperator() != null || node instanceof IfNode
+                || node instanceof SequenceNode
+                || node instanceof FunctionCallNode;
+    }
+
+    /**
+     * Generates and loads the class for an expression.
+     *
+     * @param node
+     *            the expression
+     * @return the compiled code
+     */
+    private CompiledCode generate(final ExpressionNode node) {
+        final String objects = "[Ljava/lang/Object;";
+        builder.field(ClassBuilder.PRIVATE | ClassBuilder.FINAL, "constants",
+                objects);
+
+        final Code init = new Code(2);
+        init.load(0);
+        init.op2(0xb7, builder.methodRef("java/lang/Object", "<init>", "()V"),
+                -1);
+        init.load(0);
+        init.load(1);
+        init.op2(0xb5,
+                builder.fieldRef(builder.getName(), "constants", objects), -2);
+        init.op(0xb1, 0);
+        builder.method(ClassBuilder.PUBLIC, "<init>", "(" + objects + ")V",
+                init);
+
+        code.load(0);
+        code.op2(0xb4,
+                builder.fieldRef(builder.getName(), "constants", objects), 0);
+        code.store(constantsSlot);
+        emit(node);
+        code.op(0xb0, -1);
+        builder.method(ClassBuilder.PUBLIC, "run", "(" + descriptor(Context.class)
+                + ")" + descriptor(APValue.class), code);
+
+        final byte[] bytes = builder.toByteArray();
+        try {
+            return (CompiledCode) new CodeLoader()
+                    .define(builder.getName().replace('/', '.'), bytes)
+                    .getConstructor(Object[].class)
+                    .newInstance((Object) constants.toArray());
+        } catch (final ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not load compiled code", e);
+        }
+    }
+
+    /**
+     * Emits the instructions that push the value of an expression.
+     *
+     * @param node
+     *            the expression
+     */
+    private void emit(final ExpressionNode node) {
+        final Operators operator = node.getOperator();
+        if (node instanceof ConstantNode) {
+            // a constant does not look at its context
+            loadConstant(node.getValue(null), APValue.class);
+        } else if (operator != null) {
+            emitOperator(operator, node.getChildren(),
+                    node.getOperandTypes());
+        } else if (node instanceof IfNode) {
+            emitIf(node.getChildren());
+        } else if (node instanceof SequenceNode) {
+            final List<ExpressionNode> children = node.getChildren();
+            for (int i = 0; i < children.size() - 1; i++) {
+                emit(children.get(i));
+                code.op(0x57, -1);
+            }
+            emit(children.get(children.size() - 1));
+        } else if (node instanceof FunctionCallNode) {
+            emitCall((FunctionCallNode) node);
+        } else {
+            loadConstant(node, ExpressionNode.class);
+            code.load(CONTEXT);
+            invoke(0xb6, ExpressionNode.class, "getValue", APValue.class,
+                    Context.class);
+        }
+    }
+
+    /**
+     * Emits an operator. If both operands are numbers the operator is done on
+     * doubles, otherwise the first operand's callMethod is called. The check
+     * for numbers is left out if the operator has seen operands, but never a
+     * number.
+     *
+     * @param operator
+     *            the operator
+     * @param terms
+     *            the operands
+     * @param operandTypes
+     *            the types of the operands the operator has seen
+     */
+    private void emitOperator(final Operators operator,
+            final List<ExpressionNode> terms, final int operandTypes) {
+        if (isDouble(terms.get(0)) && isDouble(terms.get(1))
+                && operator != Operators.AND && operator != Operators.OR) {
+            // the types are proven, so no check is needed
+            emitDouble(terms.get(0));
+            emitDouble(terms.get(1));
+            emitNumeric(operator);
+            return;
+        }
+        emit(terms.get(0));
+        final int left = code.newLocal();
+        code.store(left);
+        emit(terms.get(1));
+        final int right = code.newLocal();
+        code.store(right);
+
+        final int slow = code.newLabel();
+        final int end = code.newLabel();
+        final boolean numeric = operator != Operators.AND
+                && operator != Operators.OR
+                && (operandTypes == 0 || (operandTypes & ExpressionNode
+                        .typeBit(TypeRegistry.NUM)) != 0);
+        if (numeric) {
+            final int depth = code.getStack();
+            final int num = builder.classRef(internalName(APValueNum.class));
+            code.load(left);
+            code.op2(0xc1, num, 0);
+            code.jump(0x99, slow, -1);
+            code.load(right);
+            code.op2(0xc1, num, 0);
+            code.jump(0x99, slow, -1);
+            code.load(left);
+            invoke(0xb8, CompiledRuntime.class, "unbox", double.class,
+                    APValue.class);
+            code.load(right);
+            invoke(0xb8, CompiledRuntime.class, "unbox", double.class,
+                    APValue.class);
+            emitNumeric(operator);
+            code.jump(0xa7, end, 0);
+            code.setStack(depth);
+            code.mark(slow);
+        }
+        code.load(left);
+        code.op2(0xb2, builder.fieldRef(internalName(Operators.class),
+                operator.name(), descriptor(Operators.class)), 1);
+        code.load(right);
+        invoke(0xb6, APValue.class, "callMethod", APValue.class,
+                Operators.class, APValue.class);
+        code.mark(end);
+        code.freeLocal();
+        code.freeLocal();
+    }
+
+    /**
+     * Checks if an expression is proven to give a number.
+     *
+     * @param node
+     *            the expression
+     * @return true, if the expression gives a number
+     */
+    private static boolean isDouble(final ExpressionNode node) {
+        return node.getStaticType() == TypeRegistry.NUM;
+    }
+
+    /**
+     * Emits the instructions that push the value of an expression proven to
+     * give a number as a double. Arithmetic on such expressions is done on
+     * doubles without boxing the values in between.
+     *
+     * @param node
+     *            the expression
+     */
+    private void emitDouble(final ExpressionNode node) {
+        final Operators operator = node.getOperator();
+        if (operator != null && !isComparison(operator)) {
+            final List<ExpressionNode> terms = node.getChildren();
+            if (isDouble(terms.get(0)) && isDouble(terms.get(1))) {
+                emitDouble(terms.get(0));
+                emitDouble(terms.get(1));
+                emitArithmetic(operator);
+                return;
+            }
+        }
+        emit(node);
+        invoke(0xb8, CompiledRuntime.class, "unbox", double.class,
+                APValue.class);
+    }
+
+    /**
+     * Checks if an operator compares numbers.
+     *
+     * @param operator
+     *            the operator
+     * @return true, if a comparison
+     */
+    private static boolean isComparison(final Operators operator) {
+        switch (operator) {
+            case EQUAL:
+            case GREATER:
+            case GREATER_EQUAL:
+            case LESS:
+            case LESS_EQUAL:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Emits an operator on two doubles, boxing the result.
+     *
+     * @param operator
+     *            the operator
+     */
+    private void emitNumeric(final Operators operator) {
+        if (!isComparison(operator)) {
+            emitArithmetic(operator);
+            invoke(0xb8, CompiledRuntime.class, "box", APValue.class,
+                    double.class);
+            return;
+        }
+        // numbers compare as Double.compare does
+        invoke(0xb8, Double.class, "compare", int.class, double.class,
+                double.class);
+        final int failing = failingBranch(operator);
+        final int isFalse = code.newLabel();
+        final int done = code.newLabel();
+        code.jump(failing, isFalse, -1);
+        code.pushInt(1);
+        code.jump(0xa7, done, 0);
+        code.setStack(code.getStack() - 1);
+        code.mark(isFalse);
+        code.pushInt(0);
+        code.mark(done);
+        invoke(0xb8, CompiledRuntime.class, "box", APValue.class,
+                boolean.class);
+    }
+
+    /**
+     * Emits an arithmetic operator on two doubles, leaving a double.
+     *
+     * @param operator
+     *            the operator
+     */
+    private void emitArithmetic(final Operators operator) {
+        switch (operator) {
+            case ADD:
+                code.op(0x63, -2);
+                break;
+            case SUBTRACT:
+                code.op(0x67, -2);
+                break;
+            case MULTIPLY:
+                code.op(0x6b, -2);
+                break;
+            case DIVIDE:
+                code.op(0x6f, -2);
+                break;
+            case MOD:
+                code.op(0x73, -2);
+                break;
+            case POWER:
+                invoke(0xb8, Math.class, "pow", double.class, double.class,
+                        double.class);
+                break;
+            default:
+                throw new IllegalArgumentException("Not arithmetic: "
+                        + operator);
+        }
+    }
+
+    /**
+     * Gets the branch taken on the result of Double.compare when a comparison
+     * is false.
+     *
+     * @param operator
+     *            the comparison
+     * @return the opcode
+     */
+    private static int failingBranch(final Operators operator) {
+        switch (operator) {
+            case EQUAL:
+                return 0x9a;
+            case GREATER:
+                return 0x9e;
+            case GREATER_EQUAL:
+                return 0x9b;
+            case LESS:
+                return 0x9c;
+            case LESS_EQUAL:
+                return 0x9d;
+            default:
+                throw new IllegalArgumentException("Not a comparison: "
+                        + operator);
+        }
+    }
+
+    /**
+     * Emits an if expression.
+     *
+     * @param terms
+     *            the condition and the two branches
+     */
+    private void emitIf(final List<ExpressionNode> terms) {
+        final int otherwise = code.newLabel();
+        final int end = code.newLabel();
+        final ExpressionNode condition = terms.get(0);
+        final Operators operator = condition.getOperator();
+        final List<ExpressionNode> compared = condition.getChildren();
+        if (operator != null && isComparison(operator)
+                && isDouble(compared.get(0)) && isDouble(compared.get(1))) {
+            // branch on the comparison without making a boolean
+            emitDouble(compared.get(0));
+            emitDouble(compared.get(1));
+            invoke(0xb8, Double.class, "compare", int.class, double.class,
+                    double.class);
+            code.jump(failingBranch(operator), otherwise, -1);
+        } else {
+            emit(condition);
+            invoke(0xb8, CompiledRuntime.class, "truth", boolean.class,
+                    APValue.class);
+            code.jump(0x99, otherwise, -1);
+        }
+        final int depth = code.getStack();
+        emit(terms.get(1));
+        code.jump(0xa7, end, 0);
+        code.setStack(depth);
+        code.mark(otherwise);
+        emit(terms.get(2));
+        code.mark(end);
+    }
+
+    /**
+     * Emits a call. The function is looked up and checked by the call node,
+     * the arguments are compiled and the call node then makes the call.
+     *
+     * @param node
+     *            the call node
+     */
+    private void emitCall(final FunctionCallNode node) {
+        loadConstant(node, FunctionCallNode.class);
+        code.load(CONTEXT);
+        invoke(0xb6, FunctionCallNode.class, "callee", Function.class,
+                Context.class);
+        final int function = code.newLocal();
+        code.store(function);
+
+        final List<ExpressionNode> parameters = node.getParameters();
+        code.pushInt(parameters.size());
+        code.op2(0xbd, builder.classRef(internalName(APValue.class)), 0);
+        final int arguments = code.newLocal();
+        code.store(arguments);
+        for (int i = 0; i < parameters.size(); i++) {
+            code.load(arguments);
+            code.pushInt(i);
+            emit(parameters.get(i));
+            code.op(0x53, -3);
+        }
+
+        loadConstant(node, FunctionCallNode.class);
+        code.load(CONTEXT);
+        code.load(function);
+        code.load(arguments);
+        invoke(0xb6, FunctionCallNode.class, "call", APValue.class,
+                Context.class, Function.class, APValue[].class);
+        code.freeLocal();
+        code.freeLocal();
+    }
+
+    /**
+     * Emits the instructions that push a constant.
+     *
+     * @param value
+     *            the constant
+     * @param type
+     *            the type to cast it to
+     */
+    private void loadConstant(final Object value, final Class<?> type) {
+        Integer index = constantIndex.get(value);
+        if (index == null) {
+            index = constants.size();
+            constants.add(value);
+            constantIndex.put(value, index);
+        }
+        code.load(constantsSlot);
+        code.pushInt(index);
+        code.op(0x32, -1);
+        code.op2(0xc0, builder.classRef(internalName(type)), 0);
+    }
+
+    /**
+     * Emits a method call.
+     *
+     * @param opcode
+     *            the invoke opcode
+     * @param owner
+     *            the class of the method
+     * @param method
+     *            the method name
+     * @param result
+     *            the return type
+     * @param parameters
+     *            the parameter types
+     */
+    private void invoke(final int opcode, final Class<?> owner,
+            final String method, final Class<?> result,
+            final Class<?>... parameters) {
+        final StringBuilder desc = new StringBuilder("(");
+        int delta = opcode == 0xb8 ? 0 : -1;
+        for (final Class<?> parameter : parameters) {
+            desc.append(descriptor(parameter));
+            delta -= size(parameter);
+        }
+        desc.append(')').append(descriptor(result));
+        delta += size(result);
+        code.op2(opcode, builder.methodRef(internalName(owner), method,
+                desc.toString()), delta);
+    }
+
+    /**
+     * Gets the number of stack slots a value of a type uses.
+     *
+     * @param type
+     *            the type
+     * @return the number of slots
+     */
+    private static int size(final Class<?> type) {
+        if (type == void.class) {
+            return 0;
+        }
+        return type == double.class || type == long.class ? 2 : 1;
+    }
+
+    /**
+     * Gets the internal name of a class.
+     *
+     * @param type
+     *            the class
+     * @return the internal name
+     */
+    private static String internalName(final Class<?> type) {
+        return type.getName().replace('.', '/');
+    }
+
+    /**
+     * Gets the descriptor of a type.
+     *
+     * @param type
+     *            the type
+     * @return the descriptor
+     */
+    private static String descriptor(final Class<?> type) {
+        if (type == double.class) {
+            return "D";
+        } else if (type == boolean.class) {
+            return "Z";
+        } else if (type == int.class) {
+            return "I";
+        } else if (type == void.class) {
+            return "V";
+        } else if (type.isArray()) {
+            return internalName(type);
+        }
+        return "L" + internalName(type) + ";";
+    }
+
+    /**
+     * The Class CompiledNode. An expression that runs compiled code. It
+     * prints as the expression it was compiled from.
+     */
+    static final class CompiledNode extends ExpressionNode {
+
+        /** The expression the code was compiled from. */
+        private final ExpressionNode source;
+
+        /** The compiled code. */
+        private final CompiledCode code;
+
+        /**
+         * Instantiates a new compiled node.
+         *
+         * @param source
+         *            the expression the code was compiled from
+         * @param code
+         *            the compiled code
+         */
+        CompiledNode(final ExpressionNode source, final CompiledCode code) {
+            super(null);
+            this.source = source;
+            this.code = code;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ExpressionNode#getValue(machine.Context)
+         */
+        @Override
+        public APValue getValue(final Context context) {
+            return code.run(context);
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ExpressionNode#getChildren()
+         */
+        @Override
+        public List<ExpressionNode> getChildren() {
+            return source.getChildren();
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ExpressionNode#toString()
+         */
+        @Override
+        public String toString() {
+            return source.toString();
+        }
+    }
+}
@@ -0,0 +1,625 @@
+/*
+ *
+ */
+package machine.bytecode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class ClassBuilder. Writes a class file with a constant pool, fields and
+ * methods. Only what the compiler needs is supported. The class file version
+ * is 49, so methods need no stack map frames.
+ */
+final class ClassBuilder {
+
+    /** The class file major version. */
+    private static final int VERSION = 49;
+
+    /** The public flag. */
+    static final int PUBLIC = 0x0001;
+
+    /** The private flag. */
+    static final int PRIVATE = 0x0002;
+
+    /** The final flag. */
+    static final int FINAL = 0x0010;
+
+    /** The super flag, which every class has. */
+    private static final int SUPER = 0x0020;
+
+    /** The constant pool, without its count. */
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+
+    /** The index of each constant pool entry, by its encoding. */
+    private final Map<String, Integer> poolIndex = new HashMap<>();
+
+    /** The number of constant pool entries, counting the unused entry 0. */
+    private int poolCount = 1;
+
+    /** The written fields. */
+    private final List<byte[]> fields = new ArrayList<>();
+
+    /** The written methods. */
+    private final List<byte[]> methods = new ArrayList<>();
+
+    /** The internal name of the class. */
+    private final String name;
+
+    /** The internal name of the super class. */
+    private final String superName;
+
+    /** The internal names of the interfaces. */
+    private final String[] interfaces;
+
+    /**
+     * Instantiates a new class builder.
+     *
+     * @param name
+     *            the internal name of the class
+     * @param superName
+     *            the internal name of the super class
+     * @param interfaces
+     *            the internal names of the interfaces
+     */
+    ClassBuilder(final String name, final String superName,
+            final String... interfaces) {
+        this.name = name;
+        this.superName = superName;
+        this.interfaces = interfaces;
+    }
+
+    /**
+     * Gets the internal name of the class.
+     *
+     * @return the name
+     */
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Adds a UTF8 constant.
+     *
+     * @param text
+     *            the text
+     * @return the index
+     */
+    int utf8(final String text) {
+        final Integer index = poolIndex.get("U" + text);
+        if (index != null) {
+            return index;
+        }
+        final DataOutputStream out = new DataOutputStream(pool);
+        try {
+            out.writeByte(1);
+            out.writeUTF(text);
+        } catch (final IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return add("U" + text);
+    }
+
+    /**
+     * Adds a class constant.
+     *
+     * @param internalName
+     *            the internal name of the class
+     * @return the index
+     */
+    int classRef(final String internalName) {
+        final Integer index = poolIndex.get("C" + internalName);
+        if (index != null) {
+            return index;
+        }
+        final int nameIndex = utf8(internalName);
+        pool.write(7);
+        writeShort(pool, nameIndex);
+        return add("C" + internalName);
+    }
+
+    /**
+     * Adds a field reference constant.
+     *
+     * @param owner
+     *            the internal name of the owner
+     * @param member
+     *            the field name
+     * @param descriptor
+     *            the field descriptor
+     * @return the index
+     */
+    int fieldRef(final String owner, final String member,
+            final String descriptor) {
+        return memberRef(9, owner, member, descriptor);
+    }
+
+    /**
+     * Adds a method reference constant.
+     *
+     * @param owner
+     *            the internal name of the owner
+     * @param member
+     *            the method name
+     * @param descriptor
+     *            the method descriptor
+     * @return the index
+     */
+    int methodRef(final String owner, final String member,
+            final String descriptor) {
+        return memberRef(10, owner, member, descriptor);
+    }
+
+    /**
+     * Adds a field or method reference constant.
+     *
+     * @param tag
+     *            the constant tag
+     * @param owner
+     *            the internal name of the owner
+     * @param member
+     *            the member name
+     * @param descriptor
+     *            the member descriptor
+     * @return the index
+     */
+    private int memberRef(final int tag, final String owner,
+            final String member, final String descriptor) {
+        final String key = tag + owner + "." + member + ":" + descriptor;
+        final Integer index = poolIndex.get(key);
+        if (index != null) {
+            return index;
+        }
+        final int ownerIndex = classRef(owner);
+        final int nameAndType = nameAndType(member, descriptor);
+        pool.write(tag);
+        writeShort(pool, ownerIndex);
+        writeShort(pool, nameAndType);
+        return add(key);
+    }
+
+    /**
+     * Adds a name and type constant.
+     *
+     * @param member
+     *            the member name
+     * @param descriptor
+     *            the member descriptor
+     * @return the index
+     */
+    private int nameAndType(final String member, final String descriptor) {
+        final String key = "T" + member + ":" + descriptor;
+        final Integer index = poolIndex.get(key);
+        if (index != null) {
+            return index;
+        }
+        final int nameIndex = utf8(member);
+        final int descriptorIndex = utf8(descriptor);
+        pool.write(12);
+        writeShort(pool, nameIndex);
+        writeShort(pool, descriptorIndex);
+        return add(key);
+    }
+
+    /**
+     * Records a new constant pool entry.
+     *
+     * @param key
+     *            the encoding of the entry
+     * @return the index
+     */
+    private int add(final String key) {
+        final int index = poolCount++;
+        if (poolCount > 0xffff) {
+            throw new CodeTooLargeException("Constant pool too large");
+        }
+        poolIndex.put(key, index);
+        return index;
+    }
+
+    /**
+     * Adds a field.
+     *
+     * @param access
+     *            the access flags
+     * @param member
+     *            the name
+     * @param descriptor
+     *            the descriptor
+     */
+    void field(final int access, final String member, final String descriptor) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeShort(out, access);
+        writeShort(out, utf8(member));
+        writeShort(out, utf8(descriptor));
+        writeShort(out, 0);
+        fields.add(out.toByteArray());
+    }
+
+    /**
+     * Adds a method with its code.
+     *
+     * @param access
+     *            the access flags
+     * @param member
+     *            the name
+     * @param descriptor
+     *            the descriptor
+     * @param code
+     *            the code
+     */
+    void method(final int access, final String member,
+            final String descriptor, final Code code) {
+        final byte[] bytes = code.toByteArray();
+        if (bytes.length > 0xffff) {
+            throw new CodeTooLargeException("Method too large");
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeShort(out, access);
+        writeShort(out, utf8(member));
+        writeShort(out, utf8(descriptor));
+        writeShort(out, 1);
+        writeShort(out, utf8("Code"));
+        writeInt(out, 12 + bytes.length);
+        writeShort(out, code.getMaxStack());
+        writeShort(out, code.getMaxLocals());
+        writeInt(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+        writeShort(out, 0);
+        writeShort(out, 0);
+        methods.add(out.toByteArray());
+    }
+
+    /**
+     * Writes the class file.
+     *
+     * @return the bytes
+     */
+    byte[] toByteArray() {
+        final int thisIndex = classRef(name);
+        final int superIndex = classRef(superName);
+        final int[] interfaceIndexes = new int[interfaces.length];
+        for (int i = 0; i < interfaces.length; i++) {
+            interfaceIndexes[i] = classRef(interfaces[i]);
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeInt(out, 0xcafebabe);
+        writeShort(out, 0);
+        writeShort(out, VERSION);
+        writeShort(out, poolCount);
+        final byte[] poolBytes = pool.toByteArray();
+        out.write(poolBytes, 0, poolBytes.length);
+        writeShort(out, PUBLIC | FINAL | SUPER);
+        writeShort(out, thisIndex);
+        writeShort(out, superIndex);
+        writeShort(out, interfaceIndexes.length);
+        for (final int index : interfaceIndexes) {
+            writeShort(out, index);
+        }
+        writeShort(out, fields.size());
+        for (final byte[] field : fields) {
+            out.write(field, 0, field.length);
+        }
+        writeShort(out, methods.size());
+        for (final byte[] method : methods) {
+            out.write(method, 0, method.length);
+        }
+        writeShort(out, 0);
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes an unsigned short.
+     *
+     * @param out
+     *            the output
+     * @param value
+     *            the value
+     */
+    static void writeShort(final ByteArrayOutputStream out, final int value) {
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    /**
+     * Writes an int.
+     *
+     * @param out
+     *            the output
+     * @param value
+     *            the value
+     */
+    static void writeInt(final ByteArrayOutputStream out, final int value) {
+        writeShort(out, value >>> 16);
+        writeShort(out, value);
+    }
+
+    /**
+     * The Class Code. The instructions of one method. The stack depth is
+     * tracked as instructions are added, to find the maximum.
+     */
+    static final class Code {
+
+        /** The instructions. */
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        /** The offset of each label, or -1 if it is not placed yet. */
+        private final List<Integer> labels = new ArrayList<>();
+
+        /** The offsets of the jumps, each followed by the label it jumps to. */
+        private final List<int[]> jumps = new ArrayList<>();
+
+        /** The current stack depth. */
+        private int stack;
+
+        /** The maximum stack depth. */
+        private int maxStack;
+
+        /** The number of local variable slots in use. */
+        private int locals;
+
+        /** The maximum number of local variable slots. */
+        private int maxLocals;
+
+        /**
+         * Instantiates new code.
+         *
+         * @param locals
+         *            the number of local slots used by the parameters
+         */
+        Code(final int locals) {
+            this.locals = locals;
+            maxLocals = locals;
+        }
+
+        /**
+         * Adds an instruction without operands.
+         *
+         * @param opcode
+         *            the opcode
+         * @param delta
+         *            the change in stack depth
+         */
+        void op(final int opcode, final int delta) {
+            bytes.write(opcode);
+            adjust(delta);
+        }
+
+        /**
+         * Adds an instruction with an unsigned byte operand.
+         *
+         * @param opcode
+         *            the opcode
+         * @param operand
+         *            the operand
+         * @param delta
+         *            the change in stack depth
+         */
+        void op1(final int opcode, final int operand, final int delta) {
+            bytes.write(opcode);
+            bytes.write(operand);
+            adjust(delta);
+        }
+
+        /**
+         * Adds an instruction with a short operand.
+         *
+         * @param opcode
+         *            the opcode
+         * @param operand
+         *            the operand
+         * @param delta
+         *            the change in stack depth
+         */
+        void op2(final int opcode, final int operand, final int delta) {
+            bytes.write(opcode);
+            writeShort(bytes, operand);
+            adjust(delta);
+        }
+
+        /**
+         * Adds an invokeinterface instruction.
+         *
+         * @param method
+         *            the interface method reference
+         * @param arguments
+         *            the number of argument slots, counting the receiver
+         * @param delta
+         *            the change in stack depth
+         */
+        void invokeInterface(final int method, final int arguments,
+                final int delta) {
+            bytes.write(0xb9);
+            writeShort(bytes, method);
+            bytes.write(arguments);
+            bytes.write(0);
+            adjust(delta);
+        }
+
+        /**
+         * Pushes an int constant.
+         *
+         * @param value
+         *            the value, which must fit in a short
+         */
+        void pushInt(final int value) {
+            if (value >= -1 && value <= 5) {
+                op(0x03 + value, 1);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                op1(0x10, value & 0xff, 1);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                op2(0x11, value & 0xffff, 1);
+            } else {
+                throw new CodeTooLargeException("Too many constants");
+            }
+        }
+
+        /**
+         * Loads a reference from a local slot.
+         *
+         * @param slot
+         *            the slot
+         */
+        void load(final int slot) {
+            op1(0x19, slot, 1);
+        }
+
+        /**
+         * Stores a reference in a local slot.
+         *
+         * @param slot
+         *            the slot
+         */
+        void store(final int slot) {
+            op1(0x3a, slot, -1);
+        }
+
+        /**
+         * Reserves a local slot. Slots are freed in the reverse order.
+         *
+         * @return the slot
+         */
+        int newLocal() {
+            if (locals > 0xff) {
+                throw new CodeTooLargeException("Too many locals");
+            }
+            maxLocals = Math.max(maxLocals, locals + 1);
+            return locals++;
+        }
+
+        /**
+         * Frees the last reserved local slot.
+         */
+        void freeLocal() {
+            locals--;
+        }
+
+        /**
+         * Makes a new label.
+         *
+         * @return the label
+         */
+        int newLabel() {
+            labels.add(-1);
+            return labels.size() - 1;
+        }
+
+        /**
+         * Places a label at the next instruction.
+         *
+         * @param label
+         *            the label
+         */
+        void mark(final int label) {
+            labels.set(label, bytes.size());
+        }
+
+        /**
+         * Adds a jump to a label.
+         *
+         * @param opcode
+         *            the opcode
+         * @param label
+         *            the label
+         * @param delta
+         *            the change in stack depth
+         */
+        void jump(final int opcode, final int label, final int delta) {
+            jumps.add(new int[] { bytes.size(), label });
+            op2(opcode, 0, delta);
+        }
+
+        /**
+         * Sets the stack depth, after an instruction that does not fall
+         * through.
+         *
+         * @param depth
+         *            the depth
+         */
+        void setStack(final int depth) {
+            stack = depth;
+        }
+
+        /**
+         * Gets the current stack depth.
+         *
+         * @return the depth
+         */
+        int getStack() {
+            return stack;
+        }
+
+        /**
+         * Gets the maximum stack depth.
+         *
+         * @return the depth
+         */
+        int getMaxStack() {
+            return maxStack;
+        }
+
+        /**
+         * Gets the number of local slots.
+         *
+         * @return the number of slots
+         */
+        int getMaxLocals() {
+            return maxLocals;
+        }
+
+        /**
+         * Gets the instructions, with the jumps pointing at their labels.
+         *
+         * @return the bytes
+         */
+        byte[] toByteArray() {
+            final byte[] code = bytes.toByteArray();
+            for (final int[] jump : jumps) {
+                final int offset = labels.get(jump[1]) - jump[0];
+                if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+                    throw new CodeTooLargeException("Jump too far");
+                }
+                code[jump[0] + 1] = (byte) (offset >> 8);
+                code[jump[0] + 2] = (byte) offset;
+            }
+            return code;
+        }
+
+        /**
+         * Changes the stack depth.
+         *
+         * @param delta
+         *            the change
+         */
+        private void adjust(final int delta) {
+            stack += delta;
+            maxStack = Math.max(maxStack, stack);
+        }
+    }
+
+    /**
+     * The Class CodeTooLargeException. Thrown when an expression does not fit
+     * in the limits of a class file, so it is left uncompiled.
+     */
+    static final class CodeTooLargeException extends RuntimeException {
+
+        /** The Constant serialVersionUID. */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Instantiates a new code too large exception.
+         *
+         * @param message
+         *            the message
+         */
+        CodeTooLargeException(final String message) {
+            super(message);
+        }
+    }
+}
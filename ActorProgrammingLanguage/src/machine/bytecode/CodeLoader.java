@@ -0,0 +1,32 @@
+/*
+ *
+ */
+package machine.bytecode;
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class CodeLoader. Loads one generated class. Each class gets its own
+ * loader, so a class can be unloaded once nothing uses its code.
+ */
+final class CodeLoader extends ClassLoader {
+
+    /**
+     * Instantiates a new code loader.
+     */
+    CodeLoader() {
+        super(CodeLoader.class.getClassLoader());
+    }
+
+    /**
+     * Defines the class.
+     *
+     * @param name
+     *            the binary name of the class
+     * @param bytes
+     *            the class file
+     * @return the class
+     */
+    Class<?> define(final String name, final byte[] bytes) {
+        return defineClass(name, bytes, 0, bytes.length);
+    }
+}
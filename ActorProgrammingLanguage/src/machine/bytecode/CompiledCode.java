@@ -0,0 +1,24 @@
+/*
+ *
+ */
+package machine.bytecode;
+
+import machine.Context;
+import type.APValue;
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Interface CompiledCode. Implemented by the classes the
+ * {@link BytecodeCompiler} generates.
+ */
+public interface CompiledCode {
+
+    /**
+     * Runs the compiled expression.
+     *
+     * @param context
+     *            the context
+     * @return the value of the expression
+     */
+    APValue run(Context context);
+}
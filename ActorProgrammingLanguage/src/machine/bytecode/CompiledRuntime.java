@@ -0,0 +1,74 @@
+/*
+ *
+ */
+package machine.bytecode;
+
+import parser.ParserException;
+import type.APNumber;
+import type.APValue;
+import type.APValueBool;
+import type.APValueNum;
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class CompiledRuntime. Helpers called by compiled code. They are public
+ * because the generated classes are loaded by their own class loaders.
+ */
+public final class CompiledRuntime {
+
+    /**
+     * Unused private constructor.
+     */
+    private CompiledRuntime() {
+    }
+
+    /**
+     * Unboxes a number.
+     *
+     * @param value
+     *            the value, which must be a number
+     * @return the number
+     */
+    public static double unbox(final APValue value) {
+        return ((APNumber) value.getValue()).doubleValue();
+    }
+
+    /**
+     * Boxes a number.
+     *
+     * @param value
+     *            the number
+     * @return the value
+     */
+    public static APValue box(final double value) {
+        return new APValueNum(new APNumber(value));
+    }
+
+    /**
+     * Boxes a boolean.
+     *
+     * @param value
+     *            the boolean
+     * @return the value
+     */
+    public static APValue box(final boolean value) {
+        return new APValueBool(value);
+    }
+
+    /**
+     * Checks the condition of an if expression.
+     *
+     * @param value
+     *            the value of the condition
+     * @return the condition
+     */
+    public static boolean truth(final APValue value) {
+        try {
+            return (boolean) value.getValue();
+        } catch (final ClassCastException e) {
+            throw new ParserException(
+                    "If expression requires a boolean expression, was "
+                            + value.getClass(), e);
+        }
+    }
+}
@@ -0,0 +1,469 @@
+/*
+ *
+ */
+package machine.closure;
+
+import java.util.List;
+
+import machine.Context;
+import machine.Function;
+import parser.ExpressionNode;
+import parser.ExpressionNode.ConstantNode;
+import parser.ExpressionNode.FunctionCallNode;
+import parser.ExpressionNode.IfNode;
+import parser.ExpressionNode.SequenceNode;
+import parser.ParserException;
+import type.APNumber;
+import type.APValue;
+import type.APValue.Operators;
+import type.APValueBool;
+import type.APValueNum;
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class ClosureCompiler. Compiles an expression once into a tree of
+ * {@link Evaluator} lambdas that call each other directly.
+ * <p>
+ * Each operator gets its own lambda, so the operator is chosen when compiling
+ * instead of in {@link APValue#callMethod(Operators, APValue)} on every
+ * evaluation, and each call site in a lambda only ever sees one kind of
+ * operand. A constant number as the second operand of an arithmetic operator
+ * is unboxed when compiling.
+ * Two numbers are operated on directly; other values still go through
+ * callMethod. Expressions other than operators, if expressions, sequences,
+ * calls and constants are evaluated by their nodes.
+ */
+public final class ClosureCompiler {
+
+    /**
+     * The Interface Condition. A compiled condition of an if expression.
+     */
+    @FunctionalInterface
+    private interface Condition {
+
+        /**
+         * Tests the condition.
+         *
+         * @param context
+         *            the context
+         * @return the condition
+         */
+        boolean test(Context context);
+    }
+
+    /**
+     * Unused private constructor.
+     */
+    private ClosureCompiler() {
+    }
+
+    /**
+     * Compiles an expression. The lambdas in it are not compiled.
+     *
+     * @param node
+     *            the expression
+     * @return the compiled expression, or the expression itself if it would
+     *         only be evaluated by its node
+     */
+    public static ExpressionNode compile(final ExpressionNode node) {
+        if (node.getOperator() == null && !(node instanceof IfNode)
+                && !(node instanceof SequenceNode)
+                && !(node instanceof FunctionCallNode)) {
+            return node;
+        }
+        return new EvaluatorNode(node, evaluator(node));
+    }
+
+    /**
+     * Compiles an expression to an evaluator.
+     *
+     * @param node
+     *            the expression
+     * @return the evaluator
+     */
+    private static Evaluator evaluator(final ExpressionNode node) {
+        final Operators operator = node.getOperator();
+        final List<ExpressionNode> children = node.getChildren();
+        if (node instanceof ConstantNode) {
+            // a constant does not look at its context
+            final APValue value = node.getValue(null);
+            return c -> value;
+        } else if (operator != null) {
+            return operator(operator, children.get(0), children.get(1));
+        } else if (node instanceof IfNode) {
+            final Condition condition = condition(children.get(0));
+            final Evaluator then = evaluator(children.get(1));
+            final Evaluator otherwise = evaluator(children.get(2));
+            return c -> condition.test(c) ? then.run(c) : otherwise.run(c);
+        } else if (node instanceof SequenceNode) {
+            final Evaluator[] statements = evaluators(children.subList(0,
+                    children.size() - 1));
+            final Evaluator expression = evaluator(children.get(children
+                    .size() - 1));
+            return c -> {
+                for (final Evaluator statement : statements) {
+                    statement.run(c);
+                }
+                return expression.run(c);
+            };
+        } else if (node instanceof FunctionCallNode) {
+            final FunctionCallNode call = (FunctionCallNode) node;
+            final Evaluator[] parameters = evaluators(call.getParameters());
+            return c -> {
+                final Function function = call.callee(c);
+                final APValue[] arguments = new APValue[parameters.length];
+                for (int i = 0; i < arguments.length; i++) {
+                    arguments[i] = parameters[i].run(c);
+                }
+                return call.call(c, function, arguments);
+            };
+        }
+        return node::getValue;
+    }
+
+    /**
+     * Compiles expressions to evaluators.
+     *
+     * @param nodes
+     *            the expressions
+     * @return the evaluators
+     */
+    private static Evaluator[] evaluators(final List<ExpressionNode> nodes) {
+        final Evaluator[] evaluators = new Evaluator[nodes.size()];
+        for (int i = 0; i < evaluators.length; i++) {
+            evaluators[i] = evaluator(nodes.get(i));
+        }
+        return evaluators;
+    }
+
+    /**
+     * Compiles an operator.
+     *
+     * @param operator
+     *            the operator
+     * @param leftNode
+     *            the first operand
+     * @param rightNode
+     *            the second operand
+     * @return the evaluator
+     */
+    private static Evaluator operator(final Operators operator,
+            final ExpressionNode leftNode, final ExpressionNode rightNode) {
+        final Evaluator left = evaluator(leftNode);
+        if (rightNode instanceof ConstantNode
+                && rightNode.getValue(null) instanceof APValueNum) {
+            final Evaluator constant = operatorConstant(operator, left,
+                    rightNode.getValue(null));
+            if (constant != null) {
+                return constant;
+            }
+        }
+        final Evaluator right = evaluator(rightNode);
+        switch (operator) {
+            case ADD:
+                return c -> {
+                    final APValue a = left.run(c);
+                    final APValue b = right.run(c);
+                    if (a instanceof APValueNum && b instanceof APValueNum) {
+                        return box(unbox(a) + unbox(b));
+                    }
+                    return a.callMethod(Operators.ADD, b);
+                };
+            case SUBTRACT:
+                return c -> {
+                    final APValue a = left.run(c);
+                    final APValue b = right.run(c);
+                    if (a instanceof APValueNum && b instanceof APValueNum) {
+                        return box(unbox(a) - unbox(b));
+                    }
+                    return a.callMethod(Operators.SUBTRACT, b);
+                };
+            case MULTIPLY:
+                return c -> {
+                    final APValue a = left.run(c);
+                    final APValue b = right.run(c);
+                    if (a instanceof APValueNum && b instanceof APValueNum) {
+                        return box(unbox(a) * unbox(b));
+                    }
+                    return a.callMethod(Operators.MULTIPLY, b);
+                };
+            case DIVIDE:
+                return c -> {
+                    final APValue a = left.run(c);
+                    final APValue b = right.run(c);
+                    if (a instanceof APValueNum && b instanceof APValueNum) {
+                        return box(unbox(a) / unbox(b));
+                    }
+                    return a.callMethod(Operators.DIVIDE, b);
+                };
+            case MOD:
+                return c -> {
+                    final APValue a = left.run(c);
+                    final APValue b = right.run(c);
+                    if (a instanceof APValueNum && b instanceof APValueNum) {
+                        return box(unbox(a) % unbox(b));
+                    }
+                    return a.callMethod(Operators.MOD, b);
+                };
+            case POWER:
+                return c -> {
+                    final APValue a = left.run(c);
+                    final APValue b = right.run(c);
+                    if (a instanceof APValueNum && b instanceof APValueNum) {
+                        return box(Math.pow(unbox(a), unbox(b)));
+                    }
+                    return a.callMethod(Operators.POWER, b);
+                };
+            case AND:
+            case OR:
+                return c -> left.run(c).callMethod(operator, right.run(c));
+            default:
+                final Condition comparison = comparison(operator, left, right);
+                return c -> new APValueBool(comparison.test(c));
+        }
+    }
+
+    /**
+     * Compiles an arithmetic operator whose second operand is a constant
+     * number.
+     *
+     * @param operator
+     *            the operator
+     * @param left
+     *            the first operand
+     * @param constant
+     *            the second operand
+     * @return the evaluator, or null if the operator is not arithmetic
+     */
+    private static Evaluator operatorConstant(final Operators operator,
+            final Evaluator left, final APValue constant) {
+        final double y = unbox(constant);
+        switch (operator) {
+            case ADD:
+                return c -> {
+                    final APValue a = left.run(c);
+                    if (a instanceof APValueNum) {
+                        return box(unbox(a) + y);
+                    }
+                    return a.callMethod(Operators.ADD, constant);
+                };
+            case SUBTRACT:
+                return c -> {
+                    final APValue a = left.run(c);
+                    if (a instanceof APValueNum) {
+                        return box(unbox(a) - y);
+                    }
+                    return a.callMethod(Operators.SUBTRACT, constant);
+                };
+            case MULTIPLY:
+                return c -> {
+                    final APValue a = left.run(c);
+                    if (a instanceof APValueNum) {
+                        return box(unbox(a) * y);
+                    }
+                    return a.callMethod(Operators.MULTIPLY, constant);
+                };
+            case DIVIDE:
+                return c -> {
+                    final APValue a = left.run(c);
+                    if (a instanceof APValueNum) {
+                        return box(unbox(a) / y);
+                    }
+                    return a.callMethod(Operators.DIVIDE, constant);
+                };
+            case MOD:
+                return c -> {
+                    final APValue a = left.run(c);
+                    if (a instanceof APValueNum) {
+                        return box(unbox(a) % y);
+                    }
+                    return a.callMethod(Operators.MOD, constant);
+                };
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Compiles the condition of an if expression.
+     *
+     * @param node
+     *            the condition
+     * @return the condition
+     */
+    private static Condition condition(final ExpressionNode node) {
+        final Operators operator = node.getOperator();
+        if (operator == Operators.EQUAL || operator == Operators.GREATER
+                || operator == Operators.GREATER_EQUAL
+                || operator == Operators.LESS
+                || operator == Operators.LESS_EQUAL) {
+            final List<ExpressionNode> terms = node.getChildren();
+            return comparison(operator, evaluator(terms.get(0)),
+                    evaluator(terms.get(1)));
+        }
+        final Evaluator value = evaluator(node);
+        return c -> truth(value.run(c));
+    }
+
+    /**
+     * Compiles a comparison. Numbers compare as
+     * {@link APNumber#compareTo(APNumber)} does.
+     *
+     * @param operator
+     *            the comparison
+     * @param left
+     *            the first operand
+     * @param right
+     *            the second operand
+     * @return the condition
+     */
+    private static Condition comparison(final Operators operator,
+            final Evaluator left, final Evaluator right) {
+        switch (operator) {
+            case EQUAL:
+                return c -> {
+                    final APValue a = left.run(c);
+                    final APValue b = right.run(c);
+                    if (a instanceof APValueNum && b instanceof APValueNum) {
+                        return Double.compare(unbox(a), unbox(b)) == 0;
+                    }
+                    return truth(a.callMethod(Operators.EQUAL, b));
+                };
+            case GREATER:
+                return c -> {
+                    final APValue a = left.run(c);
+                    final APValue b = right.run(c);
+                    if (a instanceof APValueNum && b instanceof APValueNum) {
+                        return Double.compare(unbox(a), unbox(b)) > 0;
+                    }
+                    return truth(a.callMethod(Operators.GREATER, b));
+                };
+            case GREATER_EQUAL:
+                return c -> {
+                    final APValue a = left.run(c);
+                    final APValue b = right.run(c);
+                    if (a instanceof APValueNum && b instanceof APValueNum) {
+                        return Double.compare(unbox(a), unbox(b)) >= 0;
+                    }
+                    return truth(a.callMethod(Operators.GREATER_EQUAL, b));
+                };
+            case LESS:
+                return c -> {
+                    final APValue a = left.run(c);
+                    final APValue b = right.run(c);
+                    if (a instanceof APValueNum && b instanceof APValueNum) {
+                        return Double.compare(unbox(a), unbox(b)) < 0;
+                    }
+                    return truth(a.callMethod(Operators.LESS, b));
+                };
+            case LESS_EQUAL:
+                return c -> {
+                    final APValue a = left.run(c);
+                    final APValue b = right.run(c);
+                    if (a instanceof APValueNum && b instanceof APValueNum) {
+                        return Double.compare(unbox(a), unbox(b)) <= 0;
+                    }
+                    return truth(a.callMethod(Operators.LESS_EQUAL, b));
+                };
+            default:
+                throw new IllegalArgumentException("Not a comparison: "
+                        + operator);
+        }
+    }
+
+    /**
+     * Unboxes a number.
+     *
+     * @param value
+     *            the value, which must be a number
+     * @return the number
+     */
+    private static double unbox(final APValue value) {
+        return ((APNumber) value.getValue()).doubleValue();
+    }
+
+    /**
+     * Boxes a number.
+     *
+     * @param value
+     *            the number
+     * @return the value
+     */
+    private static APValue box(final double value) {
+        return new APValueNum(new APNumber(value));
+    }
+
+    /**
+     * Checks the condition of an if expression.
+     *
+     * @param value
+     *            the value of the condition
+     * @return the condition
+     */
+    private static boolean truth(final APValue value) {
+        try {
+            return (boolean) value.getValue();
+        } catch (final ClassCastException e) {
+            throw new ParserException(
+                    "If expression requires a boolean expression, was "
+                            + value.getClass(), e);
+        }
+    }
+
+    /**
+     * The Class EvaluatorNode. An expression that runs an evaluator. It prints
+     * as the expression it was compiled from.
+     */
+    static final class EvaluatorNode extends ExpressionNode {
+
+        /** The expression the evaluator was compiled from. */
+        private final ExpressionNode source;
+
+        /** The evaluator. */
+        private final Evaluator evaluator;
+
+        /**
+         * Instantiates a new evaluator node.
+         *
+         * @param source
+         *            the expression the evaluator was compiled from
+         * @param evaluator
+         *            the evaluator
+         */
+        EvaluatorNode(final ExpressionNode source, final Evaluator evaluator) {
+            super(null);
+            this.source = source;
+            this.evaluator = evaluator;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ExpressionNode#getValue(machine.Context)
+         */
+        @Override
+        public APValue getValue(final Context context) {
+            return evaluator.run(context);
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ExpressionNode#getChildren()
+         */
+        @Override
+        public List<ExpressionNode> getChildren() {
+            return source.getChildren();
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ExpressionNode#toString()
+         */
+        @Override
+        public String toString() {
+            return source.toString();
+        }
+    }
+}
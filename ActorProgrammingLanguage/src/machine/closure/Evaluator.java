@@ -0,0 +1,25 @@
+/*
+ *
+ */
+package machine.closure;
+
+import machine.Context;
+import type.APValue;
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Interface Evaluator. An expression compiled by the
+ * {@link ClosureCompiler}.
+ */
+@FunctionalInterface
+public interface Evaluator {
+
+    /**
+     * Evaluates the expression.
+     *
+     * @param context
+     *            the context
+     * @return the value of the expression
+     */
+    APValue run(Context context);
+}
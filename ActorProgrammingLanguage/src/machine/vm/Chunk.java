@@ -0,0 +1,56 @@
+/*
+ *
+ */
+package machine.vm;
+
+import java.util.Arrays;
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class Chunk. Compiled code for the register machine: the instructions,
+ * the constant pool they refer to and the number of registers a frame needs.
+ */
+public final class Chunk {
+
+    /** The instructions. */
+    final int[] code;
+
+    /** The constant pool. */
+    final Object[] constants;
+
+    /** The number of registers. */
+    final int registers;
+
+    /**
+     * Instantiates a new chunk.
+     *
+     * @param code
+     *            the instructions
+     * @param constants
+     *            the constant pool
+     * @param registers
+     *            the number of registers
+     */
+    Chunk(final int[] code, final Object[] constants, final int registers) {
+        this.code = code;
+        this.constants = constants;
+        this.registers = registers;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        final StringBuilder b = new StringBuilder();
+        for (int pc = 0; pc < code.length; pc += Opcode.length(code[pc])) {
+            b.append(pc).append(": ").append(Opcode.name(code[pc]))
+                    .append(' ')
+                    .append(Arrays.toString(Arrays.copyOfRange(code, pc + 1,
+                            pc + Opcode.length(code[pc])))).append('\n');
+        }
+        return b.toString();
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ *
+ */
+package machine.vm;
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class Opcode. The instructions of the register machine. An instruction
+ * is its opcode followed by its operands, all ints. Registers and constants
+ * are operands by index, jump targets by offset in the code.
+ */
+public final class Opcode {
+
+    /** CONST dst k: loads constant k into register dst. */
+    public static final int CONST = 0;
+
+    /**
+     * EVAL dst k: evaluates the expression in constant k with the tree walker
+     * into register dst.
+     */
+    public static final int EVAL = 1;
+
+    /**
+     * BINARY dst a b op: applies operator op to registers a and b into
+     * register dst.
+     */
+    public static final int BINARY = 2;
+
+    /**
+     * BINARY_K dst a k op: applies operator op to register a and constant k
+     * into register dst, for example adding a constant.
+     */
+    public static final int BINARY_K = 3;
+
+    /** TEST a target: jumps to target if register a is false. */
+    public static final int TEST = 4;
+
+    /** JUMP target: jumps to target. */
+    public static final int JUMP = 5;
+
+    /**
+     * BRANCH_IF_NOT a b op target: compares registers a and b with operator
+     * op and jumps to target if the comparison is false.
+     */
+    public static final int BRANCH_IF_NOT = 6;
+
+    /**
+     * BRANCH_IF_NOT_K a k op target: compares register a and constant k with
+     * operator op and jumps to target if the comparison is false.
+     */
+    public static final int BRANCH_IF_NOT_K = 7;
+
+    /**
+     * CALLEE dst k: evaluates the function of the call node in constant k into
+     * register dst.
+     */
+    public static final int CALLEE = 8;
+
+    /**
+     * CALL dst k first count: calls the function in register first with the
+     * count registers after it as arguments, using the call node in constant
+     * k, into register dst.
+     */
+    public static final int CALL = 9;
+
+    /** RETURN a: returns register a. */
+    public static final int RETURN = 10;
+
+    /** The names of the opcodes. */
+    private static final String[] NAMES = { "CONST", "EVAL", "BINARY",
+            "BINARY_K", "TEST", "JUMP", "BRANCH_IF_NOT", "BRANCH_IF_NOT_K",
+            "CALLEE", "CALL", "RETURN" };
+
+    /** The length of each instruction, counting the opcode. */
+    private static final int[] LENGTHS = { 3, 3, 5, 5, 3, 2, 5, 5, 3, 5, 2 };
+
+    /**
+     * Unused private constructor.
+     */
+    private Opcode() {
+    }
+
+    /**
+     * Gets the name of an opcode.
+     *
+     * @param opcode
+     *            the opcode
+     * @return the name
+     */
+    public static String name(final int opcode) {
+        return NAMES[opcode];
+    }
+
+    /**
+     * Gets the length of an instruction.
+     *
+     * @param opcode
+     *            the opcode
+     * @return the number of ints in the instruction
+     */
+    public static int length(final int opcode) {
+        return LENGTHS[opcode];
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ *
+ */
+package machine.vm;
+
+import machine.Context;
+import machine.Function;
+import parser.ExpressionNode;
+import parser.ExpressionNode.FunctionCallNode;
+import parser.ParserException;
+import type.APNumber;
+import type.APValue;
+import type.APValue.Operators;
+import type.APValueBool;
+import type.APValueNum;
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class VirtualMachine. Runs chunks in a single dispatch loop. Each run
+ * has one flat frame, an array with a slot for every register of the chunk.
+ */
+public final class VirtualMachine {
+
+    /** The operators, by ordinal. */
+    private static final Operators[] OPERATORS = Operators.values();
+
+    /**
+     * Unused private constructor.
+     */
+    private VirtualMachine() {
+    }
+
+    /**
+     * Runs a chunk.
+     *
+     * @param chunk
+     *            the chunk
+     * @param context
+     *            the context
+     * @return the value the chunk returns
+     */
+    public static APValue execute(final Chunk chunk, final Context context) {
+        final int[] code = chunk.code;
+        final Object[] constants = chunk.constants;
+        final Object[] frame = new Object[chunk.registers];
+        int pc = 0;
+        while (true) {
+            switch (code[pc]) {
+                case Opcode.CONST:
+                    frame[code[pc + 1]] = constants[code[pc + 2]];
+                    pc += 3;
+                    break;
+                case Opcode.EVAL:
+                    frame[code[pc + 1]] = ((ExpressionNode) constants[code[pc + 2]])
+                            .getValue(context);
+                    pc += 3;
+                    break;
+                case Opcode.BINARY:
+                    frame[code[pc + 1]] = binary(OPERATORS[code[pc + 4]],
+                            (APValue) frame[code[pc + 2]],
+                            (APValue) frame[code[pc + 3]]);
+                    pc += 5;
+                    break;
+                case Opcode.BINARY_K:
+                    frame[code[pc + 1]] = binary(OPERATORS[code[pc + 4]],
+                            (APValue) frame[code[pc + 2]],
+                            (APValue) constants[code[pc + 3]]);
+                    pc += 5;
+                    break;
+                case Opcode.TEST:
+                    pc = truth((APValue) frame[code[pc + 1]]) ? pc + 3
+                            : code[pc + 2];
+                    break;
+                case Opcode.JUMP:
+                    pc = code[pc + 1];
+                    break;
+                case Opcode.BRANCH_IF_NOT:
+                    pc = compare(OPERATORS[code[pc + 3]],
+                            (APValue) frame[code[pc + 1]],
+                            (APValue) frame[code[pc + 2]]) ? pc + 5
+                            : code[pc + 4];
+                    break;
+                case Opcode.BRANCH_IF_NOT_K:
+                    pc = compare(OPERATORS[code[pc + 3]],
+                            (APValue) frame[code[pc + 1]],
+                            (APValue) constants[code[pc + 2]]) ? pc + 5
+                            : code[pc + 4];
+                    break;
+                case Opcode.CALLEE:
+                    frame[code[pc + 1]] = ((FunctionCallNode) constants[code[pc + 2]])
+                            .callee(context);
+                    pc += 3;
+                    break;
+                case Opcode.CALL:
+                    final int first = code[pc + 3];
+                    final APValue[] arguments = new APValue[code[pc + 4]];
+                    System.arraycopy(frame, first + 1, arguments, 0,
+                            arguments.length);
+                    frame[code[pc + 1]] = ((FunctionCallNode) constants[code[pc + 2]])
+                            .call(context, (Function) frame[first], arguments);
+                    pc += 5;
+                    break;
+                case Opcode.RETURN:
+                    return (APValue) frame[code[pc + 1]];
+                default:
+                    throw new IllegalStateException("Unknown opcode "
+                            + code[pc] + " at " + pc);
+            }
+        }
+    }
+
+    /**
+     * Applies an operator. Two numbers are operated on directly, other values
+     * through {@link APValue#callMethod(Operators, APValue)}.
+     *
+     * @param operator
+     *            the operator
+     * @param a
+     *            the first operand
+     * @param b
+     *            the second operand
+     * @return the result
+     */
+    private static APValue binary(final Operators operator, final APValue a,
+            final APValue b) {
+        if (a instanceof APValueNum && b instanceof APValueNum) {
+            final double x = ((APNumber) a.getValue()).doubleValue();
+            final double y = ((APNumber) b.getValue()).doubleValue();
+            switch (operator) {
+                case ADD:
+                    return new APValueNum(new APNumber(x + y));
+                case SUBTRACT:
+                    return new APValueNum(new APNumber(x - y));
+                case MULTIPLY:
+                    return new APValueNum(new APNumber(x * y));
+                case DIVIDE:
+                    return new APValueNum(new APNumber(x / y));
+                case MOD:
+                    return new APValueNum(new APNumber(x % y));
+                case POWER:
+                    return new APValueNum(new APNumber(Math.pow(x, y)));
+                case AND:
+                case OR:
+                    break;
+                default:
+                    return new APValueBool(compareNumbers(operator, x, y));
+            }
+        }
+        return a.callMethod(operator, b);
+    }
+
+    /**
+     * Applies a comparison.
+     *
+     * @param operator
+     *            the comparison
+     * @param a
+     *            the first operand
+     * @param b
+     *            the second operand
+     * @return the result
+     */
+    private static boolean compare(final Operators operator, final APValue a,
+            final APValue b) {
+        if (a instanceof APValueNum && b instanceof APValueNum) {
+            return compareNumbers(operator,
+                    ((APNumber) a.getValue()).doubleValue(),
+                    ((APNumber) b.getValue()).doubleValue());
+        }
+        return truth(a.callMethod(operator, b));
+    }
+
+    /**
+     * Compares two numbers as {@link APNumber#compareTo(APNumber)} does.
+     *
+     * @param operator
+     *            the comparison
+     * @param x
+     *            the first number
+     * @param y
+     *            the second number
+     * @return the result
+     */
+    private static boolean compareNumbers(final Operators operator,
+            final double x, final double y) {
+        final int order = Double.compare(x, y);
+        switch (operator) {
+            case EQUAL:
+                return order == 0;
+            case GREATER:
+                return order > 0;
+            case GREATER_EQUAL:
+                return order >= 0;
+            case LESS:
+                return order < 0;
+            case LESS_EQUAL:
+                return order <= 0;
+            default:
+                throw new IllegalArgumentException("Not a comparison: "
+                        + operator);
+        }
+    }
+
+    /**
+     * Checks the condition of an if expression.
+     *
+     * @param value
+     *            the value of the condition
+     * @return the condition
+     */
+    private static boolean truth(final APValue value) {
+        try {
+            return (boolean) value.getValue();
+        } catch (final ClassCastException e) {
+            throw new ParserException(
+                    "If expression requires a boolean expression, was "
+                            + value.getClass(), e);
+        }
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ *
+ */
+package machine.vm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import machine.Context;
+import parser.ExpressionNode;
+import parser.ExpressionNode.ConstantNode;
+import parser.ExpressionNode.FunctionCallNode;
+import parser.ExpressionNode.IfNode;
+import parser.ExpressionNode.SequenceNode;
+import type.APValue;
+import type.APValue.Operators;
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class VmCompiler. Compiles expressions to chunks for the
+ * {@link VirtualMachine}.
+ * <p>
+ * Operators, if expressions, sequences and calls are compiled to
+ * instructions, other expressions are evaluated by the tree walker from an
+ * EVAL instruction. An operator with a constant second operand becomes a
+ * BINARY_K, and an if expression whose condition is a comparison becomes a
+ * single compare-and-branch instead of a compare, a test and a branch.
+ */
+public final class VmCompiler {
+
+    /** The instructions. */
+    private int[] code = new int[32];
+
+    /** The number of ints of code written. */
+    private int size;
+
+    /** The constants, in the order of their indexes. */
+    private final List<Object> constants = new ArrayList<>();
+
+    /** The index of each constant. */
+    private final Map<Object, Integer> constantIndex = new IdentityHashMap<>();
+
+    /** The next free register. */
+    private int next;
+
+    /** The number of registers used. */
+    private int registers;
+
+    /**
+     * Instantiates a new compiler for one chunk.
+     */
+    private VmCompiler() {
+    }
+
+    /**
+     * Compiles an expression to a chunk. The lambdas in it are not compiled.
+     *
+     * @param node
+     *            the expression
+     * @return the compiled expression, or the expression itself if it would
+     *         only be evaluated by the tree walker
+     */
+    public static ExpressionNode compile(final ExpressionNode node) {
+        if (!isCompiled(node)) {
+            return node;
+        }
+        final VmCompiler compiler = new VmCompiler();
+        final int result = compiler.allocate();
+        compiler.emit(node, result);
+        compiler.add(Opcode.RETURN, result);
+        return new ChunkNode(node, new Chunk(Arrays.copyOf(compiler.code,
+                compiler.size), compiler.constants.toArray(),
+                compiler.registers));
+    }
+
+    /**
+     * Checks whether an expression is compiled to instructions rather than
+     * evaluated as a tree.
+     *
+     * @param node
+     *            the expression
+     * @return true, if the expression is compiled
+     */
+    private static boolean isCompiled(final ExpressionNode node) {
+        return node.getOperator() != null || node instanceof IfNode
+                || node instanceof SequenceNode
+                || node instanceof FunctionCallNode;
+    }
+
+    /**
+     * Emits the instructions that put the value of an expression in a
+     * register.
+     *
+     * @param node
+     *            the expression
+     * @param dst
+     *            the register
+     */
+    private void emit(final ExpressionNode node, final int dst) {
+        final Operators operator = node.getOperator();
+        final List<ExpressionNode> children = node.getChildren();
+        if (node instanceof ConstantNode) {
+            // a constant does not look at its context
+            add(Opcode.CONST, dst, constant(node.getValue(null)));
+        } else if (operator != null) {
+            emit(children.get(0), dst);
+            final ExpressionNode right = children.get(1);
+            if (right instanceof ConstantNode) {
+                add(Opcode.BINARY_K, dst, dst, constant(right.getValue(null)),
+                        operator.ordinal());
+            } else {
+                final int b = allocate();
+                emit(right, b);
+                add(Opcode.BINARY, dst, dst, b, operator.ordinal());
+                free(1);
+            }
+        } else if (node instanceof IfNode) {
+            final int otherwise = branchIfFalse(children.get(0));
+            emit(children.get(1), dst);
+            add(Opcode.JUMP, -1);
+            final int end = size - 1;
+            code[otherwise] = size;
+            emit(children.get(2), dst);
+            code[end] = size;
+        } else if (node instanceof SequenceNode) {
+            for (final ExpressionNode child : children) {
+                emit(child, dst);
+            }
+        } else if (node instanceof FunctionCallNode) {
+            final List<ExpressionNode> parameters = ((FunctionCallNode) node)
+                    .getParameters();
+            final int callee = allocate();
+            add(Opcode.CALLEE, callee, constant(node));
+            for (final ExpressionNode parameter : parameters) {
+                emit(parameter, allocate());
+            }
+            add(Opcode.CALL, dst, constant(node), callee, parameters.size());
+            free(parameters.size() + 1);
+        } else {
+            add(Opcode.EVAL, dst, constant(node));
+        }
+    }
+
+    /**
+     * Emits the instructions that jump if a condition is false.
+     *
+     * @param condition
+     *            the condition
+     * @return the position of the jump target, to be filled in
+     */
+    private int branchIfFalse(final ExpressionNode condition) {
+        final Operators operator = condition.getOperator();
+        if (operator != Operators.EQUAL && operator != Operators.GREATER
+                && operator != Operators.GREATER_EQUAL
+                && operator != Operators.LESS
+                && operator != Operators.LESS_EQUAL) {
+            final int value = allocate();
+            emit(condition, value);
+            add(Opcode.TEST, value, -1);
+            free(1);
+            return size - 1;
+        }
+        final List<ExpressionNode> terms = condition.getChildren();
+        final int a = allocate();
+        emit(terms.get(0), a);
+        final ExpressionNode right = terms.get(1);
+        if (right instanceof ConstantNode) {
+            add(Opcode.BRANCH_IF_NOT_K, a, constant(right.getValue(null)),
+                    operator.ordinal(), -1);
+        } else {
+            final int b = allocate();
+            emit(right, b);
+            add(Opcode.BRANCH_IF_NOT, a, b, operator.ordinal(), -1);
+            free(1);
+        }
+        free(1);
+        return size - 1;
+    }
+
+    /**
+     * Adds an instruction.
+     *
+     * @param instruction
+     *            the opcode and its operands
+     */
+    private void add(final int... instruction) {
+        if (size + instruction.length > code.length) {
+            code = Arrays.copyOf(code, code.length * 2);
+        }
+        System.arraycopy(instruction, 0, code, size, instruction.length);
+        size += instruction.length;
+    }
+
+    /**
+     * Gets the index of a constant, adding it to the pool if needed.
+     *
+     * @param value
+     *            the constant
+     * @return the index
+     */
+    private int constant(final Object value) {
+        Integer index = constantIndex.get(value);
+        if (index == null) {
+            index = constants.size();
+            constants.add(value);
+            constantIndex.put(value, index);
+        }
+        return index;
+    }
+
+    /**
+     * Reserves a register. Registers are freed in the reverse order.
+     *
+     * @return the register
+     */
+    private int allocate() {
+        registers = Math.max(registers, next + 1);
+        return next++;
+    }
+
+    /**
+     * Frees the last reserved registers.
+     *
+     * @param count
+     *            the number of registers
+     */
+    private void free(final int count) {
+        next -= count;
+    }
+
+    /**
+     * The Class ChunkNode. An expression that runs a chunk. It prints as the
+     * expression it was compiled from.
+     */
+    public static final class ChunkNode extends ExpressionNode {
+
+        /** The expression the chunk was compiled from. */
+        private final ExpressionNode source;
+
+        /** The chunk. */
+        private final Chunk chunk;
+
+        /**
+         * Instantiates a new chunk node.
+         *
+         * @param source
+         *            the expression the chunk was compiled from
+         * @param chunk
+         *            the chunk
+         */
+        ChunkNode(final ExpressionNode source, final Chunk chunk) {
+            super(null);
+            this.source = source;
+            this.chunk = chunk;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ExpressionNode#getValue(machine.Context)
+         */
+        @Override
+        public APValue getValue(final Context context) {
+            return VirtualMachine.execute(chunk, context);
+        }
+
+        /**
+         * Gets the chunk.
+         *
+         * @return the chunk
+         */
+        public Chunk getChunk() {
+            return chunk;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ExpressionNode#getChildren()
+         */
+        @Override
+        public List<ExpressionNode> getChildren() {
+            return source.getChildren();
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ExpressionNode#toString()
+         */
+        @Override
+        public String toString() {
+            return source.toString();
+        }
+    }
+}
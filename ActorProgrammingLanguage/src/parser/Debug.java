@@ -3,11 +3,24 @@
  */
 package parser;
 
+import java.util.List;
+
+import machine.Function;
+import parser.ExpressionNode.AssignmentNode;
+import parser.ExpressionNode.LambdaNode;
+import parser.ExpressionNode.VariableNode;
+
 /**
  * The Class Debug which holds many debugging methods.
  */
 public final class Debug {
 
+    /**
+     * The system property that prints the effect of each function when a
+     * program is run, see {@link #dumpEffects(List)}.
+     */
+    public static final String EFFECTS_PROPERTY = "apl.debug.effects";
+
     /**
      * Finds out the index of "this code" in the returned stack trace
      */
@@ -60,4 +73,50 @@ public final class Debug {
         return Thread.currentThread().getStackTrace()[CLIENT_CODE_STACK_INDEX
                 + callsUp].getMethodName();
     }
+
+    /**
+     * Lists the effect of each function of a program, one per line, such as
+     * "fib(n): PURE".
+     *
+     * @param nodes
+     *            the statements of the program
+     * @return the list
+     */
+    public static String dumpEffects(final List<ExpressionNode> nodes) {
+        final StringBuilder builder = new StringBuilder();
+        for (final ExpressionNode node : nodes) {
+            dumpEffects(node, null, builder);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Lists the effect of each function in an expression.
+     *
+     * @param node
+     *            the expression
+     * @param name
+     *            the name the expression is bound to, or null
+     * @param builder
+     *            the builder to list them in
+     */
+    private static void dumpEffects(final ExpressionNode node,
+            final String name, final StringBuilder builder) {
+        if (node instanceof LambdaNode) {
+            final Function function = ((LambdaNode) node).getFunction();
+            builder.append(name != null ? name : "lambda").append('(');
+            for (int i = 0; i < function.parameters.size(); i++) {
+                final VariableNode parameter = function.parameters.get(i);
+                builder.append(i == 0 ? "" : ", ").append(parameter.getName());
+            }
+            builder.append("): ").append(function.getEffect())
+                    .append(System.lineSeparator());
+        }
+        final String bound = node instanceof AssignmentNode ? ((AssignmentNode) node)
+                .getVariable().getName() : null;
+        final List<ExpressionNode> children = node.getChildren();
+        for (final ExpressionNode child : children) {
+            dumpEffects(child, bound, builder);
+        }
+    }
 }
@@ -5,6 +5,7 @@ package parser;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -12,7 +13,9 @@ import java.util.Map;
 import machine.Context;
 import machine.Context.VariableMapping;
 import machine.ContextException;
+import machine.DataConstructor;
 import machine.Function;
+import machine.TypeRegistry;
 import type.APNumber;
 import type.APValue;
 import type.APValue.Operators;
@@ -20,6 +23,8 @@ import type.APValueData;
 import type.APValueFunction;
 import type.APValueList;
 import type.APValueNum;
+import type.DataStructureInstance;
+import type.MismatchedMethodException;
 
 // TODO: Auto-generated Javadoc
 /**
@@ -45,6 +50,18 @@ public abstract class ExpressionNode<T> {
     /** The terms of an expression. In "3+4" the terms are 3 and 4. */
     private final List<ExpressionNode<T>> terms;
 
+    /**
+     * The types of the operands an operator expression has seen, with a bit
+     * for each type as given by {@link #typeBit(int)}.
+     */
+    private int operandTypes;
+
+    /**
+     * The type the value of this expression is proven to have before it
+     * runs, or {@link TypeRegistry#NONE} if it is not known.
+     */
+    private int staticType = TypeRegistry.NONE;
+
     /**
      * Instantiates a new expression node.
      *
@@ -87,6 +104,106 @@ public abstract class ExpressionNode<T> {
      */
     public abstract APValue<T> getValue(Context context);
 
+    /**
+     * Marks this expression as being in tail position, meaning its value is
+     * the value of the function it is in. Calls in tail position return a
+     * {@link FunctionCallNode.TailCall} instead of calling the function.
+     */
+    public void markTail() {
+    }
+
+    /**
+     * Gets the operator of an operator expression, such as ADD for "3+4".
+     *
+     * @return the operator, or null if this is not an operator expression
+     */
+    public Operators getOperator() {
+        return null;
+    }
+
+    /**
+     * Records the types of the operands of an operator expression.
+     *
+     * @param first
+     *            the first operand
+     * @param second
+     *            the second operand
+     */
+    protected void observe(final APValue first, final APValue second) {
+        if (first != null && second != null) {
+            operandTypes |= typeBit(first.getTypeId())
+                    | typeBit(second.getTypeId());
+        }
+    }
+
+    /**
+     * Gets the types of the operands this operator expression has seen.
+     *
+     * @return the types, a bit for each type as given by
+     *         {@link #typeBit(int)}
+     */
+    public int getOperandTypes() {
+        return operandTypes;
+    }
+
+    /**
+     * Adds types to the operand types of this operator expression, for
+     * example the ones seen by an earlier run of the program.
+     *
+     * @param types
+     *            the types, a bit for each type as given by
+     *            {@link #typeBit(int)}
+     */
+    public void addOperandTypes(final int types) {
+        operandTypes |= types;
+    }
+
+    /**
+     * Gets the type the value of this expression is proven to have, for
+     * example by type inference on the intermediate representation.
+     *
+     * @return the type id, or {@link TypeRegistry#NONE} if it is not known
+     */
+    public int getStaticType() {
+        return staticType;
+    }
+
+    /**
+     * Sets the type the value of this expression is proven to have.
+     *
+     * @param typeId
+     *            the type id, or {@link TypeRegistry#NONE} if it is not known
+     */
+    public void setStaticType(final int typeId) {
+        staticType = typeId;
+    }
+
+    /**
+     * Gets the bit of a type in a set of operand types. The builtin types
+     * have a bit each, and all other types share the last bit.
+     *
+     * @param typeId
+     *            the type id
+     * @return the bit
+     */
+    public static int typeBit(final int typeId) {
+        return typeId >= 0 && typeId < Integer.SIZE - 1 ? 1 << typeId
+                : 1 << Integer.SIZE - 1;
+    }
+
+    /**
+     * Gets the expressions this expression is made of, in the order they are
+     * evaluated. The body of a lambda counts as a child of the lambda.
+     *
+     * @return the children
+     */
+    public List<ExpressionNode> getChildren() {
+        if (terms == null) {
+            return Collections.emptyList();
+        }
+        return Collections.<ExpressionNode> unmodifiableList(terms);
+    }
+
     /*
      * (non-Javadoc)
      *
@@ -209,12 +326,30 @@ public abstract class ExpressionNode<T> {
      */
     public static class FunctionCallNode extends ExpressionNode {
 
+        /**
+         * The number of functions a call site remembers before it stops
+         * caching.
+         */
+        private static final int CACHE_SIZE = 4;
+
         /** The function. */
         private final ExpressionNode function;
 
         /** The parameters. */
         private final List<ExpressionNode> parameters;
 
+        /** The functions this call site has called, checked against it. */
+        private final CallTarget[] cache = new CallTarget[CACHE_SIZE];
+
+        /**
+         * The number of cached targets, or -1 once the call site has seen too
+         * many functions to cache.
+         */
+        private int cached;
+
+        /** Whether this call is in tail position. */
+        private boolean tail;
+
         /**
          * Instantiates a new function call node.
          *
@@ -237,11 +372,12 @@ public abstract class ExpressionNode<T> {
          */
         @Override
         public String toString() {
-            final StringBuilder b = new StringBuilder("func").append("(");
-            for (final ExpressionNode node : parameters) {
-                b.append(node).append(',');
+            final StringBuilder b = new StringBuilder().append(function)
+                    .append("(");
+            for (int i = 0; i < parameters.size(); i++) {
+                b.append(i == 0 ? "" : ",").append(parameters.get(i));
             }
-            return b.substring(0, b.length() - 1) + ")";
+            return b.append(")").toString();
         }
 
         /*
@@ -251,57 +387,359 @@ public abstract class ExpressionNode<T> {
          */
         @Override
         public APValue getValue(final Context context) {
-            
-            final Context c = new Context(context.getOutputStream());
-            // Add all functions of outer scope, but we have to add this
-            // function individually to avoid stackoverflow.
-            final Map<String, VariableMapping> oldVariables = new HashMap<>(
-                    context.getVariables());
-            
-            c.setVariables(oldVariables);
+            final Function func = evaluateFunction(context);
+            final CallTarget target = target(func);
+            final APValue[] arguments = new APValue[parameters.size()];
+            for (int i = 0; i < arguments.length; i++) {
+                arguments[i] = parameters.get(i).getValue(context);
+            }
+            return call(context, func, target, arguments);
+        }
+
+        /**
+         * Evaluates the function to call and checks that it takes as many
+         * parameters as are given. Used by compiled code, which evaluates the
+         * arguments itself.
+         *
+         * @param context
+         *            the context
+         * @return the function
+         */
+        public Function callee(final Context context) {
+            final Function func = evaluateFunction(context);
+            target(func);
+            return func;
+        }
+
+        /**
+         * Calls a function with evaluated arguments. Used by compiled code.
+         *
+         * @param context
+         *            the context of the caller
+         * @param func
+         *            the function, from {@link #callee(Context)}
+         * @param arguments
+         *            the arguments
+         * @return the value of the call, or a tail call
+         */
+        public APValue call(final Context context, final Function func,
+                final APValue[] arguments) {
+            return call(context, func, target(func), arguments);
+        }
+
+        /**
+         * Gets the bodies of the functions this call site has cached.
+         *
+         * @return the bodies, empty once the call site has stopped caching
+         */
+        public List<ExpressionNode> getTargetBodies() {
+            final List<ExpressionNode> bodies = new ArrayList<>();
+            for (int i = 0; i < cached; i++) {
+                bodies.add(cache[i].body);
+            }
+            return bodies;
+        }
+
+        /**
+         * Caches a function this call site is expected to call, for example
+         * one it called in an earlier run of the program. A function that
+         * does not take as many parameters as are given is ignored.
+         *
+         * @param func
+         *            the function
+         */
+        public void expect(final Function func) {
+            if (func.parameters.size() == parameters.size()) {
+                target(func);
+            }
+        }
+
+        /**
+         * Gets the parameters given at this call site.
+         *
+         * @return the parameters
+         */
+        public List<ExpressionNode> getParameters() {
+            return Collections.unmodifiableList(parameters);
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ExpressionNode#getChildren()
+         */
+        @Override
+        public List<ExpressionNode> getChildren() {
+            final List<ExpressionNode> children = new ArrayList<>();
+            children.add(function);
+            children.addAll(parameters);
+            return children;
+        }
+
+        /**
+         * Evaluates the function to call.
+         *
+         * @param context
+         *            the context
+         * @return the function
+         */
+        private Function evaluateFunction(final Context context) {
             final APValue valueFunction = function.getValue(context);
             if (valueFunction == null) {
                 throw new ParserException("Undefined function");
             }
-            
-            final Function func = (Function) valueFunction.getValue();
-            // give it access to itself
-            if (!c.getVariables().containsKey(func.name)) {
-                c.putFunction(func, false);
+            return (Function) valueFunction.getValue();
+        }
+
+        /**
+         * Calls a function whose arity has been checked.
+         *
+         * @param context
+         *            the context of the caller
+         * @param func
+         *            the function
+         * @param target
+         *            the call target of the function
+         * @param arguments
+         *            the arguments
+         * @return the value of the call, or a tail call
+         */
+        private APValue call(final Context context, final Function func,
+                final CallTarget target, final APValue[] arguments) {
+            final Context c;
+            if (tail) {
+                // The caller's frame is finished once this call returns, so
+                // the call can reuse it instead of copying it.
+                c = context;
+            } else {
+                c = new Context(context.getOutputStream());
+                // Add all functions of outer scope, but we have to add this
+                // function individually to avoid stackoverflow.
+                c.setVariables(new HashMap<>(context.getVariables()));
+            }
+            target.bind(c, func, arguments);
+            if (tail) {
+                return new TailCall(func, c);
+            }
+            // Lists hold evaluated values, so a returned list never refers
+            // back to this function's parameters.
+            return func.invoke(c);
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ExpressionNode#markTail()
+         */
+        @Override
+        public void markTail() {
+            tail = true;
+        }
+
+        /**
+         * Finds the checked call target for a function. A function seen
+         * before at this call site is found in the cache by the identity of
+         * its body, so closures made by the same lambda share a target. Once more
+         * than {@link #CACHE_SIZE} functions have been seen, the arity is
+         * checked on every call and the generic target is used instead.
+         *
+         * @param func
+         *            the function
+         * @return the call target
+         */
+        private CallTarget target(final Function func) {
+            for (int i = 0; i < cached; i++) {
+                if (cache[i].body == func.body) {
+                    return cache[i];
+                }
+            }
+            if (cached < 0) {
+                CallTarget.check(func, parameters.size());
+                return CallTarget.GENERIC;
             }
+            final CallTarget target = new CallTarget(func, parameters.size());
+            if (cached == CACHE_SIZE) {
+                Arrays.fill(cache, null);
+                cached = -1;
+            } else if (cached >= 0) {
+                cache[cached++] = target;
+            }
+            return target;
+        }
 
-            if (parameters.size() != func.parameters.size()) {
-                throw new ParserException("You gave " + parameters.size()
-                        + " parameter(s), function " + func.name + " requires "
-                        + func.parameters.size() + " parameter(s).");
+        /**
+         * The Class TailCall. Returned by a call in tail position instead of
+         * the value of the call. {@link Function#invoke(Context)} keeps
+         * running tail calls until it gets a value, so tail recursion does
+         * not grow the Java stack.
+         */
+        public static final class TailCall extends APValue<Void> {
+
+            /** The function to call. */
+            public final Function function;
+
+            /** The context of the call, with the parameters bound. */
+            public final Context context;
+
+            /**
+             * Instantiates a new tail call.
+             *
+             * @param function
+             *            the function to call
+             * @param context
+             *            the context of the call
+             */
+            private TailCall(final Function function, final Context context) {
+                this.function = function;
+                this.context = context;
             }
 
-            // Put all parameters in function scope
-            for (int i = 0; i < parameters.size(); i++) {
-                final ExpressionNode given = parameters.get(i);
-                final String name = func.parameters.get(i).name;
-                // over write outside parameters
-                if (c.getVariable(name) != null) {
-                    c.getVariables().remove(name);
-                    
+            /*
+             * (non-Javadoc)
+             *
+             * @see type.APValue#callMethod(type.APValue.Operators,
+             * type.APValue)
+             */
+            @Override
+            public APValue callMethod(final Operators s, final APValue arg) {
+                throw new MismatchedMethodException("Can't call method " + s
+                        + " on a tail call");
+            }
+
+            /*
+             * (non-Javadoc)
+             *
+             * @see type.APValue#getType()
+             */
+            @Override
+            public String getType() {
+                return "VOID";
+            }
+
+            /*
+             * (non-Javadoc)
+             *
+             * @see type.APValue#getTypeId()
+             */
+            @Override
+            public int getTypeId() {
+                return TypeRegistry.NONE;
+            }
+        }
+
+        /**
+         * The Class CallTarget. A function whose arity has been checked
+         * against a call site, with its parameter names ready to bind.
+         */
+        private static final class CallTarget {
+
+            /**
+             * The target of a call site that has seen too many functions,
+             * which finds the names to bind from the function on every call.
+             */
+            private static final CallTarget GENERIC = new CallTarget();
+
+            /** The body of the function, or null for the generic target. */
+            private final ExpressionNode body;
+
+            /** The parameter names, or null for the generic target. */
+            private final String[] names;
+
+            /**
+             * The name the function binds itself to when the caller does not
+             * have it, or null if it has no name or a parameter hides it.
+             */
+            private final String self;
+
+            /**
+             * Instantiates a new call target.
+             *
+             * @param function
+             *            the function
+             * @param given
+             *            the number of parameters given at the call site
+             */
+            private CallTarget(final Function function, final int given) {
+                check(function, given);
+                body = function.body;
+                names = new String[given];
+                for (int i = 0; i < given; i++) {
+                    names[i] = function.parameters.get(i).name;
+                }
+                self = selfName(function);
+            }
+
+            /**
+             * Instantiates the generic call target.
+             */
+            private CallTarget() {
+                body = null;
+                names = null;
+                self = null;
+            }
+
+            /**
+             * Checks that a function takes as many parameters as are given.
+             *
+             * @param function
+             *            the function
+             * @param given
+             *            the number of parameters given at the call site
+             */
+            private static void check(final Function function, final int given) {
+                if (given != function.parameters.size()) {
+                    throw new ParserException("You gave " + given
+                            + " parameter(s), function " + function.name
+                            + " requires " + function.parameters.size()
+                            + " parameter(s).");
+                }
+            }
+
+            /**
+             * Finds the name a function binds itself to in its calls.
+             *
+             * @param function
+             *            the function
+             * @return the name, or null if it has no name or a parameter
+             *         hides it
+             */
+            private static String selfName(final Function function) {
+                if (function.name == null) {
+                    return null;
+                }
+                for (final VariableNode parameter : function.parameters) {
+                    if (parameter.name.equals(function.name)) {
+                        return null;
+                    }
+                }
+                return function.name;
+            }
+
+            /**
+             * Binds the function, its captured values and the arguments in
+             * the context of a call.
+             *
+             * @param c
+             *            the context of the call
+             * @param func
+             *            the function
+             * @param arguments
+             *            the arguments
+             */
+            private void bind(final Context c, final Function func,
+                    final APValue[] arguments) {
+                final String name = names == null ? selfName(func) : self;
+                // give it access to itself
+                if (name != null && !c.getVariables().containsKey(name)) {
+                    c.putFunction(func, false);
                 }
-                c.putVariable(name, given.getValue(context), true);
-            }
-            final APValue returnVal = func.body.getValue(c);
-            // The reason we have to simplify a list before we return it is if
-            // the list uses the parameters. This means that if you return
-            // [a,a,a], the caller cannot simplify it because it has no access
-            // to parameters anymore.
-            if (returnVal instanceof APValueList) {
-                final List<ExpressionNode> nodes = (List<ExpressionNode>) returnVal
-                        .getValue();
-                final List<ExpressionNode> simplifiedNodes = new ArrayList<>();
-                for (final ExpressionNode node : nodes) {
-                    simplifiedNodes.add(new ConstantNode<>(node.getValue(c)));
+                func.bindEnvironment(c);
+                // over write outside parameters
+                for (int i = 0; i < arguments.length; i++) {
+                    c.putParameter(names == null ? func.parameters.get(i).name
+                            : names[i], arguments[i]);
                 }
-                return new APValueList(simplifiedNodes);
             }
-            return returnVal;
         }
     }
 
@@ -322,6 +760,12 @@ public abstract class ExpressionNode<T> {
         /** The is mutable. */
         private final boolean isMutable;
 
+        /**
+         * Whether this assignment is known to never change a variable that is
+         * not mutable.
+         */
+        private boolean checked;
+
         /**
          * Instantiates a new assignment node.
          *
@@ -340,6 +784,16 @@ public abstract class ExpressionNode<T> {
             this.isMutable = mutable;
         }
 
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ExpressionNode#getChildren()
+         */
+        @Override
+        public List<ExpressionNode> getChildren() {
+            return Collections.singletonList(expression);
+        }
+
         /*
          * (non-Javadoc)
          *
@@ -358,7 +812,11 @@ public abstract class ExpressionNode<T> {
         @Override
         public APValue getValue(final Context context) {
             final APValue expr = this.getExpression().getValue(context);
-            context.putVariable(getVariable().name, expr, isMutable);
+            if (checked) {
+                context.assignVariable(getVariable().name, expr, isMutable);
+            } else {
+                context.putVariable(getVariable().name, expr, isMutable);
+            }
             return expr;
         }
 
@@ -380,6 +838,34 @@ public abstract class ExpressionNode<T> {
             return expression;
         }
 
+        /**
+         * Checks if the variable is assigned as mutable.
+         *
+         * @return true, if mutable
+         */
+        public boolean isMutable() {
+            return isMutable;
+        }
+
+        /**
+         * Checks if this assignment is known to never change a variable that
+         * is not mutable, so that it stores its value without checking.
+         *
+         * @return true, if checked
+         * @see parser.checking.MutabilityChecker
+         */
+        public boolean isChecked() {
+            return checked;
+        }
+
+        /**
+         * Marks this assignment as known to never change a variable that is
+         * not mutable.
+         */
+        public void markChecked() {
+            checked = true;
+        }
+
         @Override
         public int hashCode() {
             final int prime = 31;
@@ -457,6 +943,16 @@ public abstract class ExpressionNode<T> {
             this.insideCurlies = insideCurlies;
             this.rhExpr = rh;
         }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ExpressionNode#getChildren()
+         */
+        @Override
+        public List<ExpressionNode> getChildren() {
+            return Arrays.asList(variable, insideCurlies, rhExpr);
+        }
         
         /*
          * (non-Javadoc)
@@ -465,11 +961,11 @@ public abstract class ExpressionNode<T> {
          */
         @Override
         public APValue getValue(final Context context) {
-            variable.getValue(context)
-                    .getValue()
-                    .set(((APNumber) getInsideCurlies().getValue(context)
-                            .getValue()).intValueExact(),
-                            new ConstantNode(getRightHand().getValue(context)));
+            final APValue list = variable instanceof ListIndexNode ? ((ListIndexNode) variable)
+                    .getValueForUpdate(context) : variable.getValue(context);
+            ((APValueList) list).set(((APNumber) getInsideCurlies()
+                    .getValue(context).getValue()).intValueExact(),
+                    getRightHand().getValue(context));
             return APValue.VOID;
         }
         
@@ -504,6 +1000,9 @@ public abstract class ExpressionNode<T> {
         /** The expression to assign to the variable. */
         private final ExpressionNode expression;
 
+        /** The slot of the field in the last shape seen. */
+        private final FieldSlotCache slotCache;
+
         /**
          * Instantiates a new assignment node.
          *
@@ -520,6 +1019,17 @@ public abstract class ExpressionNode<T> {
             this.field = field;
             variable = expr;
             this.expression = assigned;
+            slotCache = new FieldSlotCache(field.getName());
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ExpressionNode#getChildren()
+         */
+        @Override
+        public List<ExpressionNode> getChildren() {
+            return Collections.singletonList(expression);
         }
 
         /*
@@ -539,12 +1049,15 @@ public abstract class ExpressionNode<T> {
          */
         @Override
         public APValue getValue(final Context context) {
-            final APValue lh = context.getVariables().get(variable.getName()).variable;
+            final APValue lh = context.getVariables().get(variable.getName())
+                    .getVariable();
             if (!(lh instanceof APValueData)) {
                 throw new ParserException("Can't access field of non data type");
             }
-            ((APValueData) lh).getValue().fields.put(field.getName(),
-                    new ConstantNode(expression.getValue(context)));
+            final DataStructureInstance instance = ((APValueData) lh)
+                    .getValue();
+            instance.set(slotCache.slotOf(instance), expression.getValue(context)
+                    .reference());
             return APValue.VOID;
         }
 
@@ -557,6 +1070,15 @@ public abstract class ExpressionNode<T> {
             return variable;
         }
 
+        /**
+         * Gets the field assigned to.
+         *
+         * @return the field
+         */
+        public VariableNode getField() {
+            return field;
+        }
+
         /**
          * Gets the expression.
          *
@@ -597,6 +1119,18 @@ public abstract class ExpressionNode<T> {
             this.expression = expression;
         }
 
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ExpressionNode#getChildren()
+         */
+        @Override
+        public List<ExpressionNode> getChildren() {
+            final List<ExpressionNode> children = new ArrayList<>(statements);
+            children.add(expression);
+            return children;
+        }
+
         /*
          * (non-Javadoc)
          *
@@ -623,6 +1157,16 @@ public abstract class ExpressionNode<T> {
             }
             return expression.getValue(context);
         }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ExpressionNode#markTail()
+         */
+        @Override
+        public void markTail() {
+            expression.markTail();
+        }
         
         @Override
         public int hashCode() {
@@ -711,6 +1255,17 @@ public abstract class ExpressionNode<T> {
             }
         }
 
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ExpressionNode#markTail()
+         */
+        @Override
+        public void markTail() {
+            getTerm(1).markTail();
+            getTerm(2).markTail();
+        }
+
         /*
          * (non-Javadoc)
          *
@@ -724,25 +1279,65 @@ public abstract class ExpressionNode<T> {
     }
     
     /**
-     * The Class AssignmentNode.
+     * The Class LambdaNode. Evaluates to a closure over the variables the
+     * lambda captures. A lambda that captures nothing always evaluates to the
+     * same function value.
      *
      * @author Kyran Adams
      * @version $Revision: 1.0 $
      */
     public static class LambdaNode extends ExpressionNode {
 
-        /** The variable to assign to. */
+        /** The function, without captured values. */
         private final Function func;
 
+        /** The names of the captured variables. */
+        private final String[] captured;
+
+        /** The shared value of a lambda that captures nothing, or null. */
+        private final APValueFunction value;
+
         /**
-         * Instantiates a new assignment node.
+         * Instantiates a new lambda node.
          *
          * @param func
          *            the func
+         * @param captured
+         *            the names of the variables to capture
          */
-        public LambdaNode(final Function func) {
+        public LambdaNode(final Function func, final List<String> captured) {
             super(null);
             this.func = func;
+            this.captured = captured.toArray(new String[captured.size()]);
+            value = captured.isEmpty() ? new APValueFunction(func) : null;
+        }
+
+        /**
+         * Gets the function, without captured values.
+         *
+         * @return the function
+         */
+        public Function getFunction() {
+            return func;
+        }
+
+        /**
+         * Gets the names of the captured variables.
+         *
+         * @return the names
+         */
+        public List<String> getCaptured() {
+            return Collections.unmodifiableList(Arrays.asList(captured));
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ExpressionNode#getChildren()
+         */
+        @Override
+        public List<ExpressionNode> getChildren() {
+            return Collections.singletonList(func.body);
         }
 
         /*
@@ -762,7 +1357,20 @@ public abstract class ExpressionNode<T> {
          */
         @Override
         public APValue getValue(final Context context) {
-            return new APValueFunction(func);
+            if (value != null) {
+                return value;
+            }
+            final APValue[] environment = new APValue[captured.length];
+            for (int i = 0; i < captured.length; i++) {
+                final APValue capturedValue = context.getVariable(captured[i]);
+                if (capturedValue == null) {
+                    throw new ContextException("Undefined function: "
+                            + captured[i]);
+                }
+                environment[i] = capturedValue.reference();
+            }
+            return new APValueFunction(new Function(func, captured,
+                    environment));
         }
 
     }
@@ -798,8 +1406,19 @@ public abstract class ExpressionNode<T> {
             final APValue termOne = getTerm(0).getValue(c);
             final APValue termTwo = getTerm(1).getValue(c);
 
+            observe(termOne, termTwo);
             return termOne.callMethod(Operators.EQUAL, termTwo);
         }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ExpressionNode#getOperator()
+         */
+        @Override
+        public Operators getOperator() {
+            return Operators.EQUAL;
+        }
         
         /*
          * (non-Javadoc)
@@ -844,12 +1463,23 @@ public abstract class ExpressionNode<T> {
             final APValue termOne = getTerm(0).getValue(c);
             final APValue termTwo = getTerm(1).getValue(c);
 
+            observe(termOne, termTwo);
             return termOne.callMethod(Operators.GREATER_EQUAL, termTwo);
         }
-        
+
         /*
          * (non-Javadoc)
-         * 
+         *
+         * @see parser.ExpressionNode#getOperator()
+         */
+        @Override
+        public Operators getOperator() {
+            return Operators.GREATER_EQUAL;
+        }
+        
+        /*
+         * (non-Javadoc)
+         * 
          * @see parser.ExpressionNode#toString()
          */
         @Override
@@ -890,8 +1520,19 @@ public abstract class ExpressionNode<T> {
             final APValue termOne = getTerm(0).getValue(c);
             final APValue termTwo = getTerm(1).getValue(c);
 
+            observe(termOne, termTwo);
             return termOne.callMethod(Operators.LESS_EQUAL, termTwo);
         }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ExpressionNode#getOperator()
+         */
+        @Override
+        public Operators getOperator() {
+            return Operators.LESS_EQUAL;
+        }
         
         /*
          * (non-Javadoc)
@@ -936,8 +1577,19 @@ public abstract class ExpressionNode<T> {
             final APValue termOne = getTerm(0).getValue(c);
             final APValue termTwo = getTerm(1).getValue(c);
 
+            observe(termOne, termTwo);
             return termOne.callMethod(Operators.GREATER, termTwo);
         }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ExpressionNode#getOperator()
+         */
+        @Override
+        public Operators getOperator() {
+            return Operators.GREATER;
+        }
         
         /*
          * (non-Javadoc)
@@ -982,8 +1634,19 @@ public abstract class ExpressionNode<T> {
             final APValue termOne = getTerm(0).getValue(c);
             final APValue termTwo = getTerm(1).getValue(c);
 
+            observe(termOne, termTwo);
             return termOne.callMethod(Operators.LESS, termTwo);
         }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ExpressionNode#getOperator()
+         */
+        @Override
+        public Operators getOperator() {
+            return Operators.LESS;
+        }
         
         /*
          * (non-Javadoc)
@@ -1025,6 +1688,16 @@ public abstract class ExpressionNode<T> {
             this.index = insideParens;
         }
 
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ExpressionNode#getChildren()
+         */
+        @Override
+        public List<ExpressionNode> getChildren() {
+            return Arrays.asList(list, index);
+        }
+
         /*
          * (non-Javadoc)
          *
@@ -1036,9 +1709,24 @@ public abstract class ExpressionNode<T> {
                     .getValue(context);
             final int indexValue = ((APNumber) index.getValue(context)
                     .getValue()).intValueExact();
-            final ExpressionNode expressionNode = (ExpressionNode) apValueList
-                    .getValue().get(indexValue);
-            return expressionNode.getValue(context);
+            return apValueList.getValue().get(indexValue);
+        }
+
+        /**
+         * Gets the indexed element so that it can be written to, for example
+         * in "a{0}{1} = 2". Every list along the way stops sharing its store
+         * first, so the write is not seen through other variables.
+         *
+         * @param context
+         *            the context
+         * @return the element
+         */
+        public APValue getValueForUpdate(final Context context) {
+            final APValue outer = list instanceof ListIndexNode ? ((ListIndexNode) list)
+                    .getValueForUpdate(context) : list.getValue(context);
+            final int indexValue = ((APNumber) index.getValue(context)
+                    .getValue()).intValueExact();
+            return ((APValueList) outer).getForUpdate(indexValue);
         }
         
         /*
@@ -1066,6 +1754,9 @@ public abstract class ExpressionNode<T> {
         /** The field in the data structure. */
         private final VariableNode field;
 
+        /** The slot of the field in the last shape seen. */
+        private final FieldSlotCache slotCache;
+
         /**
          * Instantiates a new list index node.
          *
@@ -1081,6 +1772,17 @@ public abstract class ExpressionNode<T> {
             assert field != null;
             this.dataStructure = expr;
             this.field = field;
+            slotCache = new FieldSlotCache(field.getName());
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ExpressionNode#getChildren()
+         */
+        @Override
+        public List<ExpressionNode> getChildren() {
+            return Collections.singletonList(dataStructure);
         }
 
         /*
@@ -1097,14 +1799,38 @@ public abstract class ExpressionNode<T> {
                         + this.dataStructure);
             }
 
-            final ExpressionNode fieldValue = apValueData.getValue().fields
-                    .get(field.name);
+            final DataStructureInstance instance = apValueData.getValue();
+            return instance.get(slotCache.slotOf(instance));
+        }
 
-            if (fieldValue == null) {
-                throw new ParserException("Undefined field " + field.name);
-            }
+        /**
+         * Gets the field being accessed.
+         *
+         * @return the field
+         */
+        public VariableNode getField() {
+            return field;
+        }
 
-            return fieldValue.getValue(context);
+        /**
+         * Gets the shape of the last data structure this field access saw.
+         *
+         * @return the constructor of the data structure, or null if none
+         */
+        public DataConstructor getShape() {
+            return slotCache.shape;
+        }
+
+        /**
+         * Sets the shape this field access expects, for example the one it
+         * saw in an earlier run of the program. A constructor without the
+         * field is ignored.
+         *
+         * @param shape
+         *            the constructor of the expected data structures
+         */
+        public void expectShape(final DataConstructor shape) {
+            slotCache.expect(shape);
         }
         
         /*
@@ -1118,6 +1844,375 @@ public abstract class ExpressionNode<T> {
         }
     }
     
+    /**
+     * The Class FieldSlotCache. Remembers the slot of a field for the last
+     * shape (data constructor) a field access saw, so that repeated accesses
+     * on instances of the same constructor skip the name lookup.
+     */
+    private static final class FieldSlotCache {
+
+        /** The field name. */
+        private final String field;
+
+        /** The last shape seen. */
+        private DataConstructor shape;
+
+        /** The slot of the field in that shape. */
+        private int slot;
+
+        /**
+         * Instantiates a new field slot cache.
+         *
+         * @param field
+         *            the field name
+         */
+        FieldSlotCache(final String field) {
+            this.field = field;
+        }
+
+        /**
+         * Gets the slot of the field in an instance.
+         *
+         * @param instance
+         *            the instance
+         * @return the slot
+         */
+        int slotOf(final DataStructureInstance instance) {
+            if (instance.constructor != shape) {
+                final int newSlot = instance.constructor.slotOf(field);
+                if (newSlot < 0) {
+                    throw new ParserException("Undefined field " + field);
+                }
+                shape = instance.constructor;
+                slot = newSlot;
+            }
+            return slot;
+        }
+
+        /**
+         * Sets the shape to expect, if it has the field.
+         *
+         * @param constructor
+         *            the shape
+         */
+        void expect(final DataConstructor constructor) {
+            final int newSlot = constructor.slotOf(field);
+            if (newSlot >= 0) {
+                shape = constructor;
+                slot = newSlot;
+            }
+        }
+    }
+
+    /**
+     * The Class NewNode. Represents a new data structure expression, for
+     * example "new Rectangle.Square(size = 4)". The constructor and field
+     * layout are fixed at parse time; each evaluation creates a new instance
+     * holding the evaluated field values.
+     *
+     * @author Kyran Adams
+     * @version $Revision: 1.0 $
+     */
+    public static class NewNode extends ExpressionNode {
+
+        /** The constructor of the instance. */
+        private final DataConstructor constructor;
+
+        /** The field expressions, in slot order. */
+        private final ExpressionNode[] fields;
+
+        /**
+         * Instantiates a new new node.
+         *
+         * @param constructor
+         *            the constructor of the instance
+         * @param fields
+         *            the field expressions, in slot order
+         */
+        public NewNode(final DataConstructor constructor,
+                final ExpressionNode[] fields) {
+            super(null);
+            this.constructor = constructor;
+            this.fields = fields;
+        }
+
+        /**
+         * Gets the constructor of the instance.
+         *
+         * @return the constructor
+         */
+        public DataConstructor getConstructor() {
+            return constructor;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ExpressionNode#getChildren()
+         */
+        @Override
+        public List<ExpressionNode> getChildren() {
+            return Arrays.asList(fields);
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ExpressionNode#getValue(machine.Context)
+         */
+        @Override
+        public APValue getValue(final Context context) {
+            final APValue[] values = new APValue[fields.length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = fields[i].getValue(context).reference();
+            }
+            return new APValueData(new DataStructureInstance(constructor,
+                    values));
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ExpressionNode#toString()
+         */
+        @Override
+        public String toString() {
+            return "new " + constructor.name + Arrays.toString(fields);
+        }
+    }
+
+    /**
+     * The Class MatchNode. Represents a match expression over the constructors
+     * of a datatype, for example
+     * "match s | Shape.Circle(radius) -> radius | else -> 0". The cases are
+     * kept in a table indexed by the type id of their constructor, so the
+     * matching case is found with one array lookup.
+     */
+    public static class MatchNode extends ExpressionNode {
+
+        /** The value being matched. */
+        private final ExpressionNode value;
+
+        /** The cases, indexed by constructor type id. */
+        private final Case[] table;
+
+        /** The expression used when no case matches, or null. */
+        private final ExpressionNode otherwise;
+
+        /**
+         * Instantiates a new match node.
+         *
+         * @param value
+         *            the value being matched
+         * @param cases
+         *            the cases
+         * @param otherwise
+         *            the expression used when no case matches, or null
+         */
+        public MatchNode(final ExpressionNode value, final List<Case> cases,
+                final ExpressionNode otherwise) {
+            super(null);
+            this.value = value;
+            this.otherwise = otherwise;
+            int size = 0;
+            for (final Case c : cases) {
+                size = Math.max(size, c.constructor.type.id + 1);
+            }
+            table = new Case[size];
+            for (final Case c : cases) {
+                if (table[c.constructor.type.id] != null) {
+                    throw new ParserException("Duplicate case "
+                            + c.constructor.name + " in match expression");
+                }
+                table[c.constructor.type.id] = c;
+            }
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ExpressionNode#getChildren()
+         */
+        @Override
+        public List<ExpressionNode> getChildren() {
+            final List<ExpressionNode> children = new ArrayList<>();
+            children.add(value);
+            for (final Case c : table) {
+                if (c != null) {
+                    children.add(c.body);
+                }
+            }
+            if (otherwise != null) {
+                children.add(otherwise);
+            }
+            return children;
+        }
+
+        /**
+         * Checks if a case body is run in a copy of the context, which it is
+         * if its case binds fields of the matched value.
+         *
+         * @param body
+         *            the body of a case, or the expression used when no case
+         *            matches
+         * @return true, if the body binds fields
+         */
+        public boolean bindsFields(final ExpressionNode body) {
+            for (final Case c : table) {
+                if (c != null && c.body == body) {
+                    return c.names.length > 0;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Gets the names the cases bind to the fields of the matched value.
+         *
+         * @return the names
+         */
+        public List<String> getBoundNames() {
+            final List<String> names = new ArrayList<>();
+            for (final Case c : table) {
+                if (c != null) {
+                    names.addAll(Arrays.asList(c.names));
+                }
+            }
+            return names;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ExpressionNode#getValue(machine.Context)
+         */
+        @Override
+        public APValue getValue(final Context context) {
+            final APValue matched = value.getValue(context);
+            final int id = matched.getTypeId();
+            if (matched instanceof APValueData && id < table.length
+                    && table[id] != null) {
+                return table[id].getValue(
+                        ((APValueData) matched).getValue(), context);
+            }
+            if (otherwise == null) {
+                throw new ParserException("No case matches " + matched);
+            }
+            return otherwise.getValue(context);
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ExpressionNode#markTail()
+         */
+        @Override
+        public void markTail() {
+            for (final Case c : table) {
+                if (c != null) {
+                    c.body.markTail();
+                }
+            }
+            if (otherwise != null) {
+                otherwise.markTail();
+            }
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ExpressionNode#toString()
+         */
+        @Override
+        public String toString() {
+            final StringBuilder b = new StringBuilder("match ").append(value);
+            for (final Case c : table) {
+                if (c != null) {
+                    b.append(" | ").append(c);
+                }
+            }
+            if (otherwise != null) {
+                b.append(" | else -> ").append(otherwise);
+            }
+            return b.toString();
+        }
+
+        /**
+         * The Class Case. One constructor pattern of a match expression, with
+         * the slots of the fields it binds.
+         */
+        public static class Case {
+
+            /** The constructor. */
+            private final DataConstructor constructor;
+
+            /** The names of the bound fields. */
+            private final String[] names;
+
+            /** The slots of the bound fields. */
+            private final int[] slots;
+
+            /** The body. */
+            private final ExpressionNode body;
+
+            /**
+             * Instantiates a new case.
+             *
+             * @param constructor
+             *            the constructor
+             * @param fields
+             *            the fields to bind, which must belong to the
+             *            constructor
+             * @param body
+             *            the body
+             */
+            public Case(final DataConstructor constructor,
+                    final List<String> fields, final ExpressionNode body) {
+                this.constructor = constructor;
+                this.body = body;
+                names = fields.toArray(new String[fields.size()]);
+                slots = new int[names.length];
+                for (int i = 0; i < names.length; i++) {
+                    slots[i] = constructor.slotOf(names[i]);
+                }
+            }
+
+            /**
+             * Evaluates the body with the fields of an instance bound.
+             *
+             * @param instance
+             *            the instance
+             * @param context
+             *            the context
+             * @return the value
+             */
+            private APValue getValue(final DataStructureInstance instance,
+                    final Context context) {
+                if (names.length == 0) {
+                    return body.getValue(context);
+                }
+                final Context c = new Context(context.getOutputStream());
+                c.setVariables(new HashMap<>(context.getVariables()));
+                for (int i = 0; i < names.length; i++) {
+                    c.removeVariable(names[i]);
+                    c.putVariable(names[i], instance.get(slots[i]), true);
+                }
+                return body.getValue(c);
+            }
+
+            /*
+             * (non-Javadoc)
+             *
+             * @see java.lang.Object#toString()
+             */
+            @Override
+            public String toString() {
+                return constructor.name + Arrays.toString(names) + " -> "
+                        + body;
+            }
+        }
+    }
+
     /**
      * The Class AndNode.
      *
@@ -1149,8 +2244,19 @@ public abstract class ExpressionNode<T> {
             final APValue termOne = getTerm(0).getValue(c);
             final APValue termTwo = getTerm(1).getValue(c);
 
+            observe(termOne, termTwo);
             return termOne.callMethod(Operators.AND, termTwo);
         }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ExpressionNode#getOperator()
+         */
+        @Override
+        public Operators getOperator() {
+            return Operators.AND;
+        }
         
         /*
          * (non-Javadoc)
@@ -1194,9 +2300,20 @@ public abstract class ExpressionNode<T> {
             final APValue termOne = getTerm(0).getValue(c);
             final APValue termTwo = getTerm(1).getValue(c);
 
+            observe(termOne, termTwo);
             return termOne.callMethod(Operators.OR, termTwo);
 
         }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ExpressionNode#getOperator()
+         */
+        @Override
+        public Operators getOperator() {
+            return Operators.OR;
+        }
         
         /*
          * (non-Javadoc)
@@ -1240,8 +2357,19 @@ public abstract class ExpressionNode<T> {
             final APValue termOne = getTerm(0).getValue(context);
             final APValue termTwo = getTerm(1).getValue(context);
 
+            observe(termOne, termTwo);
             return termOne.callMethod(Operators.ADD, termTwo);
         }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ExpressionNode#getOperator()
+         */
+        @Override
+        public Operators getOperator() {
+            return Operators.ADD;
+        }
         
         /*
          * (non-Javadoc)
@@ -1285,8 +2413,19 @@ public abstract class ExpressionNode<T> {
             final APValue termOne = getTerm(0).getValue(c);
             final APValue termTwo = getTerm(1).getValue(c);
 
+            observe(termOne, termTwo);
             return termOne.callMethod(Operators.SUBTRACT, termTwo);
         }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ExpressionNode#getOperator()
+         */
+        @Override
+        public Operators getOperator() {
+            return Operators.SUBTRACT;
+        }
         
         /*
          * (non-Javadoc)
@@ -1330,8 +2469,19 @@ public abstract class ExpressionNode<T> {
             final APValue termOne = getTerm(0).getValue(context);
             final APValue termTwo = getTerm(1).getValue(context);
 
+            observe(termOne, termTwo);
             return termOne.callMethod(Operators.MULTIPLY, termTwo);
         }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ExpressionNode#getOperator()
+         */
+        @Override
+        public Operators getOperator() {
+            return Operators.MULTIPLY;
+        }
         
         /*
          * (non-Javadoc)
@@ -1372,8 +2522,19 @@ public abstract class ExpressionNode<T> {
             final APValue termOne = getTerm(0).getValue(c);
             final APValue termTwo = getTerm(1).getValue(c);
 
+            observe(termOne, termTwo);
             return termOne.callMethod(Operators.MOD, termTwo);
         }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ExpressionNode#getOperator()
+         */
+        @Override
+        public Operators getOperator() {
+            return Operators.MOD;
+        }
         
         /*
          * (non-Javadoc)
@@ -1417,8 +2578,19 @@ public abstract class ExpressionNode<T> {
             final APValue termOne = getTerm(0).getValue(c);
             final APValue termTwo = getTerm(1).getValue(c);
 
+            observe(termOne, termTwo);
             return termOne.callMethod(Operators.DIVIDE, termTwo);
         }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ExpressionNode#getOperator()
+         */
+        @Override
+        public Operators getOperator() {
+            return Operators.DIVIDE;
+        }
         
         /*
          * (non-Javadoc)
@@ -1462,8 +2634,19 @@ public abstract class ExpressionNode<T> {
             final APValue termOne = getTerm(0).getValue(c);
             final APValue termTwo = getTerm(1).getValue(c);
 
+            observe(termOne, termTwo);
             return termOne.callMethod(Operators.POWER, termTwo);
         }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ExpressionNode#getOperator()
+         */
+        @Override
+        public Operators getOperator() {
+            return Operators.POWER;
+        }
         
         /*
          * (non-Javadoc)
@@ -1507,14 +2690,14 @@ public abstract class ExpressionNode<T> {
             final APValue termOne = getTerm(0).getValue(c);
             final APValue termTwo = getTerm(1).getValue(c);
 
-            final List<ExpressionNode> nodes = new ArrayList<>();
+            final List<APValue> nodes = new ArrayList<>();
             if (termOne instanceof APValueNum && termTwo instanceof APValueNum) {
                 APNumber first = (APNumber) termOne.getValue();
                 final APNumber second = (APNumber) termTwo.getValue();
                 
                 for (; first.compareTo(second) <= 0; first = first
                         .add(APNumber.ONE)) {
-                    nodes.add(new ConstantNode(new APValueNum(first)));
+                    nodes.add(new APValueNum(first));
                 }
             } else {
                 throw new ParserException("Cannot create range of types "
@@ -1535,6 +2718,169 @@ public abstract class ExpressionNode<T> {
         }
     }
 
+    /**
+     * The Class ListNode. Represents a list literal, for example "[a, b]". The
+     * elements are evaluated once each time the literal is evaluated.
+     *
+     * @author Kyran Adams
+     * @version $Revision: 1.0 $
+     */
+    public static class ListNode extends ExpressionNode {
+
+        /** The element expressions. */
+        private final List<ExpressionNode> elements;
+
+        /**
+         * Instantiates a new list node.
+         *
+         * @param elements
+         *            the element expressions
+         */
+        public ListNode(final List<ExpressionNode> elements) {
+            super(null);
+            this.elements = elements;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ExpressionNode#getChildren()
+         */
+        @Override
+        public List<ExpressionNode> getChildren() {
+            return Collections.unmodifiableList(elements);
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ExpressionNode#getValue(machine.Context)
+         */
+        @Override
+        public APValue getValue(final Context context) {
+            final List<APValue> values = new ArrayList<>(elements.size());
+            for (final ExpressionNode element : elements) {
+                values.add(element.getValue(context));
+            }
+            return new APValueList(values);
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ExpressionNode#toString()
+         */
+        @Override
+        public String toString() {
+            return elements.toString();
+        }
+
+        @Override
+        public int hashCode() {
+            final int prime = 31;
+            int result = super.hashCode();
+            result = prime * result
+                    + (elements == null ? 0 : elements.hashCode());
+            return result;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!super.equals(obj)) {
+                return false;
+            }
+            if (getClass() != obj.getClass()) {
+                return false;
+            }
+            final ListNode other = (ListNode) obj;
+            if (elements == null) {
+                if (other.elements != null) {
+                    return false;
+                }
+            } else if (!elements.equals(other.elements)) {
+                return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * The Class StringNode. Represents a string literal, for example "Hi". Each
+     * evaluation returns a new list that shares the literal's characters.
+     *
+     * @author Kyran Adams
+     * @version $Revision: 1.0 $
+     */
+    public static class StringNode extends ExpressionNode {
+
+        /** The string. */
+        private final String string;
+
+        /**
+         * Instantiates a new string node.
+         *
+         * @param string
+         *            the string, without quotes and escapes
+         */
+        public StringNode(final String string) {
+            super(null);
+            this.string = string;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ExpressionNode#getValue(machine.Context)
+         */
+        @Override
+        public APValue getValue(final Context context) {
+            return new APValueList(string);
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ExpressionNode#toString()
+         */
+        @Override
+        public String toString() {
+            return '"' + string + '"';
+        }
+
+        @Override
+        public int hashCode() {
+            final int prime = 31;
+            int result = super.hashCode();
+            result = prime * result + (string == null ? 0 : string.hashCode());
+            return result;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!super.equals(obj)) {
+                return false;
+            }
+            if (getClass() != obj.getClass()) {
+                return false;
+            }
+            final StringNode other = (StringNode) obj;
+            if (string == null) {
+                if (other.string != null) {
+                    return false;
+                }
+            } else if (!string.equals(other.string)) {
+                return false;
+            }
+            return true;
+        }
+    }
+
     /**
      * The Class VariableNode.
      *
@@ -1546,6 +2892,12 @@ public abstract class ExpressionNode<T> {
         /** The name. */
         private final String name;
 
+        /** The cell this node is linked to, or null. */
+        private VariableMapping cell;
+
+        /** The version of the cell when it was linked. */
+        private int version;
+
         /**
          * Instantiates a new variable node.
          *
@@ -1575,6 +2927,13 @@ public abstract class ExpressionNode<T> {
          */
         @Override
         public APValue getValue(final Context c) {
+            final VariableMapping linked = cell;
+            if (linked != null) {
+                if (linked.getVersion() == version) {
+                    return linked.getVariable();
+                }
+                cell = null;
+            }
             final APValue function = c.getVariable(name);
             if (function == null) {
                 throw new ContextException("Undefined function: " + name);
@@ -1582,6 +2941,22 @@ public abstract class ExpressionNode<T> {
             return function;
         }
 
+        /**
+         * Links this node to the cell its name is bound to in a context, if
+         * there is one. Until the cell is replaced, the node reads it without
+         * looking up its name. The parser links names to the bindings that
+         * exist while parsing, which are the builtins and types.
+         *
+         * @param context
+         *            the context
+         */
+        public void link(final Context context) {
+            cell = context.getVariables().get(name);
+            if (cell != null) {
+                version = cell.getVersion();
+            }
+        }
+
         /**
          * Gets the name.
          *
@@ -6,19 +6,22 @@ package parser;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.Stack;
 
 import lexer.PositionInfo;
 import lexer.Token;
 import lexer.Token.TokenType;
 import machine.Context;
-import machine.Context.VariableMapping;
 import machine.DataConstructor;
 import machine.Function;
+import machine.TypeRegistry;
 import parser.ExpressionNode.AdditionNode;
 import parser.ExpressionNode.AndNode;
 import parser.ExpressionNode.AssignmentNode;
@@ -33,14 +36,19 @@ import parser.ExpressionNode.GreaterThanEqualNode;
 import parser.ExpressionNode.GreaterThanNode;
 import parser.ExpressionNode.IfNode;
 import parser.ExpressionNode.IndexAssignmentNode;
+import parser.ExpressionNode.LambdaNode;
 import parser.ExpressionNode.LessThanEqualNode;
 import parser.ExpressionNode.LessThanNode;
 import parser.ExpressionNode.ListIndexNode;
+import parser.ExpressionNode.ListNode;
+import parser.ExpressionNode.MatchNode;
 import parser.ExpressionNode.ModNode;
 import parser.ExpressionNode.MultiplicationNode;
+import parser.ExpressionNode.NewNode;
 import parser.ExpressionNode.OrNode;
 import parser.ExpressionNode.RangeNode;
 import parser.ExpressionNode.SequenceNode;
+import parser.ExpressionNode.StringNode;
 import parser.ExpressionNode.SubtractionNode;
 import parser.ExpressionNode.VariableNode;
 import parser.checking.CompilerException;
@@ -48,12 +56,8 @@ import parser.checking.TreeChecker;
 import type.APNumber;
 import type.APValueBool;
 import type.APValueChar;
-import type.APValueData;
-import type.APValueFunction;
-import type.APValueList;
 import type.APValueNum;
 import type.APValueType;
-import type.DataStructureInstance;
 
 /**
  * The Class Parser. Takes a list of tokens and turns it into a parse tree.
@@ -78,6 +82,12 @@ public class Parser {
 
     /** The next token. */
     private Token lookahead;
+
+    /**
+     * The scopes of the lambdas and match cases being parsed, innermost on
+     * top.
+     */
+    private final Stack<Scope> scopes = new Stack<>();
     
     /**
      * Instantiates a new parser.
@@ -126,21 +136,13 @@ public class Parser {
      */
     @SuppressWarnings("rawtypes")
     public List<ExpressionNode> parse(final Context context) {
+        final List<ExpressionNode> expressions = new ArrayList<>();
         try {
-            final List<ExpressionNode> expressions = new ArrayList<>();
-            
             while (lookahead.getType() != TokenType.EOF) {
                 expressions.add(statement(context));
                 assertNextToken(TokenType.SEMI);
                 nextToken();
             }
-            try {
-                TreeChecker.checkTree(expressions);
-            } catch (final CompilerException e) {
-                throw new ParserException("Could not compile", e);
-            }
-
-            return expressions;
         } catch (final ParserException e) {
             final StringBuilder lastTokensString = new StringBuilder();
             for (final Token t : lastTokens) {
@@ -151,6 +153,14 @@ public class Parser {
                     + "After : \"" + lastTokensString.toString() + "\"\n"
                     + e.getMessage(), e);
         }
+        // the whole program has been read, so the tokens tell nothing here
+        try {
+            TreeChecker.checkTree(expressions, context);
+        } catch (final CompilerException e) {
+            throw new ParserException("Could not compile: " + e.getMessage(),
+                    e);
+        }
+        return expressions;
     }
     
     /**
@@ -192,10 +202,10 @@ public class Parser {
         nextToken();
         assertNextToken(TokenType.IDENTIFIER);
         final VariableNode dataTypeName = identifier();
-        context.getVariables().put(
-                dataTypeName.getName(),
-                new VariableMapping(new APValueType(dataTypeName.getName()),
-                        false));
+        final APValueType dataType = context.getTypes().define(
+                dataTypeName.getName(), TypeRegistry.NONE);
+        context.removeVariable(dataTypeName.getName());
+        context.putVariable(dataTypeName.getName(), dataType, false);
         assertNextToken(TokenType.EQUAL);
         nextToken();
         
@@ -218,8 +228,9 @@ public class Parser {
                     nextToken();
                 }
             }
-            context.putDataType(new DataConstructor(dataTypeName.getName(),
-                    subNode.getName(), fields));
+            context.putDataType(new DataConstructor(context.getTypes().define(
+                    dataTypeName.getName() + "$" + subNode.getName(),
+                    dataType.id), fields));
             
             if (lookahead.getType() == TokenType.BAR) {
                 nextToken();
@@ -242,6 +253,9 @@ public class Parser {
         
         assertNextToken(TokenType.IDENTIFIER);
         final VariableNode expr = identifier();
+        if (lookahead.getType() != TokenType.EQUAL) {
+            use(expr);
+        }
         
         assertNextToken(TokenType.DOT, TokenType.EQUAL, TokenType.OPEN_PARENS,
                 TokenType.OPEN_CURLY_BRACKET);
@@ -267,8 +281,8 @@ public class Parser {
 
     /**
      * Index assignment.<br>
-     * <code>a{b} = c</code> Assumes that a is already matched and passed in as
-     * the argument
+     * <code>a{b} = c</code> or <code>a{b}{d} = c</code> Assumes that a is
+     * already matched and passed in as the argument
      *
      * @param context
      *            the context
@@ -276,7 +290,7 @@ public class Parser {
      *            the left hand expression
      * @return the expression node
      */
-    @SuppressWarnings("rawtypes")
+    @SuppressWarnings({ "rawtypes", "unchecked" })
     private IndexAssignmentNode indexAssignment(final Context context,
             final ExpressionNode<List> leftHand) {
         assertNextToken(TokenType.OPEN_CURLY_BRACKET);
@@ -284,6 +298,11 @@ public class Parser {
         final ExpressionNode insideCurlies = expression(context);
         assertNextToken(TokenType.CLOSE_CURLY_BRACKET);
         nextToken();
+        if (lookahead.getType() == TokenType.OPEN_CURLY_BRACKET) {
+            // nested index, a{b}{d} = c
+            return indexAssignment(context, new ListIndexNode(leftHand,
+                    insideCurlies));
+        }
         assertNextToken(TokenType.EQUAL);
         nextToken();
         final ExpressionNode rightHandExpression = expression(context);
@@ -343,7 +362,8 @@ public class Parser {
      * Matches an expression.<br>
      * Can be of forms:<br>
      * <li>If expression: <code>if...</code></li> <li>New expression:
-     * <code>new...</code></li> <li>Sequence expression: <code>{...</code></li>
+     * <code>new...</code></li> <li>Match expression: <code>match...</code></li>
+     * <li>Sequence expression: <code>{...</code></li>
      * <li></li>
      *
      * @param context
@@ -357,6 +377,8 @@ public class Parser {
             return ifExpr(context);
         } else if (lookahead.getType() == TokenType.NEW) {
             return newExpr(context);
+        } else if (lookahead.getType() == TokenType.MATCH) {
+            return matchExpr(context);
         } else if (lookahead.getType() == TokenType.OPEN_CURLY_BRACKET) {
             return seqExpr(context);
         }
@@ -402,7 +424,9 @@ public class Parser {
 
     /**
      * Matches a new datatype expression.<br>
-     * <code>new a.b(c,d)</code>
+     * <code>new a.b(c,d)</code><br>
+     * The field names are checked against the constructor here, and the field
+     * expressions are put in slot order.
      *
      * @param context
      *            the context
@@ -412,16 +436,11 @@ public class Parser {
     private ExpressionNode newExpr(final Context context) {
         assertNextToken(TokenType.NEW);
         nextToken();
-        assertNextToken(TokenType.IDENTIFIER);
-        String type = identifier().getName();
-        assertNextToken(TokenType.DOT);
-        nextToken();
-        assertNextToken(TokenType.IDENTIFIER);
-        // add subname
-        type += "$" + identifier().getName();
+        final DataConstructor constructor = dataConstructor(context);
         
         assertNextToken(TokenType.OPEN_PARENS);
-        final Map<String, ExpressionNode> values = new HashMap<>();
+        final ExpressionNode[] values = new ExpressionNode[constructor.fields
+                .size()];
         while (true) {
             nextToken();
             if (lookahead.getType() == TokenType.CLOSE_PARENS) {
@@ -431,15 +450,110 @@ public class Parser {
             assertNextToken(TokenType.IDENTIFIER);
             final VariableNode field = identifier();
             final AssignmentNode node = assignment(context, field, true);
-            values.put(node.getVariable().getName(), node.getExpression());
+            final int slot = constructor.slotOf(field.getName());
+            if (slot < 0 || values[slot] != null) {
+                throw new ParserException(
+                        "Parameters must match data structure constructor");
+            }
+            values[slot] = node.getExpression();
             if (lookahead.getType() == TokenType.CLOSE_PARENS) {
                 nextToken();
                 break;
             }
             assertNextToken(TokenType.COMMA);
         }
-        return new ConstantNode<>(new APValueData(new DataStructureInstance(
-                type, values)));
+        for (final ExpressionNode value : values) {
+            if (value == null) {
+                throw new ParserException(
+                        "Parameters must match data structure constructor");
+            }
+        }
+        return new NewNode(constructor, values);
+    }
+
+    /**
+     * Matches the name of a datatype constructor.<br>
+     * <code>a.b</code>
+     *
+     * @param context
+     *            the context
+     * @return the constructor
+     */
+    private DataConstructor dataConstructor(final Context context) {
+        assertNextToken(TokenType.IDENTIFIER);
+        String type = identifier().getName();
+        assertNextToken(TokenType.DOT);
+        nextToken();
+        assertNextToken(TokenType.IDENTIFIER);
+        // add subname
+        type += "$" + identifier().getName();
+        
+        final List<DataConstructor> constructors = context.getDataType(type);
+        if (constructors == null) {
+            throw new ParserException("Undefined data type " + type);
+        }
+        return constructors.get(0);
+    }
+
+    /**
+     * Matches a match expression.<br>
+     * <code>match a | b.c(d, e) -> f | b.g -> h | else -> i</code><br>
+     * Each case names a constructor and the fields it binds. The cases are put
+     * in a table indexed by type id, so choosing a case is one lookup.
+     *
+     * @param context
+     *            the context
+     * @return the expression node
+     */
+    @SuppressWarnings("rawtypes")
+    private ExpressionNode matchExpr(final Context context) {
+        assertNextToken(TokenType.MATCH);
+        nextToken();
+        final ExpressionNode value = expression(context);
+        final List<MatchNode.Case> cases = new ArrayList<>();
+        ExpressionNode otherwise = null;
+        while (lookahead.getType() == TokenType.BAR) {
+            nextToken();
+            if (lookahead.getType() == TokenType.ELSE) {
+                nextToken();
+                assertNextToken(TokenType.ARROW_RIGHT);
+                nextToken();
+                otherwise = expression(context);
+                break;
+            }
+            final DataConstructor constructor = dataConstructor(context);
+            final List<String> fields = new ArrayList<>();
+            if (lookahead.getType() == TokenType.OPEN_PARENS) {
+                nextToken();
+                while (lookahead.getType() != TokenType.CLOSE_PARENS) {
+                    assertNextToken(TokenType.IDENTIFIER);
+                    final String field = identifier().getName();
+                    if (constructor.slotOf(field) < 0
+                            || fields.contains(field)) {
+                        throw new ParserException("Constructor "
+                                + constructor.name + " has no field " + field
+                                + " to match");
+                    }
+                    fields.add(field);
+                    if (lookahead.getType() != TokenType.CLOSE_PARENS) {
+                        assertNextToken(TokenType.COMMA);
+                        nextToken();
+                    }
+                }
+                nextToken();
+            }
+            assertNextToken(TokenType.ARROW_RIGHT);
+            nextToken();
+            scopes.push(new Scope(fields));
+            final ExpressionNode body = expression(context);
+            closeScope();
+            cases.add(new MatchNode.Case(constructor, fields, body));
+        }
+        if (cases.isEmpty()) {
+            throw new ParserException(
+                    "Match expression requires at least one case");
+        }
+        return new MatchNode(value, cases, otherwise);
     }
 
     /**
@@ -562,6 +676,8 @@ public class Parser {
             // binary function
             
             final VariableNode functionName = identifier();
+            functionName.link(context);
+            use(functionName);
             final ExpressionNode secondArg = expression(context);
             return highOp(
                     new FunctionCallNode(functionName, Arrays.asList(expr,
@@ -726,12 +842,14 @@ public class Parser {
             return matchList(context);
         } else if (lookahead.getType() == TokenType.IDENTIFIER) {
             final VariableNode expr = identifier();
+            expr.link(context);
+            use(expr);
             return expr;
         } else if (lookahead.getType() == TokenType.FUNCTION) {
             return function(context);
         } else if (lookahead.getType() == TokenType.TYPE_NAME) {
-            final ConstantNode<String> type = new ConstantNode<>(
-                    new APValueType(lookahead.getText()));
+            final ConstantNode<String> type = new ConstantNode<>(context
+                    .getTypes().get(lookahead.getText()));
             nextToken();
             return type;
         } else {
@@ -741,7 +859,11 @@ public class Parser {
     }
 
     /**
-     * Lambda.
+     * Lambda.<br>
+     * <code>func a b -> c</code><br>
+     * The lambda captures the variables it uses that are bound by an
+     * enclosing lambda or match case. Other names are looked up when the
+     * lambda is called.
      *
      * @param context
      *            the context
@@ -752,12 +874,78 @@ public class Parser {
         assertNextToken(TokenType.FUNCTION);
         nextToken();
         final List<VariableNode> params = new ArrayList<>();
+        final List<String> names = new ArrayList<>();
         while (lookahead.getType() != TokenType.ARROW_RIGHT) {
-            params.add(identifier());
+            final VariableNode param = identifier();
+            params.add(param);
+            names.add(param.getName());
         }
         nextToken();
-        final Function func = new Function(null, params, expression(context));
-        return new ConstantNode<>(new APValueFunction(func));
+        scopes.push(new Scope(names));
+        final ExpressionNode body = expression(context);
+        body.markTail();
+        final Function func = new Function(null, params, body);
+        final List<String> captured = new ArrayList<>();
+        for (final String free : closeScope()) {
+            for (final Scope scope : scopes) {
+                if (scope.bound.contains(free)) {
+                    captured.add(free);
+                    break;
+                }
+            }
+        }
+        return new LambdaNode(func, captured);
+    }
+
+    /**
+     * Records that a variable is read in the innermost scope.
+     *
+     * @param variable
+     *            the variable
+     */
+    private void use(final VariableNode variable) {
+        if (!scopes.isEmpty()) {
+            scopes.peek().used.add(variable.getName());
+        }
+    }
+
+    /**
+     * Closes the innermost scope. The variables it reads but does not bind
+     * are free, and are read by the enclosing scope as well.
+     *
+     * @return the free variables
+     */
+    private Set<String> closeScope() {
+        final Scope scope = scopes.pop();
+        final Set<String> free = new LinkedHashSet<>(scope.used);
+        free.removeAll(scope.bound);
+        if (!scopes.isEmpty()) {
+            scopes.peek().used.addAll(free);
+        }
+        return free;
+    }
+
+    /**
+     * The Class Scope. The names bound by a lambda or match case, and the
+     * names read inside it.
+     */
+    private static final class Scope {
+
+        /** The bound names. */
+        private final Set<String> bound;
+
+        /** The names read. */
+        private final Set<String> used = new LinkedHashSet<>();
+
+        /**
+         * Instantiates a new scope.
+         *
+         * @param bound
+         *            the bound names
+         */
+        private Scope(final List<String> bound) {
+            this.bound = new HashSet<>(bound);
+        }
     }
 
     /**
@@ -804,7 +992,7 @@ public class Parser {
         }
         assertNextToken(TokenType.CLOSE_SQUARE_BRACKET);
         nextToken();
-        return new ConstantNode<>(new APValueList(nodes));
+        return new ListNode(nodes);
     }
 
     /**
@@ -830,12 +1018,12 @@ public class Parser {
      *
      * @return the expression node
      */
-    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @SuppressWarnings("rawtypes")
     private ExpressionNode matchString() {
         final String stringMinusQuotes = lookahead.getText().substring(1,
                 lookahead.getText().length() - 1);
-        final ConstantNode expr = new ConstantNode(new APValueList(
-                stringToList(unescapeJavaString(stringMinusQuotes))));
+        final StringNode expr = new StringNode(
+                unescapeJavaString(stringMinusQuotes));
         nextToken();
         return expr;
     }
@@ -953,22 +1141,6 @@ public class Parser {
         return sb.toString();
     }
 
-    /**
-     * String to list.
-     *
-     * @param text
-     *            the text
-     * @return the list
-     */
-    @SuppressWarnings("rawtypes")
-    private List<ExpressionNode> stringToList(final String text) {
-        final List<ExpressionNode> list = new ArrayList<>();
-        for (final Character c : text.toCharArray()) {
-            list.add(new ConstantNode<>(new APValueChar(c)));
-        }
-        return list;
-    }
-
     /**
      * Matches function parameters.
      *
@@ -0,0 +1,385 @@
+/*
+ *
+ */
+package parser.checking;
+
+import interpreter.library.LibraryFunction;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import machine.Context;
+import machine.Context.VariableMapping;
+import machine.Effect;
+import machine.Function;
+import parser.ExpressionNode;
+import parser.ExpressionNode.AssignmentNode;
+import parser.ExpressionNode.FieldAssignmentNode;
+import parser.ExpressionNode.FunctionCallNode;
+import parser.ExpressionNode.IndexAssignmentNode;
+import parser.ExpressionNode.LambdaNode;
+import parser.ExpressionNode.MatchNode;
+import parser.ExpressionNode.VariableNode;
+import type.APValueFunction;
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class EffectAnalysis. Finds what calling each function of a program can
+ * do, and keeps it on the function, see {@link Function#getEffect()}.
+ * <p>
+ * A function is effectful if it assigns to a mutable variable it did not
+ * declare, writes to an element of a list or a field of a data structure, or
+ * calls a function that is effectful or not known, such as print or a
+ * parameter. It is read only if it reads a mutable variable it did not
+ * declare, and pure otherwise. Functions start out pure and are raised until
+ * nothing changes, so that a recursive function is as pure as its body.
+ * <p>
+ * The analysis also finds the bindings at the top of the program that give
+ * the same value whenever they are run, see {@link #canDefer(List)}.
+ */
+public final class EffectAnalysis {
+
+    /** The functions of the program. */
+    private final Map<Function, Effect> effects = new IdentityHashMap<>();
+
+    /** The functions bound once at the top of the program, by name. */
+    private final Map<String, Function> named = new HashMap<>();
+
+    /** The names bound anywhere in the program. */
+    private final Set<String> bound = new HashSet<>();
+
+    /** The names declared mutable anywhere in the program. */
+    private final Set<String> mutable = new HashSet<>();
+
+    /** Whether the program writes to an element of a list or a field. */
+    private boolean writes;
+
+    /** The context the program runs in, which holds the library. */
+    private final Context context;
+
+    /**
+     * Instantiates a new effect analysis.
+     *
+     * @param context
+     *            the context the program runs in
+     */
+    private EffectAnalysis(final Context context) {
+        this.context = context;
+    }
+
+    /**
+     * Finds the effects of the functions of a program and keeps them on the
+     * functions.
+     *
+     * @param nodes
+     *            the statements of the program
+     * @param context
+     *            the context the program runs in
+     * @return the analysis
+     */
+    public static EffectAnalysis analyze(final List<ExpressionNode> nodes,
+            final Context context) {
+        final EffectAnalysis analysis = new EffectAnalysis(context);
+        final Map<String, Integer> assignments = new HashMap<>();
+        for (final ExpressionNode node : nodes) {
+            analysis.collect(node, assignments);
+        }
+        for (final ExpressionNode node : nodes) {
+            if (node instanceof AssignmentNode
+                    && ((AssignmentNode) node).getExpression() instanceof LambdaNode) {
+                final AssignmentNode assignment = (AssignmentNode) node;
+                final String name = assignment.getVariable().getName();
+                if (!assignment.isMutable() && assignments.get(name) == 1) {
+                    analysis.named.put(name, ((LambdaNode) assignment
+                            .getExpression()).getFunction());
+                }
+            }
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (final Map.Entry<Function, Effect> entry : analysis.effects
+                    .entrySet()) {
+                final Effect effect = entry.getValue().join(
+                        analysis.effect(entry.getKey()));
+                if (effect != entry.getValue()) {
+                    entry.setValue(effect);
+                    changed = true;
+                }
+            }
+        }
+        for (final Map.Entry<Function, Effect> entry : analysis.effects
+                .entrySet()) {
+            entry.getKey().setEffect(entry.getValue());
+        }
+        return analysis;
+    }
+
+    /**
+     * Finds the statements at the top of the program that bind a variable
+     * that is not mutable to a value that is the same whenever it is found.
+     * Such a binding can be run later than it is written, or not at all: its
+     * value changes nothing, reads no mutable variable and binds no other
+     * variable.
+     * <p>
+     * A list or data structure the value reads may still be changed in place.
+     * So if the program writes to an element or a field anywhere, a binding
+     * is only deferred if every statement after it changes nothing.
+     *
+     * @param nodes
+     *            the statements of the program
+     * @return whether each statement can be deferred
+     */
+    public boolean[] canDefer(final List<ExpressionNode> nodes) {
+        final boolean[] deferred = new boolean[nodes.size()];
+        boolean changesAfter = false;
+        for (int i = nodes.size() - 1; i >= 0; i--) {
+            final ExpressionNode node = nodes.get(i);
+            deferred[i] = canDefer(node) && !(writes && changesAfter);
+            changesAfter |= !deferred[i]
+                    && effect(node, Collections.<String> emptySet())
+                            == Effect.EFFECTFUL;
+        }
+        return deferred;
+    }
+
+    /**
+     * Checks if a statement binds a variable that is not mutable to a value
+     * that is the same whenever it is found, if nothing is changed in place.
+     *
+     * @param node
+     *            the statement
+     * @return true, if the statement can be deferred
+     */
+    private boolean canDefer(final ExpressionNode node) {
+        if (!(node instanceof AssignmentNode)) {
+            return false;
+        }
+        final AssignmentNode assignment = (AssignmentNode) node;
+        return !assignment.isMutable()
+                && !mutable.contains(assignment.getVariable().getName())
+                && !bindsVariable(assignment.getExpression())
+                && effect(assignment.getExpression(),
+                        Collections.<String> emptySet()) == Effect.PURE;
+    }
+
+    /**
+     * Checks if evaluating an expression binds a variable in the context it
+     * is evaluated in.
+     *
+     * @param node
+     *            the expression
+     * @return true, if it has an assignment outside of a function
+     */
+    private static boolean bindsVariable(final ExpressionNode node) {
+        if (node instanceof AssignmentNode) {
+            return true;
+        } else if (node instanceof LambdaNode) {
+            return false;
+        }
+        final List<ExpressionNode> children = node.getChildren();
+        for (final ExpressionNode child : children) {
+            if (bindsVariable(child)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Collects the functions and the names bound in an expression.
+     *
+     * @param node
+     *            the expression
+     * @param assignments
+     *            the number of assignments to each name
+     */
+    private void collect(final ExpressionNode node,
+            final Map<String, Integer> assignments) {
+        if (node instanceof AssignmentNode) {
+            final AssignmentNode assignment = (AssignmentNode) node;
+            final String name = assignment.getVariable().getName();
+            assignments.merge(name, 1, Integer::sum);
+            bound.add(name);
+            if (assignment.isMutable()) {
+                mutable.add(name);
+            }
+        } else if (node instanceof LambdaNode) {
+            final Function function = ((LambdaNode) node).getFunction();
+            effects.put(function, Effect.PURE);
+            for (final VariableNode parameter : function.parameters) {
+                bound.add(parameter.getName());
+                // a parameter bound again is not the function it was
+                assignments.merge(parameter.getName(), 1, Integer::sum);
+            }
+            bound.addAll(((LambdaNode) node).getCaptured());
+        } else if (node instanceof MatchNode) {
+            bound.addAll(((MatchNode) node).getBoundNames());
+        } else if (node instanceof IndexAssignmentNode
+                || node instanceof FieldAssignmentNode) {
+            writes = true;
+        }
+        final List<ExpressionNode> children = node.getChildren();
+        for (final ExpressionNode child : children) {
+            collect(child, assignments);
+        }
+    }
+
+    /**
+     * Finds the effect of calling a function, given the effects found so far.
+     *
+     * @param function
+     *            the function
+     * @return the effect
+     */
+    private Effect effect(final Function function) {
+        final Set<String> locals = new HashSet<>();
+        for (final VariableNode parameter : function.parameters) {
+            locals.add(parameter.getName());
+        }
+        declared(function.body, locals);
+        return effect(function.body, locals);
+    }
+
+    /**
+     * Adds the names a function body declares mutable itself.
+     *
+     * @param node
+     *            the expression
+     * @param locals
+     *            the local names found so far
+     */
+    private static void declared(final ExpressionNode node,
+            final Set<String> locals) {
+        if (node instanceof AssignmentNode
+                && ((AssignmentNode) node).isMutable()) {
+            locals.add(((AssignmentNode) node).getVariable().getName());
+        } else if (node instanceof LambdaNode) {
+            return;
+        }
+        final List<ExpressionNode> children = node.getChildren();
+        for (final ExpressionNode child : children) {
+            declared(child, locals);
+        }
+    }
+
+    /**
+     * Finds the effect of evaluating an expression in a function.
+     *
+     * @param node
+     *            the expression
+     * @param locals
+     *            the parameters and the names the function declares mutable
+     * @return the effect
+     */
+    private Effect effect(final ExpressionNode node, final Set<String> locals) {
+        if (node instanceof LambdaNode) {
+            // making a function does not run it, but reads what it captures
+            for (final String name : ((LambdaNode) node).getCaptured()) {
+                if (mutable.contains(name) && !locals.contains(name)) {
+                    return Effect.READ_ONLY;
+                }
+            }
+            return Effect.PURE;
+        } else if (node instanceof IndexAssignmentNode
+                || node instanceof FieldAssignmentNode) {
+            return Effect.EFFECTFUL;
+        } else if (node instanceof AssignmentNode) {
+            final String name = ((AssignmentNode) node).getVariable()
+                    .getName();
+            if (mutable.contains(name) && !locals.contains(name)) {
+                return Effect.EFFECTFUL;
+            }
+        } else if (node instanceof VariableNode) {
+            final String name = ((VariableNode) node).getName();
+            return mutable.contains(name) && !locals.contains(name) ? Effect.READ_ONLY
+                    : Effect.PURE;
+        }
+        Effect effect = Effect.PURE;
+        if (node instanceof FunctionCallNode) {
+            effect = call((FunctionCallNode) node, locals);
+        }
+        final List<ExpressionNode> children = node.getChildren();
+        for (final ExpressionNode child : children) {
+            effect = effect.join(effect(child, locals));
+        }
+        return effect;
+    }
+
+    /**
+     * Finds the effect of the function a call runs, not counting its
+     * arguments.
+     *
+     * @param call
+     *            the call
+     * @param locals
+     *            the local names of the function the call is in
+     * @return the effect
+     */
+    private Effect call(final FunctionCallNode call, final Set<String> locals) {
+        if (!(call.getChildren().get(0) instanceof VariableNode)) {
+            return Effect.EFFECTFUL;
+        }
+        final String name = ((VariableNode) call.getChildren().get(0))
+                .getName();
+        final Function library = library(name, locals);
+        if (library == null) {
+            return function(call.getChildren().get(0), locals);
+        }
+        final int called = LibraryFunction.getCalledArgument(name);
+        final List<ExpressionNode> arguments = call.getParameters();
+        if (called < 0) {
+            return library.getEffect();
+        } else if (called >= arguments.size()) {
+            return Effect.EFFECTFUL;
+        }
+        return library.getEffect().join(
+                function(arguments.get(called), locals));
+    }
+
+    /**
+     * Finds the effect of calling the function an expression gives.
+     *
+     * @param node
+     *            the expression
+     * @param locals
+     *            the local names of the function the expression is in
+     * @return the effect, which is effectful if the function is not known
+     */
+    private Effect function(final ExpressionNode node, final Set<String> locals) {
+        Function function = null;
+        if (node instanceof LambdaNode) {
+            function = ((LambdaNode) node).getFunction();
+        } else if (node instanceof VariableNode
+                && !locals.contains(((VariableNode) node).getName())) {
+            function = named.get(((VariableNode) node).getName());
+        }
+        return function == null ? Effect.EFFECTFUL : effects.get(function);
+    }
+
+    /**
+     * Finds the library function a name gives.
+     *
+     * @param name
+     *            the name
+     * @param locals
+     *            the local names of the function the name is read in
+     * @return the library function, or null if the name is bound by the
+     *         program or is not a function
+     */
+    private Function library(final String name, final Set<String> locals) {
+        if (bound.contains(name) || locals.contains(name)) {
+            return null;
+        }
+        final VariableMapping mapping = context.getVariables().get(name);
+        if (mapping == null || !(mapping.variable instanceof APValueFunction)) {
+            return null;
+        }
+        return ((APValueFunction) mapping.variable).getValue();
+    }
+}
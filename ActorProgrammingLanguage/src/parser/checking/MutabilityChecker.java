@@ -0,0 +1,261 @@
+/*
+ *
+ */
+package parser.checking;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import machine.Context;
+import machine.Context.VariableMapping;
+import machine.Function;
+import parser.ExpressionNode;
+import parser.ExpressionNode.AssignmentNode;
+import parser.ExpressionNode.IfNode;
+import parser.ExpressionNode.LambdaNode;
+import parser.ExpressionNode.MatchNode;
+import parser.ExpressionNode.VariableNode;
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class MutabilityChecker. Finds assignments that change a variable that
+ * is not mutable before the program runs, and marks the assignments that can
+ * never do so, see {@link AssignmentNode#isChecked()}. A marked assignment
+ * stores its value without looking at the variable it replaces.
+ * <p>
+ * The variables bound at the top of the program are known from the context it
+ * is parsed in and the statements before. A function body is run in a copy of
+ * its caller's context, so only its parameters, its captured variables and
+ * the variables it binds itself are known there. A match case that binds
+ * fields is also run in a copy, so what it binds is not kept after it. After
+ * an if or match expression, a variable bound differently by its branches is
+ * no longer known. An assignment to a variable that is not known is checked when it
+ * runs, as before.
+ * <p>
+ * Only an assignment that always runs is rejected. An assignment to a variable
+ * that is not mutable in a branch or a function body may never run, so it is
+ * left to be checked when it runs.
+ */
+public final class MutabilityChecker {
+
+    /**
+     * The Enum Binding. What is known about a variable at a point of the
+     * program.
+     */
+    private enum Binding {
+
+        /** Not bound. */
+        UNBOUND,
+
+        /** Bound as mutable. */
+        MUTABLE,
+
+        /** Bound as not mutable. */
+        IMMUTABLE,
+
+        /** Not known. */
+        UNKNOWN
+    }
+
+    /** The known variables. */
+    private final Map<String, Binding> bindings;
+
+    /**
+     * Whether every variable bound is known, so that a variable that is not
+     * in {@link #bindings} is not bound.
+     */
+    private final boolean complete;
+
+    /** Whether the checked code may not run, as in a branch or a function. */
+    private final boolean conditional;
+
+    /**
+     * Instantiates a new mutability checker.
+     *
+     * @param bindings
+     *            the known variables
+     * @param complete
+     *            whether every variable bound is known
+     * @param conditional
+     *            whether the checked code may not run
+     */
+    private MutabilityChecker(final Map<String, Binding> bindings,
+            final boolean complete, final boolean conditional) {
+        this.bindings = bindings;
+        this.complete = complete;
+        this.conditional = conditional;
+    }
+
+    /**
+     * Checks the assignments of a program.
+     *
+     * @param nodes
+     *            the statements of the program
+     * @param context
+     *            the context the program is run in
+     * @throws CompilerException
+     *             if an assignment always changes a variable that is not
+     *             mutable
+     */
+    public static void check(final List<ExpressionNode> nodes,
+            final Context context) throws CompilerException {
+        final Map<String, Binding> bindings = new HashMap<>();
+        for (final Map.Entry<String, VariableMapping> entry : context
+                .getVariables().entrySet()) {
+            bindings.put(entry.getKey(),
+                    entry.getValue().isMutable ? Binding.MUTABLE
+                            : Binding.IMMUTABLE);
+        }
+        final MutabilityChecker checker = new MutabilityChecker(bindings, true,
+                false);
+        for (final ExpressionNode node : nodes) {
+            checker.visit(node);
+        }
+    }
+
+    /**
+     * Gets what is known about a variable.
+     *
+     * @param name
+     *            the name of the variable
+     * @return the binding
+     */
+    private Binding get(final String name) {
+        final Binding binding = bindings.get(name);
+        if (binding != null) {
+            return binding;
+        }
+        return complete ? Binding.UNBOUND : Binding.UNKNOWN;
+    }
+
+    /**
+     * Makes a checker for a branch that starts with what is known here.
+     *
+     * @return the checker
+     */
+    private MutabilityChecker branch() {
+        return new MutabilityChecker(new HashMap<>(bindings), complete, true);
+    }
+
+    /**
+     * Checks the assignments in an expression, in the order they run.
+     *
+     * @param node
+     *            the expression
+     * @throws CompilerException
+     *             if an assignment always changes a variable that is not
+     *             mutable
+     */
+    private void visit(final ExpressionNode node) throws CompilerException {
+        if (node instanceof AssignmentNode) {
+            assign((AssignmentNode) node);
+        } else if (node instanceof LambdaNode) {
+            function(((LambdaNode) node).getFunction(),
+                    ((LambdaNode) node).getCaptured());
+        } else if (node instanceof IfNode || node instanceof MatchNode) {
+            // the first child always runs, and then one of the others
+            final List<ExpressionNode> children = node.getChildren();
+            visit(children.get(0));
+            final MutabilityChecker[] branches = new MutabilityChecker[children
+                    .size() - 1];
+            for (int i = 1; i < children.size(); i++) {
+                branches[i - 1] = branch();
+                if (node instanceof MatchNode
+                        && ((MatchNode) node).bindsFields(children.get(i))) {
+                    // the case runs in a copy of the context, so what it
+                    // binds is thrown away and the context is left as it was
+                    final MutabilityChecker scoped = branch();
+                    for (final String name : ((MatchNode) node)
+                            .getBoundNames()) {
+                        scoped.bindings.put(name, Binding.UNKNOWN);
+                    }
+                    scoped.visit(children.get(i));
+                } else {
+                    branches[i - 1].visit(children.get(i));
+                }
+            }
+            merge(branches);
+        } else {
+            final List<ExpressionNode> children = node.getChildren();
+            for (final ExpressionNode child : children) {
+                visit(child);
+            }
+        }
+    }
+
+    /**
+     * Checks an assignment.
+     *
+     * @param assignment
+     *            the assignment
+     * @throws CompilerException
+     *             if it always changes a variable that is not mutable
+     */
+    private void assign(final AssignmentNode assignment)
+            throws CompilerException {
+        visit(assignment.getExpression());
+        final String name = assignment.getVariable().getName();
+        final Binding binding = get(name);
+        if (binding == Binding.IMMUTABLE && !conditional) {
+            throw new CompilerException(
+                    "Can't change the value of non mutable function " + name);
+        }
+        if (binding != Binding.UNKNOWN && binding != Binding.IMMUTABLE) {
+            assignment.markChecked();
+        }
+        bindings.put(name, assignment.isMutable() ? Binding.MUTABLE
+                : Binding.IMMUTABLE);
+    }
+
+    /**
+     * Checks the body of a function, which runs in its own context.
+     *
+     * @param function
+     *            the function
+     * @param captured
+     *            the names of the variables it captures
+     * @throws CompilerException
+     *             if an assignment always changes a variable that is not
+     *             mutable
+     */
+    private static void function(final Function function,
+            final List<String> captured) throws CompilerException {
+        final Map<String, Binding> bindings = new HashMap<>();
+        // parameters and captured variables are bound as mutable
+        for (final VariableNode parameter : function.parameters) {
+            bindings.put(parameter.getName(), Binding.MUTABLE);
+        }
+        for (final String name : captured) {
+            bindings.put(name, Binding.MUTABLE);
+        }
+        new MutabilityChecker(bindings, false, true).visit(function.body);
+    }
+
+    /**
+     * Keeps what is known after all of the branches of an expression. A
+     * variable bound differently by two branches is no longer known.
+     *
+     * @param branches
+     *            the checkers of the branches
+     */
+    private void merge(final MutabilityChecker[] branches) {
+        final Set<String> names = new HashSet<>();
+        for (final MutabilityChecker branch : branches) {
+            names.addAll(branch.bindings.keySet());
+        }
+        for (final String name : names) {
+            Binding merged = null;
+            for (final MutabilityChecker branch : branches) {
+                final Binding binding = branch.get(name);
+                merged = merged == null || merged == binding ? binding
+                        : Binding.UNKNOWN;
+            }
+            if (merged != get(name)) {
+                bindings.put(name, merged);
+            }
+        }
+    }
+}
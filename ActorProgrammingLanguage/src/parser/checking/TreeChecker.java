@@ -5,6 +5,7 @@ package parser.checking;
 
 import java.util.List;
 
+import machine.Context;
 import parser.ExpressionNode;
 
 // TODO: Auto-generated Javadoc
@@ -18,11 +19,13 @@ public class TreeChecker {
      *
      * @param nodes
      *            the nodes
+     * @param context
+     *            the context the nodes are run in
      * @throws CompilerException
      *             the compiler exception
      */
-    public static void checkTree(final List<ExpressionNode> nodes)
-            throws CompilerException {
-
+    public static void checkTree(final List<ExpressionNode> nodes,
+            final Context context) throws CompilerException {
+        MutabilityChecker.check(nodes, context);
     }
 }
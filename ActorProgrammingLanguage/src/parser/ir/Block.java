@@ -0,0 +1,264 @@
+/*
+ *
+ */
+package parser.ir;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+import parser.ExpressionNode;
+import parser.ExpressionNode.SequenceNode;
+import parser.ir.Value.Temp;
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class Block. A list of instructions and the value they give. A
+ * temporary is only used in the block that defines it, after its definition,
+ * and at most once. An instruction whose temporary is not used is a
+ * statement, run for its effect.
+ */
+public final class Block {
+
+    /** The instructions. */
+    final List<Instruction> instructions = new ArrayList<>();
+
+    /** The value of the block. */
+    Value result;
+
+    /**
+     * Instantiates a new empty block.
+     */
+    Block() {
+    }
+
+    /**
+     * Gets the instructions.
+     *
+     * @return the instructions
+     */
+    public List<Instruction> getInstructions() {
+        return instructions;
+    }
+
+    /**
+     * Gets the value of the block.
+     *
+     * @return the value
+     */
+    public Value getResult() {
+        return result;
+    }
+
+    /**
+     * Adds an instruction.
+     *
+     * @param instruction
+     *            the instruction
+     * @return the temporary it defines
+     */
+    Temp add(final Instruction instruction) {
+        instructions.add(instruction);
+        return instruction.result;
+    }
+
+    /**
+     * Finds the instruction that defines a temporary.
+     *
+     * @param temp
+     *            the temporary
+     * @return the instruction, or null if it is not defined in this block
+     */
+    public Instruction definition(final Temp temp) {
+        for (final Instruction instruction : instructions) {
+            if (instruction.result == temp) {
+                return instruction;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks if a temporary is used in this block.
+     *
+     * @param temp
+     *            the temporary
+     * @return true, if used
+     */
+    public boolean uses(final Temp temp) {
+        if (result == temp) {
+            return true;
+        }
+        for (final Instruction instruction : instructions) {
+            if (instruction.getOperands().contains(temp)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Replaces the use of a temporary with another value.
+     *
+     * @param temp
+     *            the temporary
+     * @param value
+     *            the value
+     */
+    void replace(final Temp temp, final Value value) {
+        if (result == temp) {
+            result = value;
+        }
+        for (final Instruction instruction : instructions) {
+            for (int i = 0; i < instruction.getOperands().size(); i++) {
+                if (instruction.getOperand(i) == temp) {
+                    instruction.setOperand(i, value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes a copy of this block with new temporaries.
+     *
+     * @param program
+     *            the program the temporaries are made by
+     * @param substitution
+     *            maps the constants and variable reads of this block to the
+     *            values of the copy
+     * @return the copy
+     */
+    Block copy(final Program program, final UnaryOperator<Value> substitution) {
+        return copy(program, substitution, new IdentityHashMap<>());
+    }
+
+    /**
+     * Makes a copy of this block with new temporaries.
+     *
+     * @param program
+     *            the program the temporaries are made by
+     * @param substitution
+     *            maps the constants and variable reads of this block to the
+     *            values of the copy
+     * @param temps
+     *            the temporaries of the copy by the temporaries of this block
+     * @return the copy
+     */
+    private Block copy(final Program program,
+            final UnaryOperator<Value> substitution, final Map<Temp, Temp> temps) {
+        final Block copy = new Block();
+        for (final Instruction instruction : instructions) {
+            final List<Value> operands = instruction.getOperands();
+            final Value[] newOperands = new Value[operands.size()];
+            for (int i = 0; i < newOperands.length; i++) {
+                newOperands[i] = copyValue(operands.get(i), substitution,
+                        temps);
+            }
+            final List<Block> blocks = instruction.getBlocks();
+            final Block[] newBlocks = new Block[blocks.size()];
+            for (int i = 0; i < newBlocks.length; i++) {
+                newBlocks[i] = blocks.get(i).copy(program, substitution, temps);
+            }
+            final Temp newResult = program.newTemp();
+            temps.put(instruction.result, newResult);
+            copy.add(instruction.copy(newResult, newOperands, newBlocks));
+        }
+        copy.result = copyValue(result, substitution, temps);
+        return copy;
+    }
+
+    /**
+     * Copies a value.
+     *
+     * @param value
+     *            the value
+     * @param substitution
+     *            maps constants and variable reads to new values
+     * @param temps
+     *            the new temporaries by the old ones
+     * @return the new value
+     */
+    private static Value copyValue(final Value value,
+            final UnaryOperator<Value> substitution, final Map<Temp, Temp> temps) {
+        if (value instanceof Temp) {
+            return temps.get(value);
+        }
+        return substitution.apply(value);
+    }
+
+    /**
+     * Raises this block to an expression. The statements of the block, if
+     * any, become a sequence.
+     *
+     * @return the expression
+     */
+    ExpressionNode raise() {
+        final List<ExpressionNode> statements = raiseStatements();
+        final int last = statements.size() - 1;
+        if (last == 0) {
+            return statements.get(0);
+        }
+        return new SequenceNode(new ArrayList<>(statements.subList(0, last)),
+                statements.get(last));
+    }
+
+    /**
+     * Raises this block to its statements followed by its value.
+     *
+     * @return the expressions
+     */
+    List<ExpressionNode> raiseStatements() {
+        final Map<Temp, ExpressionNode> pending = new LinkedHashMap<>();
+        for (final Instruction instruction : instructions) {
+            final List<ExpressionNode> operands = new ArrayList<>();
+            for (final Value operand : instruction.getOperands()) {
+                operands.add(raise(operand, pending));
+            }
+            pending.put(instruction.result, instruction.raise(operands));
+        }
+        final ExpressionNode value = raise(result, pending);
+        final List<ExpressionNode> statements = new ArrayList<>(
+                pending.values());
+        statements.add(value);
+        return statements;
+    }
+
+    /**
+     * Raises a value.
+     *
+     * @param value
+     *            the value
+     * @param pending
+     *            the raised instructions whose temporaries are not used yet
+     * @return the expression
+     */
+    private static ExpressionNode raise(final Value value,
+            final Map<Temp, ExpressionNode> pending) {
+        if (!(value instanceof Temp)) {
+            return value.raise();
+        }
+        final ExpressionNode node = pending.remove(value);
+        if (node == null) {
+            throw new IllegalStateException("Temporary " + value
+                    + " is used twice or before it is defined");
+        }
+        return node;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        final StringBuilder b = new StringBuilder();
+        for (final Instruction instruction : instructions) {
+            b.append(instruction).append('\n');
+        }
+        return b.append("return ").append(result).toString();
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ *
+ */
+package parser.ir;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import parser.ir.Instruction.Binary;
+import parser.ir.Instruction.If;
+import parser.ir.Instruction.Lambda;
+import parser.ir.Instruction.Store;
+import parser.ir.Value.Constant;
+import parser.ir.Value.Variable;
+import type.APValue;
+import type.APValueBool;
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class ConstantPropagation. Folds operators on constants, replaces if
+ * expressions on a constant condition with the branch taken, and replaces the
+ * reads of variables that a statement set to a constant.
+ * <p>
+ * A variable is only replaced outside of functions, where no parameter can
+ * hide it. Since it is not mutable, every later statement that runs sees the
+ * constant. A mutable variable is replaced the same way if it is never
+ * assigned again. An operator that fails on its constants is left to fail
+ * when the program runs.
+ */
+public final class ConstantPropagation implements Pass {
+
+    /** The name of the pass. */
+    public static final String NAME = "constant-propagation";
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see parser.ir.Pass#getName()
+     */
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see parser.ir.Pass#run(parser.ir.Program)
+     */
+    @Override
+    public void run(final Program program) {
+        final Map<String, Constant> constants = new HashMap<>();
+        final Set<String> reassigned = reassigned(program);
+        for (final Block block : program.getStatements()) {
+            propagate(block, constants);
+            for (final Instruction instruction : block.instructions) {
+                if (!(instruction instanceof Store)) {
+                    continue;
+                }
+                final Store store = (Store) instruction;
+                final Value value = store.getOperand(0);
+                if ((!store.mutable || !reassigned.contains(store.variable
+                        .getName())) && value instanceof Constant
+                        && ((Constant) value).isImmutable()) {
+                    constants.put(store.variable.getName(), (Constant) value);
+                } else {
+                    constants.remove(store.variable.getName());
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the variables that may be assigned more than once: those stored
+     * by more than one statement, or bound anywhere else in the program.
+     *
+     * @param program
+     *            the program
+     * @return the names of the variables
+     */
+    private static Set<String> reassigned(final Program program) {
+        final Set<String> reassigned = program.getInnerBinders();
+        final Set<String> stored = new HashSet<>();
+        for (final Block block : program.getStatements()) {
+            for (final Instruction instruction : block.instructions) {
+                if (instruction instanceof Store
+                        && !stored.add(((Store) instruction).variable
+                                .getName())) {
+                    reassigned.add(((Store) instruction).variable.getName());
+                }
+            }
+        }
+        return reassigned;
+    }
+
+    /**
+     * Propagates constants through a block and the blocks nested in it.
+     *
+     * @param block
+     *            the block
+     * @param constants
+     *            the constant variables, or an empty map inside a function
+     */
+    private static void propagate(final Block block,
+            final Map<String, Constant> constants) {
+        final List<Instruction> instructions = block.instructions;
+        for (int i = 0; i < instructions.size(); i++) {
+            final Instruction instruction = instructions.get(i);
+            for (int j = 0; j < instruction.getOperands().size(); j++) {
+                instruction.setOperand(j,
+                        substitute(instruction.getOperand(j), constants));
+            }
+            if (instruction instanceof Binary) {
+                final APValue folded = fold((Binary) instruction);
+                if (folded != null) {
+                    instructions.remove(i--);
+                    block.replace(instruction.result, new Constant(folded,
+                            null));
+                    continue;
+                }
+            } else if (instruction instanceof If) {
+                final If branch = (If) instruction;
+                final Value condition = branch.getOperand(0);
+                if (condition instanceof Constant
+                        && ((Constant) condition).value instanceof APValueBool) {
+                    final Block taken = (Boolean) ((Constant) condition).value
+                            .getValue() ? branch.then : branch.otherwise;
+                    instructions.remove(i);
+                    instructions.addAll(i, taken.instructions);
+                    block.replace(branch.result, taken.result);
+                    // the instructions of the branch are propagated next
+                    i--;
+                    continue;
+                }
+            }
+            for (final Block nested : instruction.getBlocks()) {
+                propagate(nested, instruction instanceof Lambda ? new HashMap<>()
+                        : constants);
+            }
+        }
+        block.result = substitute(block.result, constants);
+    }
+
+    /**
+     * Replaces a read of a constant variable with the constant.
+     *
+     * @param value
+     *            the value
+     * @param constants
+     *            the constant variables
+     * @return the value, or its constant
+     */
+    private static Value substitute(final Value value,
+            final Map<String, Constant> constants) {
+        if (value instanceof Variable) {
+            final Constant constant = constants.get(((Variable) value).name);
+            if (constant != null) {
+                return constant;
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Folds an operator on two constants.
+     *
+     * @param binary
+     *            the operator
+     * @return the value, or null if it can not be folded
+     */
+    private static APValue fold(final Binary binary) {
+        final Value left = binary.getOperand(0);
+        final Value right = binary.getOperand(1);
+        if (!(left instanceof Constant) || !((Constant) left).isImmutable()
+                || !(right instanceof Constant)
+                || !((Constant) right).isImmutable()) {
+            return null;
+        }
+        try {
+            return ((Constant) left).value.callMethod(binary.operator,
+                    ((Constant) right).value);
+        } catch (final RuntimeException e) {
+            // the program fails here when it runs
+            return null;
+        }
+    }
+}
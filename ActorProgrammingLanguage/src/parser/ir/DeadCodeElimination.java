@@ -0,0 +1,79 @@
+/*
+ *
+ */
+package parser.ir;
+
+import java.util.List;
+import java.util.Set;
+
+import parser.ir.Value.Variable;
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class DeadCodeElimination. Removes instructions whose value is not used
+ * and which have no effect, such as a list that is made and thrown away.
+ * <p>
+ * An instruction is removed only if it is pure and every variable it reads is
+ * known to be defined, so that removing it can not hide an error. The
+ * instructions that gave its temporaries are kept as statements unless they
+ * are removed as well.
+ */
+public final class DeadCodeElimination implements Pass {
+
+    /** The name of the pass. */
+    public static final String NAME = "dead-code-elimination";
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see parser.ir.Pass#getName()
+     */
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see parser.ir.Pass#run(parser.ir.Program)
+     */
+    @Override
+    public void run(final Program program) {
+        program.walk((block, statement, defined) -> {
+            final List<Instruction> instructions = block.instructions;
+            // removing an instruction can leave the ones before it unused
+            for (int i = instructions.size() - 1; i >= 0; i--) {
+                final Instruction instruction = instructions.get(i);
+                if (isDead(block, instruction, defined)) {
+                    instructions.remove(i);
+                }
+            }
+        });
+    }
+
+    /**
+     * Checks if an instruction can be removed.
+     *
+     * @param block
+     *            the block of the instruction
+     * @param instruction
+     *            the instruction
+     * @param defined
+     *            the variables known to be defined
+     * @return true, if the instruction is pure and its value is not used
+     */
+    private static boolean isDead(final Block block,
+            final Instruction instruction, final Set<String> defined) {
+        if (!instruction.isPure() || block.uses(instruction.result)) {
+            return false;
+        }
+        for (final Value operand : instruction.getOperands()) {
+            if (operand instanceof Variable
+                    && !defined.contains(((Variable) operand).name)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ *
+ */
+package parser.ir;
+
+import java.util.List;
+import java.util.Set;
+
+import parser.ir.Instruction.Field;
+import parser.ir.Instruction.Index;
+import parser.ir.Instruction.ListLiteral;
+import parser.ir.Instruction.New;
+import parser.ir.Value.Constant;
+import parser.ir.Value.Temp;
+import parser.ir.Value.Variable;
+import type.APNumber;
+import type.APValueNum;
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class EscapeAnalysis. Removes data structures and lists that are made
+ * only to have one of their values read, such as "[1, 2, 3]{1}", replacing
+ * the read with the value.
+ * <p>
+ * Since a temporary is used once, a structure whose temporary is read by a
+ * field or index instruction does not escape. It is removed if the value read
+ * is a constant and making it had no other effect: its other values are
+ * constants or variables known to be defined.
+ */
+public final class EscapeAnalysis implements Pass {
+
+    /** The name of the pass. */
+    public static final String NAME = "escape-analysis";
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see parser.ir.Pass#getName()
+     */
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see parser.ir.Pass#run(parser.ir.Program)
+     */
+    @Override
+    public void run(final Program program) {
+        program.walk((block, statement, defined) -> {
+            final List<Instruction> instructions = block.instructions;
+            for (int i = 0; i < instructions.size(); i++) {
+                final Instruction read = instructions.get(i);
+                if (!(read instanceof Field) && !(read instanceof Index)
+                        || !(read.getOperand(0) instanceof Temp)) {
+                    continue;
+                }
+                final Instruction made = block.definition((Temp) read
+                        .getOperand(0));
+                final int slot = slot(read, made);
+                if (slot < 0 || !isConstant(made.getOperand(slot))
+                        || !hasNoEffect(made, defined)) {
+                    continue;
+                }
+                block.replace(read.result, made.getOperand(slot));
+                instructions.remove(i);
+                instructions.remove(made);
+                i -= 2;
+            }
+        });
+    }
+
+    /**
+     * Finds the value of a structure that an instruction reads.
+     *
+     * @param read
+     *            the field or index instruction
+     * @param made
+     *            the instruction that made the structure
+     * @return the index of the operand read, or -1 if it is not known
+     */
+    private static int slot(final Instruction read, final Instruction made) {
+        if (read instanceof Field && made instanceof New) {
+            return ((New) made).constructor.slotOf(((Field) read).field
+                    .getName());
+        }
+        if (read instanceof Index && made instanceof ListLiteral
+                && read.getOperand(1) instanceof Constant) {
+            final Constant index = (Constant) read.getOperand(1);
+            if (!(index.value instanceof APValueNum)) {
+                return -1;
+            }
+            // the same conversion as the index expression
+            final int slot = ((APNumber) index.value.getValue())
+                    .intValueExact();
+            return slot < made.getOperands().size() ? slot : -1;
+        }
+        return -1;
+    }
+
+    /**
+     * Checks if a value is a constant that can be copied.
+     *
+     * @param value
+     *            the value
+     * @return true, if an immutable constant
+     */
+    private static boolean isConstant(final Value value) {
+        return value instanceof Constant && ((Constant) value).isImmutable();
+    }
+
+    /**
+     * Checks that making a structure has no effect other than making it.
+     *
+     * @param made
+     *            the instruction that made the structure
+     * @param defined
+     *            the variables known to be defined
+     * @return true, if every value is a constant or a defined variable
+     */
+    private static boolean hasNoEffect(final Instruction made,
+            final Set<String> defined) {
+        for (final Value value : made.getOperands()) {
+            if (!(value instanceof Constant)
+                    && !(value instanceof Variable && defined
+                            .contains(((Variable) value).name))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ *
+ */
+package parser.ir;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import parser.ExpressionNode.VariableNode;
+import parser.ir.Instruction.Binary;
+import parser.ir.Instruction.Call;
+import parser.ir.Instruction.If;
+import parser.ir.Instruction.Lambda;
+import parser.ir.Instruction.Store;
+import parser.ir.Value.Constant;
+import parser.ir.Value.Temp;
+import parser.ir.Value.Variable;
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class Inlining. Replaces calls of small functions with their bodies.
+ * <p>
+ * A function is inlined if its body only reads its parameters and is made of
+ * operators and if expressions, so that it runs the same in the caller's
+ * scope. It must be a lambda called where it is made, or a lambda stored by a
+ * statement to a name that nothing else binds, called by a later statement.
+ * The arguments must be constants or variables known to be defined, since an
+ * argument may be read any number of times by the body.
+ */
+public final class Inlining implements Pass {
+
+    /** The name of the pass. */
+    public static final String NAME = "inlining";
+
+    /** The most instructions a function may have to be inlined. */
+    private static final int MAX_SIZE = 16;
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see parser.ir.Pass#getName()
+     */
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see parser.ir.Pass#run(parser.ir.Program)
+     */
+    @Override
+    public void run(final Program program) {
+        final Map<String, Lambda> functions = new HashMap<>();
+        final Map<String, Integer> definedIn = new HashMap<>();
+        final Map<String, Integer> stores = new HashMap<>();
+        final Set<String> binders = program.getInnerBinders();
+        final List<Block> statements = program.getStatements();
+        for (int i = 0; i < statements.size(); i++) {
+            final Block block = statements.get(i);
+            for (final Instruction instruction : block.instructions) {
+                if (!(instruction instanceof Store)) {
+                    continue;
+                }
+                final Store store = (Store) instruction;
+                final String name = store.variable.getName();
+                stores.merge(name, 1, Integer::sum);
+                final Lambda lambda = lambda(block, store.getOperand(0));
+                if (!store.mutable && lambda != null && isInlinable(lambda)) {
+                    functions.put(name, lambda);
+                    definedIn.put(name, i);
+                }
+            }
+        }
+        functions.keySet().removeIf(name -> stores.get(name) != 1
+                || binders.contains(name));
+        program.walk((block, statement, defined) -> {
+            final List<Instruction> instructions = block.instructions;
+            for (int i = 0; i < instructions.size(); i++) {
+                if (!(instructions.get(i) instanceof Call)) {
+                    continue;
+                }
+                final Call call = (Call) instructions.get(i);
+                final Value callee = call.getOperand(0);
+                Lambda lambda = null;
+                if (callee instanceof Variable) {
+                    final String name = ((Variable) callee).name;
+                    if (functions.containsKey(name)
+                            && definedIn.get(name) < statement) {
+                        lambda = functions.get(name);
+                    }
+                } else {
+                    lambda = lambda(block, callee);
+                    if (lambda != null && !isInlinable(lambda)) {
+                        lambda = null;
+                    }
+                }
+                if (lambda != null && canPass(call, lambda, defined)) {
+                    if (callee instanceof Temp) {
+                        // the lambda is only made to be called here
+                        final int at = instructions.indexOf(lambda);
+                        instructions.remove(at);
+                        i--;
+                    }
+                    inline(program, block, i, call, lambda);
+                }
+            }
+        });
+    }
+
+    /**
+     * Finds the lambda instruction that defines a value.
+     *
+     * @param block
+     *            the block of the value
+     * @param value
+     *            the value
+     * @return the lambda, or null if the value is not a lambda of the block
+     */
+    private static Lambda lambda(final Block block, final Value value) {
+        if (!(value instanceof Temp)) {
+            return null;
+        }
+        final Instruction definition = block.definition((Temp) value);
+        return definition instanceof Lambda ? (Lambda) definition : null;
+    }
+
+    /**
+     * Checks if a function can be inlined wherever it is called.
+     *
+     * @param lambda
+     *            the function
+     * @return true, if inlinable
+     */
+    private static boolean isInlinable(final Lambda lambda) {
+        if (!lambda.captured.isEmpty()) {
+            return false;
+        }
+        final Map<String, Boolean> parameters = new HashMap<>();
+        for (final VariableNode parameter : lambda.function.parameters) {
+            parameters.put(parameter.getName(), true);
+        }
+        return size(lambda.body, parameters) <= MAX_SIZE;
+    }
+
+    /**
+     * Counts the instructions of a simple block.
+     *
+     * @param block
+     *            the block
+     * @param parameters
+     *            the parameters of the function
+     * @return the number of instructions, or more than {@link #MAX_SIZE} if
+     *         the block is not simple
+     */
+    private static int size(final Block block,
+            final Map<String, Boolean> parameters) {
+        if (!readsOnly(block.result, parameters)) {
+            return MAX_SIZE + 1;
+        }
+        int size = 0;
+        for (final Instruction instruction : block.instructions) {
+            if (!(instruction instanceof Binary)
+                    && !(instruction instanceof If)) {
+                return MAX_SIZE + 1;
+            }
+            for (final Value operand : instruction.getOperands()) {
+                if (!readsOnly(operand, parameters)) {
+                    return MAX_SIZE + 1;
+                }
+            }
+            size++;
+            for (final Block nested : instruction.getBlocks()) {
+                size += size(nested, parameters);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Checks that a value reads no variable other than a parameter.
+     *
+     * @param value
+     *            the value
+     * @param parameters
+     *            the parameters
+     * @return true, if the value reads only parameters
+     */
+    private static boolean readsOnly(final Value value,
+            final Map<String, Boolean> parameters) {
+        return !(value instanceof Variable)
+                || parameters.containsKey(((Variable) value).name);
+    }
+
+    /**
+     * Checks that the arguments of a call can be passed into the body.
+     *
+     * @param call
+     *            the call
+     * @param lambda
+     *            the function
+     * @param defined
+     *            the variables known to be defined at the call
+     * @return true, if every argument can be read any number of times
+     */
+    private static boolean canPass(final Call call, final Lambda lambda,
+            final Set<String> defined) {
+        if (call.getArity() != lambda.function.parameters.size()) {
+            // the call fails when the program runs
+            return false;
+        }
+        for (int i = 1; i < call.getOperands().size(); i++) {
+            final Value argument = call.getOperand(i);
+            if (!(argument instanceof Constant)
+                    && !(argument instanceof Variable && defined
+                            .contains(((Variable) argument).name))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Replaces a call with a copy of the body of the function.
+     *
+     * @param program
+     *            the program
+     * @param block
+     *            the block of the call
+     * @param index
+     *            the index of the call in the block
+     * @param call
+     *            the call
+     * @param lambda
+     *            the function
+     */
+    private static void inline(final Program program, final Block block,
+            final int index, final Call call, final Lambda lambda) {
+        final Map<String, Value> arguments = new HashMap<>();
+        for (int i = 0; i < lambda.function.parameters.size(); i++) {
+            arguments.put(lambda.function.parameters.get(i).getName(),
+                    call.getOperand(i + 1));
+        }
+        final Block body = lambda.body.copy(program,
+                value -> value instanceof Variable ? arguments
+                        .get(((Variable) value).name) : value);
+        block.instructions.remove(index);
+        block.instructions.addAll(index, body.instructions);
+        block.replace(call.result, body.result);
+    }
+}
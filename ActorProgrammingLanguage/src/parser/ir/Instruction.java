@@ -0,0 +1,1084 @@
+/*
+ *
+ */
+package parser.ir;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import machine.DataConstructor;
+import machine.Function;
+import machine.TypeRegistry;
+import parser.ExpressionNode;
+import parser.ExpressionNode.AdditionNode;
+import parser.ExpressionNode.AndNode;
+import parser.ExpressionNode.AssignmentNode;
+import parser.ExpressionNode.DivisionNode;
+import parser.ExpressionNode.EqualNode;
+import parser.ExpressionNode.ExponentiationNode;
+import parser.ExpressionNode.FieldAccessNode;
+import parser.ExpressionNode.FunctionCallNode;
+import parser.ExpressionNode.GreaterThanEqualNode;
+import parser.ExpressionNode.GreaterThanNode;
+import parser.ExpressionNode.IfNode;
+import parser.ExpressionNode.LambdaNode;
+import parser.ExpressionNode.LessThanEqualNode;
+import parser.ExpressionNode.LessThanNode;
+import parser.ExpressionNode.ListIndexNode;
+import parser.ExpressionNode.ListNode;
+import parser.ExpressionNode.ModNode;
+import parser.ExpressionNode.MultiplicationNode;
+import parser.ExpressionNode.NewNode;
+import parser.ExpressionNode.OrNode;
+import parser.ExpressionNode.SequenceNode;
+import parser.ExpressionNode.SubtractionNode;
+import parser.ExpressionNode.VariableNode;
+import parser.ir.Value.Temp;
+import type.APValue.Operators;
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class Instruction. Defines a temporary from its operands. Operands are
+ * evaluated before the instruction, so the instructions of a block run in the
+ * order they are listed. If expressions, sequences and lambdas keep the code
+ * they run in nested blocks.
+ * <p>
+ * An instruction remembers the expression it was lowered from, so that an
+ * instruction whose operands did not change is raised back to that very
+ * expression.
+ */
+public abstract class Instruction {
+
+    /** The temporary this instruction defines. */
+    public final Temp result;
+
+    /** The operands, in the order they are evaluated. */
+    private final Value[] operands;
+
+    /** The expression this instruction was lowered from, or null. */
+    private final ExpressionNode source;
+
+    /**
+     * The type of the value this instruction is proven to give, or
+     * {@link TypeRegistry#NONE} if it is not known.
+     */
+    int type = TypeRegistry.NONE;
+
+    /**
+     * Instantiates a new instruction.
+     *
+     * @param result
+     *            the temporary it defines
+     * @param source
+     *            the expression it was lowered from, or null
+     * @param operands
+     *            the operands
+     */
+    Instruction(final Temp result, final ExpressionNode source,
+            final Value[] operands) {
+        this.result = result;
+        this.source = source;
+        this.operands = operands;
+    }
+
+    /**
+     * Gets the operands.
+     *
+     * @return the operands
+     */
+    public List<Value> getOperands() {
+        return Collections.unmodifiableList(Arrays.asList(operands));
+    }
+
+    /**
+     * Gets an operand.
+     *
+     * @param i
+     *            the index
+     * @return the operand
+     */
+    public Value getOperand(final int i) {
+        return operands[i];
+    }
+
+    /**
+     * Replaces an operand.
+     *
+     * @param i
+     *            the index
+     * @param value
+     *            the new operand
+     */
+    void setOperand(final int i, final Value value) {
+        operands[i] = value;
+    }
+
+    /**
+     * Gets the blocks this instruction runs.
+     *
+     * @return the blocks
+     */
+    public List<Block> getBlocks() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Checks if this instruction has no effect and can not fail, as long as
+     * the variables it reads are defined. A pure instruction whose result is
+     * not used can be removed.
+     *
+     * @return true, if pure
+     */
+    public boolean isPure() {
+        return false;
+    }
+
+    /**
+     * Gets the name of the instruction.
+     *
+     * @return the name
+     */
+    public abstract String getName();
+
+    /**
+     * Makes a copy of this instruction. The copy is always raised to a new
+     * expression, so that no expression ends up in two places.
+     *
+     * @param newResult
+     *            the temporary the copy defines
+     * @param newOperands
+     *            the operands of the copy
+     * @param newBlocks
+     *            the blocks of the copy
+     * @return the copy
+     */
+    abstract Instruction copy(Temp newResult, Value[] newOperands,
+            Block[] newBlocks);
+
+    /**
+     * Gets the children of the expression this instruction is raised to.
+     *
+     * @param raisedOperands
+     *            the raised operands
+     * @return the children
+     */
+    List<ExpressionNode> raiseChildren(
+            final List<ExpressionNode> raisedOperands) {
+        return raisedOperands;
+    }
+
+    /**
+     * Builds a new expression for this instruction.
+     *
+     * @param children
+     *            the children of the expression
+     * @return the expression
+     */
+    abstract ExpressionNode build(List<ExpressionNode> children);
+
+    /**
+     * Raises this instruction to an expression. If the children are the
+     * children of the expression it was lowered from, that expression is
+     * used. The expression is given the type of this instruction.
+     *
+     * @param raisedOperands
+     *            the raised operands
+     * @return the expression
+     */
+    final ExpressionNode raise(final List<ExpressionNode> raisedOperands) {
+        final ExpressionNode node = reuseOrBuild(raiseChildren(raisedOperands));
+        node.setStaticType(type);
+        return node;
+    }
+
+    /**
+     * Gets the expression this instruction was lowered from if its children
+     * are the same, or else builds a new one.
+     *
+     * @param children
+     *            the children
+     * @return the expression
+     */
+    private ExpressionNode reuseOrBuild(final List<ExpressionNode> children) {
+        if (source != null) {
+            final List<ExpressionNode> original = source.getChildren();
+            boolean same = original.size() == children.size();
+            for (int i = 0; same && i < children.size(); i++) {
+                same = original.get(i) == children.get(i);
+            }
+            if (same) {
+                return source;
+            }
+        }
+        return build(children);
+    }
+
+    /**
+     * Gets the expression this instruction was lowered from.
+     *
+     * @return the expression, or null
+     */
+    ExpressionNode getSource() {
+        return source;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        final StringBuilder b = new StringBuilder().append(result)
+                .append(" = ").append(getName());
+        for (final Value operand : operands) {
+            b.append(' ').append(operand);
+        }
+        for (final Block block : getBlocks()) {
+            b.append(" {").append(block.toString().replace("\n", "\n  "))
+                    .append('}');
+        }
+        return b.toString();
+    }
+
+    /**
+     * The Class Binary. An operator on two operands.
+     */
+    public static final class Binary extends Instruction {
+
+        /** The operator. */
+        public final Operators operator;
+
+        /**
+         * Instantiates a new operator instruction.
+         *
+         * @param result
+         *            the temporary it defines
+         * @param source
+         *            the expression it was lowered from, or null
+         * @param operator
+         *            the operator
+         * @param left
+         *            the first operand
+         * @param right
+         *            the second operand
+         */
+        Binary(final Temp result, final ExpressionNode source,
+                final Operators operator, final Value left, final Value right) {
+            super(result, source, new Value[] { left, right });
+            this.operator = operator;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ir.Instruction#getName()
+         */
+        @Override
+        public String getName() {
+            return operator.name().toLowerCase();
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ir.Instruction#copy(parser.ir.Value.Temp,
+         * parser.ir.Value[], parser.ir.Block[])
+         */
+        @Override
+        Instruction copy(final Temp newResult, final Value[] newOperands,
+                final Block[] newBlocks) {
+            return new Binary(newResult, null, operator,
+                    newOperands[0], newOperands[1]);
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ir.Instruction#build(java.util.List)
+         */
+        @Override
+        ExpressionNode build(final List<ExpressionNode> children) {
+            final ExpressionNode a = children.get(0);
+            final ExpressionNode b = children.get(1);
+            final ExpressionNode node;
+            switch (operator) {
+                case ADD:
+                    node = new AdditionNode(a, b);
+                    break;
+                case SUBTRACT:
+                    node = new SubtractionNode(a, b);
+                    break;
+                case MULTIPLY:
+                    node = new MultiplicationNode(a, b);
+                    break;
+                case DIVIDE:
+                    node = new DivisionNode(a, b);
+                    break;
+                case MOD:
+                    node = new ModNode(a, b);
+                    break;
+                case POWER:
+                    node = new ExponentiationNode(a, b);
+                    break;
+                case EQUAL:
+                    node = new EqualNode(a, b);
+                    break;
+                case GREATER:
+                    node = new GreaterThanNode(a, b);
+                    break;
+                case GREATER_EQUAL:
+                    node = new GreaterThanEqualNode(a, b);
+                    break;
+                case LESS:
+                    node = new LessThanNode(a, b);
+                    break;
+                case LESS_EQUAL:
+                    node = new LessThanEqualNode(a, b);
+                    break;
+                case AND:
+                    node = new AndNode(a, b);
+                    break;
+                case OR:
+                    node = new OrNode(a, b);
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown operator "
+                            + operator);
+            }
+            if (getSource() != null) {
+                node.addOperandTypes(getSource().getOperandTypes());
+            }
+            return node;
+        }
+    }
+
+    /**
+     * The Class Call. A call of a function with arguments.
+     */
+    public static final class Call extends Instruction {
+
+        /**
+         * Instantiates a new call.
+         *
+         * @param result
+         *            the temporary it defines
+         * @param source
+         *            the expression it was lowered from, or null
+         * @param operands
+         *            the function, then the arguments
+         */
+        Call(final Temp result, final ExpressionNode source,
+                final Value[] operands) {
+            super(result, source, operands);
+        }
+
+        /**
+         * Gets the number of arguments.
+         *
+         * @return the number of arguments
+         */
+        public int getArity() {
+            return getOperands().size() - 1;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ir.Instruction#getName()
+         */
+        @Override
+        public String getName() {
+            return "call";
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ir.Instruction#copy(parser.ir.Value.Temp,
+         * parser.ir.Value[], parser.ir.Block[])
+         */
+        @Override
+        Instruction copy(final Temp newResult, final Value[] newOperands,
+                final Block[] newBlocks) {
+            return new Call(newResult, null, newOperands);
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ir.Instruction#build(java.util.List)
+         */
+        @Override
+        ExpressionNode build(final List<ExpressionNode> children) {
+            return new FunctionCallNode(children.get(0), new ArrayList<>(
+                    children.subList(1, children.size())));
+        }
+    }
+
+    /**
+     * The Class If. Runs one of two blocks, depending on a condition.
+     */
+    public static final class If extends Instruction {
+
+        /** The block run if the condition is true. */
+        public final Block then;
+
+        /** The block run if the condition is false. */
+        public final Block otherwise;
+
+        /**
+         * Instantiates a new if instruction.
+         *
+         * @param result
+         *            the temporary it defines
+         * @param source
+         *            the expression it was lowered from, or null
+         * @param condition
+         *            the condition
+         * @param then
+         *            the block run if the condition is true
+         * @param otherwise
+         *            the block run if the condition is false
+         */
+        If(final Temp result, final ExpressionNode source,
+                final Value condition, final Block then, final Block otherwise) {
+            super(result, source, new Value[] { condition });
+            this.then = then;
+            this.otherwise = otherwise;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ir.Instruction#getBlocks()
+         */
+        @Override
+        public List<Block> getBlocks() {
+            return Arrays.asList(then, otherwise);
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ir.Instruction#getName()
+         */
+        @Override
+        public String getName() {
+            return "if";
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ir.Instruction#copy(parser.ir.Value.Temp,
+         * parser.ir.Value[], parser.ir.Block[])
+         */
+        @Override
+        Instruction copy(final Temp newResult, final Value[] newOperands,
+                final Block[] newBlocks) {
+            return new If(newResult, null, newOperands[0],
+                    newBlocks[0], newBlocks[1]);
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ir.Instruction#raiseChildren(java.util.List)
+         */
+        @Override
+        List<ExpressionNode> raiseChildren(
+                final List<ExpressionNode> raisedOperands) {
+            return Arrays.asList(raisedOperands.get(0), then.raise(),
+                    otherwise.raise());
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ir.Instruction#build(java.util.List)
+         */
+        @Override
+        ExpressionNode build(final List<ExpressionNode> children) {
+            return new IfNode(children.get(0), children.get(1),
+                    children.get(2));
+        }
+    }
+
+    /**
+     * The Class Sequence. Runs the statements of a block, and gives the value
+     * of its last expression.
+     */
+    public static final class Sequence extends Instruction {
+
+        /** The block. */
+        public final Block body;
+
+        /**
+         * Instantiates a new sequence.
+         *
+         * @param result
+         *            the temporary it defines
+         * @param source
+         *            the expression it was lowered from, or null
+         * @param body
+         *            the block
+         */
+        Sequence(final Temp result, final ExpressionNode source,
+                final Block body) {
+            super(result, source, new Value[0]);
+            this.body = body;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ir.Instruction#getBlocks()
+         */
+        @Override
+        public List<Block> getBlocks() {
+            return Collections.singletonList(body);
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ir.Instruction#getName()
+         */
+        @Override
+        public String getName() {
+            return "seq";
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ir.Instruction#copy(parser.ir.Value.Temp,
+         * parser.ir.Value[], parser.ir.Block[])
+         */
+        @Override
+        Instruction copy(final Temp newResult, final Value[] newOperands,
+                final Block[] newBlocks) {
+            return new Sequence(newResult, null, newBlocks[0]);
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ir.Instruction#raiseChildren(java.util.List)
+         */
+        @Override
+        List<ExpressionNode> raiseChildren(
+                final List<ExpressionNode> raisedOperands) {
+            return body.raiseStatements();
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ir.Instruction#build(java.util.List)
+         */
+        @Override
+        ExpressionNode build(final List<ExpressionNode> children) {
+            final int last = children.size() - 1;
+            if (last == 0) {
+                return children.get(0);
+            }
+            return new SequenceNode(new ArrayList<>(children.subList(0, last)),
+                    children.get(last));
+        }
+    }
+
+    /**
+     * The Class Store. Assigns a value to a variable in the context.
+     */
+    public static final class Store extends Instruction {
+
+        /** The variable. */
+        public final VariableNode variable;
+
+        /** Whether the variable is mutable. */
+        public final boolean mutable;
+
+        /**
+         * Instantiates a new store.
+         *
+         * @param result
+         *            the temporary it defines
+         * @param source
+         *            the expression it was lowered from, or null
+         * @param variable
+         *            the variable
+         * @param value
+         *            the value
+         * @param mutable
+         *            whether the variable is mutable
+         */
+        Store(final Temp result, final ExpressionNode source,
+                final VariableNode variable, final Value value,
+                final boolean mutable) {
+            super(result, source, new Value[] { value });
+            this.variable = variable;
+            this.mutable = mutable;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ir.Instruction#getName()
+         */
+        @Override
+        public String getName() {
+            return (mutable ? "store mutable " : "store ") + variable;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ir.Instruction#copy(parser.ir.Value.Temp,
+         * parser.ir.Value[], parser.ir.Block[])
+         */
+        @Override
+        Instruction copy(final Temp newResult, final Value[] newOperands,
+                final Block[] newBlocks) {
+            return new Store(newResult, null, variable,
+                    newOperands[0], mutable);
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ir.Instruction#build(java.util.List)
+         */
+        @Override
+        ExpressionNode build(final List<ExpressionNode> children) {
+            final AssignmentNode node = new AssignmentNode(variable,
+                    children.get(0), mutable);
+            if (getSource() != null
+                    && ((AssignmentNode) getSource()).isChecked()) {
+                // the assignment is stored in the same place
+                node.markChecked();
+            }
+            return node;
+        }
+    }
+
+    /**
+     * The Class Lambda. Makes a closure of a function.
+     */
+    public static final class Lambda extends Instruction {
+
+        /** The function, whose body is lowered to {@link #body}. */
+        public final Function function;
+
+        /** The names of the captured variables. */
+        public final List<String> captured;
+
+        /** The body. */
+        public final Block body;
+
+        /**
+         * Instantiates a new lambda.
+         *
+         * @param result
+         *            the temporary it defines
+         * @param source
+         *            the expression it was lowered from, or null
+         * @param function
+         *            the function
+         * @param captured
+         *            the names of the captured variables
+         * @param body
+         *            the body
+         */
+        Lambda(final Temp result, final ExpressionNode source,
+                final Function function, final List<String> captured,
+                final Block body) {
+            super(result, source, new Value[0]);
+            this.function = function;
+            this.captured = captured;
+            this.body = body;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ir.Instruction#getBlocks()
+         */
+        @Override
+        public List<Block> getBlocks() {
+            return Collections.singletonList(body);
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ir.Instruction#isPure()
+         */
+        @Override
+        public boolean isPure() {
+            // capturing reads the captured variables, which may be undefined
+            return captured.isEmpty();
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ir.Instruction#getName()
+         */
+        @Override
+        public String getName() {
+            return "lambda " + function.parameters + " captures " + captured;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ir.Instruction#copy(parser.ir.Value.Temp,
+         * parser.ir.Value[], parser.ir.Block[])
+         */
+        @Override
+        Instruction copy(final Temp newResult, final Value[] newOperands,
+                final Block[] newBlocks) {
+            return new Lambda(newResult, null, function, captured,
+                    newBlocks[0]);
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ir.Instruction#raiseChildren(java.util.List)
+         */
+        @Override
+        List<ExpressionNode> raiseChildren(
+                final List<ExpressionNode> raisedOperands) {
+            return Collections.singletonList(body.raise());
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ir.Instruction#build(java.util.List)
+         */
+        @Override
+        ExpressionNode build(final List<ExpressionNode> children) {
+            final ExpressionNode newBody = children.get(0);
+            newBody.markTail();
+            return new LambdaNode(new Function(function.name,
+                    function.parameters, newBody), captured);
+        }
+    }
+
+    /**
+     * The Class New. Makes a data structure.
+     */
+    public static final class New extends Instruction {
+
+        /** The constructor. */
+        public final DataConstructor constructor;
+
+        /**
+         * Instantiates a new data structure instruction.
+         *
+         * @param result
+         *            the temporary it defines
+         * @param source
+         *            the expression it was lowered from, or null
+         * @param constructor
+         *            the constructor
+         * @param fields
+         *            the values of the fields, in the order of the
+         *            constructor's fields
+         */
+        New(final Temp result, final ExpressionNode source,
+                final DataConstructor constructor, final Value[] fields) {
+            super(result, source, fields);
+            this.constructor = constructor;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ir.Instruction#isPure()
+         */
+        @Override
+        public boolean isPure() {
+            return true;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ir.Instruction#getName()
+         */
+        @Override
+        public String getName() {
+            return "new " + constructor.name;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ir.Instruction#copy(parser.ir.Value.Temp,
+         * parser.ir.Value[], parser.ir.Block[])
+         */
+        @Override
+        Instruction copy(final Temp newResult, final Value[] newOperands,
+                final Block[] newBlocks) {
+            return new New(newResult, null, constructor, newOperands);
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ir.Instruction#build(java.util.List)
+         */
+        @Override
+        ExpressionNode build(final List<ExpressionNode> children) {
+            return new NewNode(constructor,
+                    children.toArray(new ExpressionNode[children.size()]));
+        }
+    }
+
+    /**
+     * The Class Field. Reads a field of a data structure.
+     */
+    public static final class Field extends Instruction {
+
+        /** The field. */
+        public final VariableNode field;
+
+        /**
+         * Instantiates a new field read.
+         *
+         * @param result
+         *            the temporary it defines
+         * @param source
+         *            the expression it was lowered from, or null
+         * @param dataStructure
+         *            the data structure
+         * @param field
+         *            the field
+         */
+        Field(final Temp result, final ExpressionNode source,
+                final Value dataStructure, final VariableNode field) {
+            super(result, source, new Value[] { dataStructure });
+            this.field = field;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ir.Instruction#getName()
+         */
+        @Override
+        public String getName() {
+            return "field " + field;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ir.Instruction#copy(parser.ir.Value.Temp,
+         * parser.ir.Value[], parser.ir.Block[])
+         */
+        @Override
+        Instruction copy(final Temp newResult, final Value[] newOperands,
+                final Block[] newBlocks) {
+            return new Field(newResult, null, newOperands[0], field);
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ir.Instruction#build(java.util.List)
+         */
+        @Override
+        ExpressionNode build(final List<ExpressionNode> children) {
+            return new FieldAccessNode(children.get(0), field);
+        }
+    }
+
+    /**
+     * The Class ListLiteral. Makes a list.
+     */
+    public static final class ListLiteral extends Instruction {
+
+        /**
+         * Instantiates a new list instruction.
+         *
+         * @param result
+         *            the temporary it defines
+         * @param source
+         *            the expression it was lowered from, or null
+         * @param elements
+         *            the elements
+         */
+        ListLiteral(final Temp result, final ExpressionNode source,
+                final Value[] elements) {
+            super(result, source, elements);
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ir.Instruction#isPure()
+         */
+        @Override
+        public boolean isPure() {
+            return true;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ir.Instruction#getName()
+         */
+        @Override
+        public String getName() {
+            return "list";
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ir.Instruction#copy(parser.ir.Value.Temp,
+         * parser.ir.Value[], parser.ir.Block[])
+         */
+        @Override
+        Instruction copy(final Temp newResult, final Value[] newOperands,
+                final Block[] newBlocks) {
+            return new ListLiteral(newResult, null, newOperands);
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ir.Instruction#build(java.util.List)
+         */
+        @Override
+        ExpressionNode build(final List<ExpressionNode> children) {
+            return new ListNode(new ArrayList<>(children));
+        }
+    }
+
+    /**
+     * The Class Index. Reads an element of a list.
+     */
+    public static final class Index extends Instruction {
+
+        /**
+         * Instantiates a new index instruction.
+         *
+         * @param result
+         *            the temporary it defines
+         * @param source
+         *            the expression it was lowered from, or null
+         * @param list
+         *            the list
+         * @param index
+         *            the index
+         */
+        Index(final Temp result, final ExpressionNode source,
+                final Value list, final Value index) {
+            super(result, source, new Value[] { list, index });
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ir.Instruction#getName()
+         */
+        @Override
+        public String getName() {
+            return "index";
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ir.Instruction#copy(parser.ir.Value.Temp,
+         * parser.ir.Value[], parser.ir.Block[])
+         */
+        @Override
+        Instruction copy(final Temp newResult, final Value[] newOperands,
+                final Block[] newBlocks) {
+            return new Index(newResult, null, newOperands[0],
+                    newOperands[1]);
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ir.Instruction#build(java.util.List)
+         */
+        @Override
+        ExpressionNode build(final List<ExpressionNode> children) {
+            return new ListIndexNode(children.get(0), children.get(1));
+        }
+    }
+
+    /**
+     * The Class Opaque. An expression that is not lowered, such as a match
+     * expression. It is kept as it is.
+     */
+    public static final class Opaque extends Instruction {
+
+        /**
+         * Instantiates a new opaque instruction.
+         *
+         * @param result
+         *            the temporary it defines
+         * @param source
+         *            the expression
+         */
+        Opaque(final Temp result, final ExpressionNode source) {
+            super(result, source, new Value[0]);
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ir.Instruction#getName()
+         */
+        @Override
+        public String getName() {
+            return "eval " + getSource().getClass().getSimpleName();
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ir.Instruction#copy(parser.ir.Value.Temp,
+         * parser.ir.Value[], parser.ir.Block[])
+         */
+        @Override
+        Instruction copy(final Temp newResult, final Value[] newOperands,
+                final Block[] newBlocks) {
+            return new Opaque(newResult, getSource());
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ir.Instruction#raiseChildren(java.util.List)
+         */
+        @Override
+        List<ExpressionNode> raiseChildren(
+                final List<ExpressionNode> raisedOperands) {
+            return getSource().getChildren();
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ir.Instruction#build(java.util.List)
+         */
+        @Override
+        ExpressionNode build(final List<ExpressionNode> children) {
+            return getSource();
+        }
+    }
+}
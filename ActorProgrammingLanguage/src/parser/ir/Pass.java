@@ -0,0 +1,28 @@
+/*
+ *
+ */
+package parser.ir;
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Interface Pass. An optimization that rewrites a lowered program in
+ * place. A pass must keep the values and effects of the program, and the order
+ * of its effects.
+ */
+public interface Pass {
+
+    /**
+     * Gets the name the pass is switched on and off by.
+     *
+     * @return the name
+     */
+    String getName();
+
+    /**
+     * Runs the pass.
+     *
+     * @param program
+     *            the program
+     */
+    void run(Program program);
+}
@@ -0,0 +1,138 @@
+/*
+ *
+ */
+package parser.ir;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import parser.ExpressionNode;
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class PassManager. Runs optimization passes in order over a program
+ * lowered to the intermediate representation, then raises it back to
+ * expressions for the engine to run. Each pass can be switched off by name;
+ * a pass that appears twice in the order is switched as one.
+ */
+public final class PassManager {
+
+    /**
+     * The system property naming the passes to run, separated by commas, or
+     * "none" to run none. If it is not set every pass runs.
+     */
+    public static final String PROPERTY = "apl.passes";
+
+    /** The passes, in the order they run. */
+    private final List<Pass> passes;
+
+    /** The names of the passes that run. */
+    private final Set<String> enabled = new HashSet<>();
+
+    /**
+     * Instantiates a new pass manager with every pass enabled.
+     *
+     * @param passes
+     *            the passes, in the order they run
+     */
+    public PassManager(final Pass... passes) {
+        this.passes = Arrays.asList(passes);
+        enabled.addAll(getPassNames());
+    }
+
+    /**
+     * Gets a pass manager with the default passes, enabled as the system
+     * property {@value #PROPERTY} says.
+     *
+     * @return the pass manager
+     */
+    public static PassManager getDefault() {
+        final PassManager manager = new PassManager(new ConstantPropagation(),
+                new Inlining(), new EscapeAnalysis(),
+                // fold what inlining and escape analysis exposed
+                new ConstantPropagation(), new DeadCodeElimination(),
+                new TypeInference());
+        final String names = System.getProperty(PROPERTY);
+        if (names != null) {
+            for (final String name : manager.getPassNames()) {
+                manager.setEnabled(name, false);
+            }
+            for (final String name : names.split(",")) {
+                final String trimmed = name.trim().toLowerCase(Locale.ROOT);
+                if (!trimmed.isEmpty() && !trimmed.equals("none")) {
+                    manager.setEnabled(trimmed, true);
+                }
+            }
+        }
+        return manager;
+    }
+
+    /**
+     * Gets the names of the passes, each once, in the order they first run.
+     *
+     * @return the names
+     */
+    public Set<String> getPassNames() {
+        final Set<String> names = new LinkedHashSet<>();
+        for (final Pass pass : passes) {
+            names.add(pass.getName());
+        }
+        return names;
+    }
+
+    /**
+     * Switches a pass on or off.
+     *
+     * @param name
+     *            the name of the pass
+     * @param on
+     *            whether the pass runs
+     */
+    public void setEnabled(final String name, final boolean on) {
+        if (!getPassNames().contains(name)) {
+            throw new IllegalArgumentException("Unknown pass " + name
+                    + ", expected one of " + getPassNames());
+        }
+        if (on) {
+            enabled.add(name);
+        } else {
+            enabled.remove(name);
+        }
+    }
+
+    /**
+     * Checks if a pass runs.
+     *
+     * @param name
+     *            the name of the pass
+     * @return true, if enabled
+     */
+    public boolean isEnabled(final String name) {
+        return enabled.contains(name);
+    }
+
+    /**
+     * Optimizes statements. If no pass is enabled they are not lowered.
+     *
+     * @param nodes
+     *            the statements
+     * @return the optimized statements, which share the expressions that no
+     *         pass changed
+     */
+    public List<ExpressionNode> run(final List<ExpressionNode> nodes) {
+        if (enabled.isEmpty()) {
+            return nodes;
+        }
+        final Program program = Program.lower(nodes);
+        for (final Pass pass : passes) {
+            if (enabled.contains(pass.getName())) {
+                pass.run(program);
+            }
+        }
+        return program.raise();
+    }
+}
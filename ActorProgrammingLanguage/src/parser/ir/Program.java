@@ -0,0 +1,384 @@
+/*
+ *
+ */
+package parser.ir;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import machine.Function;
+import parser.ExpressionNode;
+import parser.ExpressionNode.AssignmentNode;
+import parser.ExpressionNode.ConstantNode;
+import parser.ExpressionNode.FieldAccessNode;
+import parser.ExpressionNode.FunctionCallNode;
+import parser.ExpressionNode.IfNode;
+import parser.ExpressionNode.LambdaNode;
+import parser.ExpressionNode.ListIndexNode;
+import parser.ExpressionNode.ListNode;
+import parser.ExpressionNode.MatchNode;
+import parser.ExpressionNode.NewNode;
+import parser.ExpressionNode.SequenceNode;
+import parser.ExpressionNode.VariableNode;
+import parser.ir.Instruction.Binary;
+import parser.ir.Instruction.Call;
+import parser.ir.Instruction.Field;
+import parser.ir.Instruction.If;
+import parser.ir.Instruction.Index;
+import parser.ir.Instruction.Lambda;
+import parser.ir.Instruction.ListLiteral;
+import parser.ir.Instruction.New;
+import parser.ir.Instruction.Opaque;
+import parser.ir.Instruction.Sequence;
+import parser.ir.Instruction.Store;
+import parser.ir.Value.Constant;
+import parser.ir.Value.Temp;
+import parser.ir.Value.Variable;
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class Program. A program lowered to A-normal form: every operand is a
+ * constant, a variable read or a temporary, and temporaries are assigned once.
+ * Each statement of the program is a block.
+ * <p>
+ * Variables stay reads and stores of the context rather than temporaries,
+ * since a function called from a scope can read that scope's variables.
+ */
+public final class Program {
+
+    /** The statements. */
+    private final List<Block> statements = new ArrayList<>();
+
+    /** The number of temporaries made. */
+    private int temps;
+
+    /**
+     * Instantiates a new empty program.
+     */
+    private Program() {
+    }
+
+    /**
+     * Lowers the statements of a parsed program.
+     *
+     * @param nodes
+     *            the statements
+     * @return the program
+     */
+    public static Program lower(final List<ExpressionNode> nodes) {
+        final Program program = new Program();
+        for (final ExpressionNode node : nodes) {
+            final Block block = new Block();
+            block.result = program.lower(node, block);
+            program.statements.add(block);
+        }
+        return program;
+    }
+
+    /**
+     * Raises the program back to statements.
+     *
+     * @return the statements
+     */
+    public List<ExpressionNode> raise() {
+        final List<ExpressionNode> nodes = new ArrayList<>(statements.size());
+        for (final Block block : statements) {
+            nodes.add(block.raise());
+        }
+        return nodes;
+    }
+
+    /**
+     * Gets the statements.
+     *
+     * @return the statements
+     */
+    public List<Block> getStatements() {
+        return Collections.unmodifiableList(statements);
+    }
+
+    /**
+     * Makes a new temporary.
+     *
+     * @return the temporary
+     */
+    Temp newTemp() {
+        return new Temp(temps++);
+    }
+
+    /**
+     * Lowers an expression, adding its instructions to a block.
+     *
+     * @param node
+     *            the expression
+     * @param block
+     *            the block
+     * @return the value of the expression
+     */
+    private Value lower(final ExpressionNode node, final Block block) {
+        final List<ExpressionNode> children = node.getChildren();
+        if (node instanceof ConstantNode) {
+            // a constant does not look at its context
+            return new Constant(node.getValue(null), node);
+        } else if (node instanceof VariableNode) {
+            return new Variable(((VariableNode) node).getName(),
+                    (VariableNode) node);
+        } else if (node.getOperator() != null) {
+            final Value left = lower(children.get(0), block);
+            final Value right = lower(children.get(1), block);
+            return block.add(new Binary(newTemp(), node, node.getOperator(),
+                    left, right));
+        } else if (node instanceof IfNode) {
+            final Value condition = lower(children.get(0), block);
+            return block.add(new If(newTemp(), node, condition, lowerBlock(
+                    children.get(1)), lowerBlock(children.get(2))));
+        } else if (node instanceof SequenceNode) {
+            final Block body = new Block();
+            for (int i = 0; i < children.size() - 1; i++) {
+                lower(children.get(i), body);
+            }
+            body.result = lower(children.get(children.size() - 1), body);
+            return block.add(new Sequence(newTemp(), node, body));
+        } else if (node instanceof FunctionCallNode) {
+            return block.add(new Call(newTemp(), node, lowerAll(children,
+                    block)));
+        } else if (node instanceof AssignmentNode) {
+            final AssignmentNode assignment = (AssignmentNode) node;
+            final Value value = lower(assignment.getExpression(), block);
+            return block.add(new Store(newTemp(), node, assignment
+                    .getVariable(), value, assignment.isMutable()));
+        } else if (node instanceof LambdaNode) {
+            final LambdaNode lambda = (LambdaNode) node;
+            return block.add(new Lambda(newTemp(), node, lambda.getFunction(),
+                    lambda.getCaptured(), lowerBlock(lambda.getFunction().body)));
+        } else if (node instanceof NewNode) {
+            return block.add(new New(newTemp(), node, ((NewNode) node)
+                    .getConstructor(), lowerAll(children, block)));
+        } else if (node instanceof FieldAccessNode) {
+            final Value dataStructure = lower(children.get(0), block);
+            return block.add(new Field(newTemp(), node, dataStructure,
+                    ((FieldAccessNode) node).getField()));
+        } else if (node instanceof ListNode) {
+            return block.add(new ListLiteral(newTemp(), node, lowerAll(
+                    children, block)));
+        } else if (node instanceof ListIndexNode) {
+            final Value list = lower(children.get(0), block);
+            final Value index = lower(children.get(1), block);
+            return block.add(new Index(newTemp(), node, list, index));
+        }
+        return block.add(new Opaque(newTemp(), node));
+    }
+
+    /**
+     * Lowers expressions in order.
+     *
+     * @param nodes
+     *            the expressions
+     * @param block
+     *            the block
+     * @return the values
+     */
+    private Value[] lowerAll(final List<ExpressionNode> nodes,
+            final Block block) {
+        final Value[] values = new Value[nodes.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = lower(nodes.get(i), block);
+        }
+        return values;
+    }
+
+    /**
+     * Lowers an expression to a block of its own.
+     *
+     * @param node
+     *            the expression
+     * @return the block
+     */
+    private Block lowerBlock(final ExpressionNode node) {
+        final Block block = new Block();
+        block.result = lower(node, block);
+        return block;
+    }
+
+    /**
+     * Visits every block of the program, outer blocks before the blocks
+     * nested in them. The visitor may change the instructions of the block it
+     * visits.
+     *
+     * @param visitor
+     *            the visitor
+     */
+    public void walk(final BlockVisitor visitor) {
+        final Set<String> defined = new HashSet<>();
+        for (int i = 0; i < statements.size(); i++) {
+            final Block block = statements.get(i);
+            walk(block, i, Collections.unmodifiableSet(new HashSet<>(defined)),
+                    visitor);
+            for (final Instruction instruction : block.instructions) {
+                if (instruction instanceof Store) {
+                    defined.add(((Store) instruction).variable.getName());
+                }
+            }
+        }
+    }
+
+    /**
+     * Visits a block and the blocks nested in it.
+     *
+     * @param block
+     *            the block
+     * @param statement
+     *            the index of the statement the block is in
+     * @param defined
+     *            the variables known to be defined when the block runs
+     * @param visitor
+     *            the visitor
+     */
+    private static void walk(final Block block, final int statement,
+            final Set<String> defined, final BlockVisitor visitor) {
+        visitor.visit(block, statement, defined);
+        for (final Instruction instruction : new ArrayList<>(
+                block.instructions)) {
+            Set<String> inner = defined;
+            if (instruction instanceof Lambda) {
+                final Lambda lambda = (Lambda) instruction;
+                final Set<String> names = new HashSet<>(lambda.captured);
+                for (final VariableNode parameter : lambda.function.parameters) {
+                    names.add(parameter.getName());
+                }
+                inner = Collections.unmodifiableSet(names);
+            }
+            for (final Block nested : instruction.getBlocks()) {
+                walk(nested, statement, inner, visitor);
+            }
+        }
+    }
+
+    /**
+     * Gets the names that are bound anywhere in the program other than by a
+     * store at the top of a statement: parameters, captured variables, names
+     * bound by match expressions and variables stored inside expressions.
+     *
+     * @return the names
+     */
+    public Set<String> getInnerBinders() {
+        final Set<String> names = new HashSet<>();
+        for (final Block block : statements) {
+            for (final Instruction instruction : block.instructions) {
+                for (final Block nested : instruction.getBlocks()) {
+                    addBinders(nested, names);
+                }
+                addOpaqueBinders(instruction, names);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Adds the names bound in a nested block.
+     *
+     * @param block
+     *            the block
+     * @param names
+     *            the names found so far
+     */
+    private static void addBinders(final Block block, final Set<String> names) {
+        for (final Instruction instruction : block.instructions) {
+            if (instruction instanceof Store) {
+                names.add(((Store) instruction).variable.getName());
+            }
+            for (final Block nested : instruction.getBlocks()) {
+                addBinders(nested, names);
+            }
+            addOpaqueBinders(instruction, names);
+        }
+    }
+
+    /**
+     * Adds the names bound by an instruction itself, or by any expression
+     * inside an opaque instruction.
+     *
+     * @param instruction
+     *            the instruction
+     * @param names
+     *            the names found so far
+     */
+    private static void addOpaqueBinders(final Instruction instruction,
+            final Set<String> names) {
+        if (instruction instanceof Lambda) {
+            final Lambda lambda = (Lambda) instruction;
+            names.addAll(lambda.captured);
+            for (final VariableNode parameter : lambda.function.parameters) {
+                names.add(parameter.getName());
+            }
+        } else if (instruction instanceof Opaque) {
+            addNodeBinders(instruction.getSource(), names);
+        }
+    }
+
+    /**
+     * Adds the names bound anywhere in an expression.
+     *
+     * @param node
+     *            the expression
+     * @param names
+     *            the names found so far
+     */
+    private static void addNodeBinders(final ExpressionNode node,
+            final Set<String> names) {
+        if (node instanceof AssignmentNode) {
+            names.add(((AssignmentNode) node).getVariable().getName());
+        } else if (node instanceof LambdaNode) {
+            final Function function = ((LambdaNode) node).getFunction();
+            names.addAll(((LambdaNode) node).getCaptured());
+            for (final VariableNode parameter : function.parameters) {
+                names.add(parameter.getName());
+            }
+        } else if (node instanceof MatchNode) {
+            names.addAll(((MatchNode) node).getBoundNames());
+        }
+        final List<ExpressionNode> children = node.getChildren();
+        for (final ExpressionNode child : children) {
+            addNodeBinders(child, names);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        final StringBuilder b = new StringBuilder();
+        for (int i = 0; i < statements.size(); i++) {
+            b.append("statement ").append(i).append(":\n")
+                    .append(statements.get(i)).append('\n');
+        }
+        return b.toString();
+    }
+
+    /**
+     * The Interface BlockVisitor. Visits the blocks of a program.
+     */
+    public interface BlockVisitor {
+
+        /**
+         * Visits a block.
+         *
+         * @param block
+         *            the block
+         * @param statement
+         *            the index of the statement the block is in
+         * @param defined
+         *            the variables known to be defined whenever the block
+         *            runs: at the top of the program the variables stored by
+         *            earlier statements, in a function its parameters and
+         *            captured variables
+         */
+        void visit(Block block, int statement, Set<String> defined);
+    }
+}
@@ -0,0 +1,529 @@
+/*
+ *
+ */
+package parser.ir;
+
+import interpreter.library.LibraryFunction;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import machine.TypeRegistry;
+import parser.ExpressionNode;
+import parser.ExpressionNode.AssignmentNode;
+import parser.ExpressionNode.FieldAssignmentNode;
+import parser.ExpressionNode.NewNode;
+import parser.ExpressionNode.VariableNode;
+import parser.ir.Instruction.Binary;
+import parser.ir.Instruction.Call;
+import parser.ir.Instruction.Field;
+import parser.ir.Instruction.If;
+import parser.ir.Instruction.Lambda;
+import parser.ir.Instruction.ListLiteral;
+import parser.ir.Instruction.New;
+import parser.ir.Instruction.Opaque;
+import parser.ir.Instruction.Sequence;
+import parser.ir.Instruction.Store;
+import parser.ir.Value.Constant;
+import parser.ir.Value.Temp;
+import parser.ir.Value.Variable;
+import type.APValue.Operators;
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class TypeInference. Proves the types of values before the program
+ * runs, so that engines can work on unboxed numbers and booleans where the
+ * types are known. The types are kept on the expressions the program is
+ * raised to, see {@link ExpressionNode#getStaticType()}.
+ * <p>
+ * Types flow from constants, operators, library functions, the fields of data
+ * structures and the results of functions. A function bound once at the top
+ * of the program and only ever called by name takes the types of the
+ * arguments it is called with. The types are found by starting from no
+ * values at all and going over the program until nothing changes, so that a
+ * recursive function gets the type of its base case. Any other value is not
+ * known, and keeps the dynamic checks.
+ */
+public final class TypeInference implements Pass {
+
+    /** The name of the pass. */
+    public static final String NAME = "type-inference";
+
+    /** The type of a value that no run of the program has reached yet. */
+    private static final int UNREACHED = -2;
+
+    /** The most times the program is gone over before giving up. */
+    private static final int MAX_ROUNDS = 32;
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see parser.ir.Pass#getName()
+     */
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see parser.ir.Pass#run(parser.ir.Program)
+     */
+    @Override
+    public void run(final Program program) {
+        new Analysis(program).solve();
+    }
+
+    /**
+     * Joins the types of two values that can reach the same place.
+     *
+     * @param first
+     *            the first type
+     * @param second
+     *            the second type
+     * @return the type both have, or {@link TypeRegistry#NONE}
+     */
+    private static int join(final int first, final int second) {
+        if (first == UNREACHED) {
+            return second;
+        } else if (second == UNREACHED) {
+            return first;
+        }
+        return first == second ? first : TypeRegistry.NONE;
+    }
+
+    /**
+     * Gets the type an operator gives on operands of known types.
+     *
+     * @param operator
+     *            the operator
+     * @param left
+     *            the type of the first operand
+     * @param right
+     *            the type of the second operand
+     * @return the type
+     */
+    private static int operator(final Operators operator, final int left,
+            final int right) {
+        if (left == TypeRegistry.NONE || right == TypeRegistry.NONE) {
+            return TypeRegistry.NONE;
+        } else if (left == UNREACHED || right == UNREACHED) {
+            return UNREACHED;
+        }
+        switch (operator) {
+            case AND:
+            case OR:
+                return left == TypeRegistry.BOOL && right == TypeRegistry.BOOL ? TypeRegistry.BOOL
+                        : TypeRegistry.NONE;
+            case EQUAL:
+            case GREATER:
+            case GREATER_EQUAL:
+            case LESS:
+            case LESS_EQUAL:
+                return left == TypeRegistry.NUM && right == TypeRegistry.NUM ? TypeRegistry.BOOL
+                        : TypeRegistry.NONE;
+            default:
+                return left == TypeRegistry.NUM && right == TypeRegistry.NUM ? TypeRegistry.NUM
+                        : TypeRegistry.NONE;
+        }
+    }
+
+    /**
+     * Gets a type that can be kept on an expression.
+     *
+     * @param type
+     *            the inferred type
+     * @return the type, or {@link TypeRegistry#NONE} for a value that is
+     *         never reached
+     */
+    private static int known(final int type) {
+        return type == UNREACHED ? TypeRegistry.NONE : type;
+    }
+
+    /**
+     * The Class Analysis. The types found so far in one program.
+     */
+    private static final class Analysis {
+
+        /** The program. */
+        private final Program program;
+
+        /** The functions bound once at the top of the program, by name. */
+        private final Map<String, Lambda> functions = new HashMap<>();
+
+        /** The types of the parameters of each function. */
+        private final Map<Lambda, int[]> parameters = new IdentityHashMap<>();
+
+        /** The type of the result of each function. */
+        private final Map<Lambda, Integer> results = new IdentityHashMap<>();
+
+        /**
+         * The types of the variables bound once, and not mutable, at the top
+         * of the program. Such a variable has the same value wherever it is
+         * read.
+         */
+        private final Map<String, Integer> globals = new HashMap<>();
+
+        /** The types of the fields of data structures, by name. */
+        private final Map<String, Integer> fields = new HashMap<>();
+
+        /** The names bound anywhere in the program. */
+        private final Set<String> bound = new HashSet<>();
+
+        /** The names stored anywhere other than at the top of a statement. */
+        private final Set<String> storedInside = new HashSet<>();
+
+        /** The types of the temporaries in this round. */
+        private final Map<Temp, Integer> temps = new IdentityHashMap<>();
+
+        /** Whether a type changed in this round. */
+        private boolean changed;
+
+        /** Whether the types are being kept on the instructions. */
+        private boolean annotate;
+
+        /**
+         * Instantiates a new analysis of a program.
+         *
+         * @param program
+         *            the program
+         */
+        Analysis(final Program program) {
+            this.program = program;
+            final Set<String> binders = program.getInnerBinders();
+            final Map<String, Integer> stores = new HashMap<>();
+            final Set<String> mutable = new HashSet<>();
+            for (final Block block : program.getStatements()) {
+                for (final Instruction instruction : block.instructions) {
+                    if (instruction instanceof Store) {
+                        final Store store = (Store) instruction;
+                        final String name = store.variable.getName();
+                        stores.merge(name, 1, Integer::sum);
+                        if (store.mutable) {
+                            mutable.add(name);
+                        }
+                    }
+                }
+            }
+            bound.addAll(binders);
+            bound.addAll(stores.keySet());
+            for (final Map.Entry<String, Integer> entry : stores.entrySet()) {
+                final String name = entry.getKey();
+                if (entry.getValue() == 1 && !mutable.contains(name)
+                        && !binders.contains(name)) {
+                    globals.put(name, UNREACHED);
+                }
+            }
+            for (final Block block : program.getStatements()) {
+                for (final Instruction instruction : block.instructions) {
+                    if (!(instruction instanceof Store)
+                            || !(instruction.getOperand(0) instanceof Temp)) {
+                        continue;
+                    }
+                    final String name = ((Store) instruction).variable
+                            .getName();
+                    final Instruction value = block
+                            .definition((Temp) instruction.getOperand(0));
+                    if (globals.containsKey(name) && value instanceof Lambda) {
+                        final Lambda lambda = (Lambda) value;
+                        functions.put(name, lambda);
+                        final int[] types = new int[lambda.function.parameters
+                                .size()];
+                        Arrays.fill(types, UNREACHED);
+                        parameters.put(lambda, types);
+                        results.put(lambda, UNREACHED);
+                    }
+                }
+            }
+            program.walk((block, statement, defined) -> scan(block));
+        }
+
+        /**
+         * Finds the functions that are used other than by being called, the
+         * names stored inside expressions and the fields that are not made
+         * by a lowered instruction.
+         *
+         * @param block
+         *            the block
+         */
+        private void scan(final Block block) {
+            final boolean top = program.getStatements().contains(block);
+            for (final Instruction instruction : block.instructions) {
+                if (instruction instanceof Store && !top) {
+                    storedInside.add(((Store) instruction).variable.getName());
+                }
+                final List<Value> operands = instruction.getOperands();
+                for (int i = 0; i < operands.size(); i++) {
+                    if (!(instruction instanceof Call) || i > 0) {
+                        escape(operands.get(i));
+                    }
+                }
+                if (instruction instanceof Opaque) {
+                    scan(instruction.getSource());
+                }
+            }
+            escape(block.result);
+        }
+
+        /**
+         * Scans an expression that is not lowered.
+         *
+         * @param node
+         *            the expression
+         */
+        private void scan(final ExpressionNode node) {
+            if (node instanceof VariableNode) {
+                escape(new Variable(((VariableNode) node).getName(), null));
+            } else if (node instanceof AssignmentNode) {
+                storedInside.add(((AssignmentNode) node).getVariable()
+                        .getName());
+            } else if (node instanceof FieldAssignmentNode) {
+                fields.put(((FieldAssignmentNode) node).getField().getName(),
+                        TypeRegistry.NONE);
+            } else if (node instanceof NewNode) {
+                for (final String field : ((NewNode) node).getConstructor().fields) {
+                    fields.put(field, TypeRegistry.NONE);
+                }
+            }
+            final List<ExpressionNode> children = node.getChildren();
+            for (final ExpressionNode child : children) {
+                scan(child);
+            }
+        }
+
+        /**
+         * Marks a function as used other than by being called, so that its
+         * parameters can have any type.
+         *
+         * @param value
+         *            the value, which may be a read of the function
+         */
+        private void escape(final Value value) {
+            if (value instanceof Variable) {
+                final Lambda lambda = functions.get(((Variable) value).name);
+                if (lambda != null) {
+                    Arrays.fill(parameters.get(lambda), TypeRegistry.NONE);
+                }
+            }
+        }
+
+        /**
+         * Goes over the program until no type changes, then keeps the types
+         * on the instructions. If the types do not settle, none are kept.
+         */
+        void solve() {
+            int rounds = 0;
+            do {
+                changed = false;
+                round();
+            } while (changed && ++rounds < MAX_ROUNDS);
+            if (!changed) {
+                annotate = true;
+                round();
+            }
+        }
+
+        /**
+         * Goes over the program once.
+         */
+        private void round() {
+            temps.clear();
+            for (final Block block : program.getStatements()) {
+                infer(block, null, true);
+            }
+        }
+
+        /**
+         * Infers the types of the instructions of a block.
+         *
+         * @param block
+         *            the block
+         * @param scope
+         *            the function the block is in, or null at the top of the
+         *            program
+         * @param top
+         *            whether the block is a statement of the program
+         * @return the type of the value of the block
+         */
+        private int infer(final Block block, final Lambda scope,
+                final boolean top) {
+            for (final Instruction instruction : block.instructions) {
+                final int type = infer(instruction, scope, top);
+                temps.put(instruction.result, type);
+                if (annotate) {
+                    instruction.type = known(type);
+                }
+            }
+            return typeOf(block.result, scope);
+        }
+
+        /**
+         * Infers the type of the value of an instruction.
+         *
+         * @param instruction
+         *            the instruction
+         * @param scope
+         *            the function the instruction is in, or null
+         * @param top
+         *            whether the instruction is at the top of a statement
+         * @return the type
+         */
+        private int infer(final Instruction instruction, final Lambda scope,
+                final boolean top) {
+            final int[] types = new int[instruction.getOperands().size()];
+            for (int i = 0; i < types.length; i++) {
+                types[i] = typeOf(instruction.getOperand(i), scope);
+            }
+            if (instruction instanceof Binary) {
+                return operator(((Binary) instruction).operator, types[0],
+                        types[1]);
+            } else if (instruction instanceof If) {
+                final If branch = (If) instruction;
+                final int then = infer(branch.then, scope, false);
+                return join(then, infer(branch.otherwise, scope, false));
+            } else if (instruction instanceof Sequence) {
+                return infer(((Sequence) instruction).body, scope, false);
+            } else if (instruction instanceof Call) {
+                return call((Call) instruction, types);
+            } else if (instruction instanceof Store) {
+                final String name = ((Store) instruction).variable.getName();
+                if (top && globals.containsKey(name)) {
+                    globals.put(name, grow(globals.get(name), types[0]));
+                }
+            } else if (instruction instanceof Lambda) {
+                final Lambda lambda = (Lambda) instruction;
+                final int body = infer(lambda.body, lambda, false);
+                if (results.containsKey(lambda)) {
+                    results.put(lambda, grow(results.get(lambda), body));
+                }
+                return TypeRegistry.FUNC;
+            } else if (instruction instanceof New) {
+                final List<String> names = ((New) instruction).constructor.fields;
+                for (int i = 0; i < types.length; i++) {
+                    final Integer old = fields.get(names.get(i));
+                    fields.put(names.get(i), grow(old == null ? UNREACHED
+                            : old, types[i]));
+                }
+            } else if (instruction instanceof Field) {
+                final Integer field = fields.get(((Field) instruction).field
+                        .getName());
+                // no data structure with the field is ever made
+                return field == null ? UNREACHED : field;
+            } else if (instruction instanceof ListLiteral) {
+                return TypeRegistry.LIST;
+            }
+            return TypeRegistry.NONE;
+        }
+
+        /**
+         * Infers the type of the result of a call, and passes the types of
+         * the arguments to the function called.
+         *
+         * @param call
+         *            the call
+         * @param types
+         *            the types of the function and the arguments
+         * @return the type
+         */
+        private int call(final Call call, final int[] types) {
+            if (!(call.getOperand(0) instanceof Variable)) {
+                return TypeRegistry.NONE;
+            }
+            final String name = ((Variable) call.getOperand(0)).name;
+            final Lambda lambda = functions.get(name);
+            if (lambda == null) {
+                return bound.contains(name) ? TypeRegistry.NONE
+                        : LibraryFunction.getReturnType(name);
+            }
+            final int[] parameterTypes = parameters.get(lambda);
+            if (call.getArity() != parameterTypes.length) {
+                // the call does not run the body with these arguments
+                for (int i = 0; i < parameterTypes.length; i++) {
+                    parameterTypes[i] = grow(parameterTypes[i],
+                            TypeRegistry.NONE);
+                }
+                return TypeRegistry.NONE;
+            }
+            for (int i = 0; i < parameterTypes.length; i++) {
+                parameterTypes[i] = grow(parameterTypes[i], types[i + 1]);
+            }
+            return results.get(lambda);
+        }
+
+        /**
+         * Infers the type of a value.
+         *
+         * @param value
+         *            the value
+         * @param scope
+         *            the function the value is read in, or null
+         * @return the type
+         */
+        private int typeOf(final Value value, final Lambda scope) {
+            if (value instanceof Constant) {
+                return ((Constant) value).value.getTypeId();
+            } else if (value instanceof Temp) {
+                final Integer type = temps.get(value);
+                return type == null ? TypeRegistry.NONE : type;
+            }
+            final Variable variable = (Variable) value;
+            int type = TypeRegistry.NONE;
+            final int parameter = scope == null ? -1 : indexOf(scope,
+                    variable.name);
+            if (parameter >= 0) {
+                if (parameters.containsKey(scope)
+                        && !storedInside.contains(variable.name)) {
+                    type = parameters.get(scope)[parameter];
+                }
+            } else if (globals.containsKey(variable.name)) {
+                type = globals.get(variable.name);
+            }
+            if (annotate) {
+                variable.type = known(type);
+            }
+            return type;
+        }
+
+        /**
+         * Finds a parameter of a function.
+         *
+         * @param lambda
+         *            the function
+         * @param name
+         *            the name of the parameter
+         * @return the index of the parameter, or -1
+         */
+        private static int indexOf(final Lambda lambda, final String name) {
+            final List<VariableNode> parameterNodes = lambda.function.parameters;
+            for (int i = 0; i < parameterNodes.size(); i++) {
+                if (parameterNodes.get(i).getName().equals(name)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Joins a new type into a type found earlier, noting if it changed.
+         *
+         * @param old
+         *            the type found earlier
+         * @param type
+         *            the new type
+         * @return the joined type
+         */
+        private int grow(final int old, final int type) {
+            final int joined = join(old, type);
+            if (joined != old) {
+                changed = true;
+            }
+            return joined;
+        }
+    }
+}
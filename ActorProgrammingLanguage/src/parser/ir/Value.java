@@ -0,0 +1,189 @@
+/*
+ *
+ */
+package parser.ir;
+
+import machine.TypeRegistry;
+import parser.ExpressionNode;
+import parser.ExpressionNode.ConstantNode;
+import parser.ExpressionNode.VariableNode;
+import type.APValue;
+import type.APValueBool;
+import type.APValueChar;
+import type.APValueNum;
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class Value. An operand of an instruction: a constant, a read of a
+ * variable or a temporary defined by an earlier instruction.
+ */
+public abstract class Value {
+
+    /**
+     * Instantiates a new value.
+     */
+    Value() {
+    }
+
+    /**
+     * Gets the expression that evaluates to this value. Temporaries are
+     * raised by their block.
+     *
+     * @return the expression
+     */
+    abstract ExpressionNode raise();
+
+    /**
+     * The Class Constant. A constant value.
+     */
+    public static final class Constant extends Value {
+
+        /** The value. */
+        public final APValue value;
+
+        /** The expression the constant was lowered from, or null. */
+        private final ExpressionNode source;
+
+        /**
+         * Instantiates a new constant.
+         *
+         * @param value
+         *            the value
+         * @param source
+         *            the expression the constant was lowered from, or null
+         */
+        Constant(final APValue value, final ExpressionNode source) {
+            this.value = value;
+            this.source = source;
+        }
+
+        /**
+         * Checks if the value can not be changed, so that it can be copied
+         * into other expressions.
+         *
+         * @return true, if the value is a number, a boolean or a character
+         */
+        public boolean isImmutable() {
+            return value instanceof APValueNum || value instanceof APValueBool
+                    || value instanceof APValueChar;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ir.Value#raise()
+         */
+        @Override
+        ExpressionNode raise() {
+            final ExpressionNode node = source != null ? source
+                    : new ConstantNode(value);
+            node.setStaticType(value.getTypeId());
+            return node;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString() {
+            return value.toString();
+        }
+    }
+
+    /**
+     * The Class Variable. A read of a variable from the context.
+     */
+    public static final class Variable extends Value {
+
+        /** The name. */
+        public final String name;
+
+        /** The expression the read was lowered from, or null. */
+        private final VariableNode source;
+
+        /**
+         * The type the read is proven to give, or {@link TypeRegistry#NONE}
+         * if it is not known.
+         */
+        int type = TypeRegistry.NONE;
+
+        /**
+         * Instantiates a new variable read.
+         *
+         * @param name
+         *            the name
+         * @param source
+         *            the expression the read was lowered from, or null
+         */
+        Variable(final String name, final VariableNode source) {
+            this.name = name;
+            this.source = source;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ir.Value#raise()
+         */
+        @Override
+        ExpressionNode raise() {
+            final ExpressionNode node = source != null ? source
+                    : new VariableNode(name);
+            node.setStaticType(type);
+            return node;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * The Class Temp. A temporary, defined by exactly one instruction and
+     * used at most once, in the block it is defined in.
+     */
+    public static final class Temp extends Value {
+
+        /** The number of the temporary in its program. */
+        public final int id;
+
+        /**
+         * Instantiates a new temporary.
+         *
+         * @param id
+         *            the number of the temporary
+         */
+        Temp(final int id) {
+            this.id = id;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see parser.ir.Value#raise()
+         */
+        @Override
+        ExpressionNode raise() {
+            throw new IllegalStateException("Temporary " + this
+                    + " is raised by its block");
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString() {
+            return "%" + id;
+        }
+    }
+}
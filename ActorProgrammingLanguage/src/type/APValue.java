@@ -3,6 +3,8 @@
  */
 package type;
 
+import machine.TypeRegistry;
+
 /**
  * The Class APValue. Holds a value in the language.
  *
@@ -31,6 +33,11 @@ public abstract class APValue<T> {
         public String getType() {
             return "VOID";
         }
+
+        @Override
+        public int getTypeId() {
+            return TypeRegistry.NONE;
+        }
     };
 
     /** The data. */
@@ -170,6 +177,16 @@ public abstract class APValue<T> {
         return true;
     }
     
+    /**
+     * Returns the value to store when this value is bound to a variable or put
+     * in a list or field. Immutable values return themselves.
+     *
+     * @return the value to store
+     */
+    public APValue<T> reference() {
+        return this;
+    }
+
     /**
      * Returns the type of this value. For example: <li>Num</li> <li>List</li>
      * <li>Char</li> <li>Func</li> <li>Bool</li>
@@ -179,5 +196,23 @@ public abstract class APValue<T> {
      * @return the type
      */
     public abstract String getType();
+
+    /**
+     * Returns the id of the type of this value, as given by the
+     * {@link TypeRegistry}.
+     *
+     * @return the type id
+     */
+    public abstract int getTypeId();
+
+    /**
+     * Returns the id of the parent of the type of this value. Only values made
+     * by a datatype constructor have a parent.
+     *
+     * @return the parent type id, or {@link TypeRegistry#NONE}
+     */
+    public int getParentTypeId() {
+        return TypeRegistry.NONE;
+    }
     
 }
@@ -3,6 +3,8 @@
  */
 package type;
 
+import machine.TypeRegistry;
+
 // TODO: Auto-generated Javadoc
 /**
  * The Class APValueBool. Represents a boolean value: true or false.
@@ -68,4 +70,14 @@ public class APValueBool extends APValue<Boolean> {
     public String getType() {
         return "Bool";
     }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see type.APValue#getTypeId()
+     */
+    @Override
+    public int getTypeId() {
+        return TypeRegistry.BOOL;
+    }
 }
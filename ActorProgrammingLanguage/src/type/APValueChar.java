@@ -3,6 +3,7 @@
  */
 package type;
 
+import machine.TypeRegistry;
 
 // TODO: Auto-generated Javadoc
 /**
@@ -86,4 +87,14 @@ public class APValueChar extends APValue<Character> {
     public String getType() {
         return "Char";
     }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see type.APValue#getTypeId()
+     */
+    @Override
+    public int getTypeId() {
+        return TypeRegistry.CHAR;
+    }
 }
@@ -35,4 +35,20 @@ public class APValueData extends APValue<DataStructureInstance> {
         return getValue().type;
     }
 
+    /* (non-Javadoc)
+     * @see type.APValue#getTypeId()
+     */
+    @Override
+    public int getTypeId() {
+        return getValue().constructor.type.id;
+    }
+
+    /* (non-Javadoc)
+     * @see type.APValue#getParentTypeId()
+     */
+    @Override
+    public int getParentTypeId() {
+        return getValue().constructor.type.parent;
+    }
+
 }
@@ -4,6 +4,7 @@
 package type;
 
 import machine.Function;
+import machine.TypeRegistry;
 
 // TODO: Auto-generated Javadoc
 /**
@@ -39,5 +40,15 @@ public class APValueFunction extends APValue<Function> {
     public String getType() {
         return "Func";
     }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see type.APValue#getTypeId()
+     */
+    @Override
+    public int getTypeId() {
+        return TypeRegistry.FUNC;
+    }
     
 }
@@ -8,24 +8,148 @@ import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 
-import parser.ExpressionNode;
+import machine.TypeRegistry;
 
 /**
- * The Class APValueList. Represents a list of expressions.
+ * The Class APValueList. Represents a list of values. Elements are evaluated
+ * once when the list is built, so indexing a list never re-runs an
+ * expression. Lists whose elements all share one primitive type are kept in a
+ * {@link PrimitiveList}.
  *
  * @author Kyran Adams
  * @version $Revision: 1.0 $
  */
-public class APValueList extends APValue<List> {
+public class APValueList extends APValue<List<APValue>> {
 
     /**
-     * Instantiates a new AP value bool.
+     * Whether the store is also used by another list, for example by a slice.
+     * A shared store is copied before it is written to.
+     */
+    private boolean shared;
+
+    /**
+     * Whether a variable, list or field already holds this list. Once a list
+     * is owned, every further holder gets its own list sharing the store.
+     */
+    private boolean owned;
+
+    /**
+     * Instantiates a new AP value list.
+     *
+     * @param values
+     *            the already evaluated elements
+     */
+    public APValueList(final List<APValue> values) {
+        setValue(PrimitiveList.of(values));
+        if (!(getValue() instanceof PrimitiveList)) {
+            getValue().replaceAll(APValue::reference);
+        }
+    }
+
+    /**
+     * Instantiates a new AP value list holding the characters of a string.
+     *
+     * @param string
+     *            the string
+     */
+    public APValueList(final String string) {
+        setValue(new PrimitiveList.StringList(string));
+    }
+
+    /**
+     * Instantiates a new AP value list without a store. Used for slices, which
+     * set their store themselves.
+     */
+    private APValueList() {
+    }
+
+    /**
+     * Returns a view of part of this list without copying it. Both lists copy
+     * the store before they are next written to.
+     *
+     * @param from
+     *            the first index, inclusive
+     * @param to
+     *            the last index, exclusive
+     * @return the slice
+     */
+    public APValueList slice(final int from, final int to) {
+        final APValueList slice = new APValueList();
+        slice.setValue(getValue().subList(from, to));
+        slice.shared = true;
+        shared = true;
+        return slice;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see type.APValue#reference()
+     */
+    @Override
+    public APValueList reference() {
+        if (!owned) {
+            owned = true;
+            return this;
+        }
+        final APValueList alias = new APValueList();
+        alias.setValue(getValue());
+        alias.shared = true;
+        alias.owned = true;
+        shared = true;
+        return alias;
+    }
+
+    /**
+     * Gets the element at an index so that it can be written to. If the store
+     * is shared it is copied first, so the element belongs only to this list.
+     *
+     * @param index
+     *            the index
+     * @return the element
+     */
+    public APValue getForUpdate(final int index) {
+        unshare();
+        return getValue().get(index);
+    }
+
+    /**
+     * Sets the element at an index. If the store is shared, or the value does
+     * not fit in the current primitive store, the list is first moved to a new
+     * store that fits it. A list that is the only user of its store is
+     * updated in place.
      *
-     * @param expressionNode
-     *            the expression node
+     * @param index
+     *            the index
+     * @param value
+     *            the value
+     */
+    public void set(final int index, final APValue value) {
+        unshare();
+        final List<APValue> values = getValue();
+        final APValue element = value.reference();
+        if (values instanceof PrimitiveList
+                && !((PrimitiveList) values).accepts(element)) {
+            final List<APValue> copy = new ArrayList<>(values);
+            copy.set(index, element);
+            setValue(PrimitiveList.of(copy));
+            return;
+        }
+        values.set(index, element);
+    }
+
+    /**
+     * Copies the store if another list uses it. Lists held by the old store
+     * are referenced again, so they are not shared with the other list either.
      */
-    public APValueList(final List<ExpressionNode> expressionNode) {
-        setValue(new ArrayList<>(expressionNode));
+    private void unshare() {
+        if (!shared) {
+            return;
+        }
+        final List<APValue> copy = new ArrayList<>(getValue());
+        copy.replaceAll(APValue::reference);
+        setValue(PrimitiveList.of(copy));
+        shared = false;
     }
     
     /*
@@ -35,9 +159,12 @@ public class APValueList extends APValue<List> {
      */
     @Override
     public String toString() {
-        final List<Object> characters = getValue();
+        final List<APValue> characters = getValue();
+        if (characters instanceof PrimitiveList) {
+            return ((PrimitiveList) characters).text();
+        }
         final StringBuilder builder = new StringBuilder(characters.size());
-        for (final Object ch : characters) {
+        for (final APValue ch : characters) {
             builder.append(ch);
         }
         return builder.toString();
@@ -63,7 +190,7 @@ public class APValueList extends APValue<List> {
             case ADD:
                 if (arg instanceof APValueList) {
                     return new APValueList(append(getValue(),
-                            (List<ExpressionNode>) arg.getValue()));
+                            ((APValueList) arg).getValue()));
                 }
                 break;
             case MULTIPLY:
@@ -92,7 +219,7 @@ public class APValueList extends APValue<List> {
      *            the value2
      * @return the list
      */
-    private List<ExpressionNode> multiply(final List<ExpressionNode> value,
+    private List<APValue> multiply(final List<APValue> value,
             APNumber value2) {
         boolean negative = false;
         if (value2.compareTo(APNumber.ZERO) < 0) {
@@ -100,7 +227,7 @@ public class APValueList extends APValue<List> {
             value2 = value2.negate();
         }
 
-        final List<ExpressionNode> finalList = new LinkedList<ExpressionNode>();
+        final List<APValue> finalList = new LinkedList<APValue>();
 
         // if our number is greater than one
         for (; value2.compareTo(APNumber.ONE) > 0; value2 = value2
@@ -125,9 +252,14 @@ public class APValueList extends APValue<List> {
      *
      * @return the list
      */
-    private List<ExpressionNode> append(final List<ExpressionNode> value,
-            final List<ExpressionNode> value2) {
-        final List<ExpressionNode> newList = new ArrayList<>(value.size()
+    private List<APValue> append(final List<APValue> value,
+            final List<APValue> value2) {
+        if (PrimitiveList.isString(value) && PrimitiveList.isString(value2)) {
+            return new PrimitiveList.StringList(
+                    ((PrimitiveList) value).text()
+                            + ((PrimitiveList) value2).text());
+        }
+        final List<APValue> newList = new ArrayList<>(value.size()
                 + value2.size());
         newList.addAll(value);
         newList.addAll(value2);
@@ -143,4 +275,14 @@ public class APValueList extends APValue<List> {
     public String getType() {
         return "List";
     }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see type.APValue#getTypeId()
+     */
+    @Override
+    public int getTypeId() {
+        return TypeRegistry.LIST;
+    }
 }
@@ -5,6 +5,8 @@ package type;
 
 import java.math.RoundingMode;
 
+import machine.TypeRegistry;
+
 // TODO: Auto-generated Javadoc
 /**
  * The Class APValueNum. Represents a real number.
@@ -148,4 +150,14 @@ public class APValueNum extends APValue<APNumber> {
         return "Num";
     }
 
+    /*
+     * (non-Javadoc)
+     *
+     * @see type.APValue#getTypeId()
+     */
+    @Override
+    public int getTypeId() {
+        return TypeRegistry.NUM;
+    }
+
 }
@@ -3,20 +3,35 @@
  */
 package type;
 
+import machine.TypeRegistry;
+
 // TODO: Auto-generated Javadoc
 /**
- * The Class APValueType.
+ * The Class APValueType. Types are compared by the id given to them by the
+ * {@link TypeRegistry}, not by name.
  */
 public class APValueType extends APValue<String> {
+
+    /** The id. */
+    public final int id;
+
+    /** The id of the parent type, or {@link TypeRegistry#NONE}. */
+    public final int parent;
     
     /**
      * Instantiates a new AP value type.
      *
      * @param text
      *            the text
+     * @param id
+     *            the id
+     * @param parent
+     *            the id of the parent type
      */
-    public APValueType(final String text) {
+    public APValueType(final String text, final int id, final int parent) {
         setValue(text);
+        this.id = id;
+        this.parent = parent;
     }
 
     /*
@@ -43,8 +58,7 @@ public class APValueType extends APValue<String> {
      * @return true, if successful
      */
     public boolean valueIsType(final APValue value) {
-        return value.getType().equals(getValue())
-                || value.getType().split("\\$")[0].equals(getValue());
+        return value.getTypeId() == id || value.getParentTypeId() == id;
     }
     
     /*
@@ -56,6 +70,26 @@ public class APValueType extends APValue<String> {
     public String getType() {
         return getValue();
     }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see type.APValue#getTypeId()
+     */
+    @Override
+    public int getTypeId() {
+        return id;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see type.APValue#getParentTypeId()
+     */
+    @Override
+    public int getParentTypeId() {
+        return parent;
+    }
     
     /*
      * (non-Javadoc)
@@ -64,11 +98,7 @@ public class APValueType extends APValue<String> {
      */
     @Override
     public int hashCode() {
-        final int prime = 31;
-        int result = super.hashCode();
-        result = prime * result
-                + (getValue() == null ? 0 : getValue().hashCode());
-        return result;
+        return id;
     }
     
     /*
@@ -81,21 +111,10 @@ public class APValueType extends APValue<String> {
         if (this == obj) {
             return true;
         }
-        if (!super.equals(obj)) {
-            return false;
-        }
-        if (getClass() != obj.getClass()) {
-            return false;
-        }
-        final APValueType other = (APValueType) obj;
-        if (getValue() == null) {
-            if (other.getValue() != null) {
-                return false;
-            }
-        } else if (!getValue().equals(other.getValue())) {
+        if (obj == null || getClass() != obj.getClass()) {
             return false;
         }
-        return true;
+        return id == ((APValueType) obj).id;
     }
     
     /*
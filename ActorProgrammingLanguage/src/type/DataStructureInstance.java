@@ -3,15 +3,12 @@
  */
 package type;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Map.Entry;
-
-import parser.ExpressionNode;
+import machine.DataConstructor;
 
 // TODO: Auto-generated Javadoc
 /**
- * The Class DataStructureInstance.
+ * The Class DataStructureInstance. Field values are stored in the slots given
+ * by the instance's constructor.
  */
 public class DataStructureInstance {
 
@@ -24,21 +21,48 @@ public class DataStructureInstance {
      */
     public final String type;
 
-    /** The fields. */
-    public final Map<String, ExpressionNode> fields;
+    /** The constructor, which is also the shape of this instance. */
+    public final DataConstructor constructor;
+
+    /** The field values, indexed by slot. */
+    private final APValue[] values;
 
     /**
      * Instantiates a new data structure instance.
      *
-     * @param type
-     *            the type
-     * @param fields
-     *            the fields
+     * @param constructor
+     *            the constructor
+     * @param values
+     *            the already evaluated field values, in slot order
+     */
+    public DataStructureInstance(final DataConstructor constructor,
+            final APValue[] values) {
+        this.type = constructor.name;
+        this.constructor = constructor;
+        this.values = values;
+    }
+
+    /**
+     * Gets the value in a slot.
+     *
+     * @param slot
+     *            the slot
+     * @return the value
+     */
+    public APValue get(final int slot) {
+        return values[slot];
+    }
+
+    /**
+     * Sets the value in a slot.
+     *
+     * @param slot
+     *            the slot
+     * @param value
+     *            the value
      */
-    public DataStructureInstance(final String type,
-            final Map<String, ExpressionNode> fields) {
-        this.type = type;
-        this.fields = new HashMap<>(fields);
+    public void set(final int slot, final APValue value) {
+        values[slot] = value;
     }
     
     /*
@@ -48,14 +72,14 @@ public class DataStructureInstance {
      */
     @Override
     public String toString() {
-        if (fields.isEmpty()) {
+        if (values.length == 0) {
             return type + "{}";
         }
         
         final StringBuilder fieldsAndValues = new StringBuilder();
-        for (final Entry<String, ExpressionNode> node : fields.entrySet()) {
-            fieldsAndValues.append(node.getKey()).append(" = ")
-                    .append(node.getValue()).append(',');
+        for (int i = 0; i < values.length; i++) {
+            fieldsAndValues.append(constructor.fields.get(i)).append(" = ")
+                    .append(values[i]).append(',');
             
         }
         // remove last comma
@@ -0,0 +1,300 @@
+/*
+ *
+ */
+package type;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The Class PrimitiveList. Stores a list whose elements all have the same
+ * primitive type in a flat array instead of one object per element. Elements
+ * are boxed back into APValues when they are read.
+ */
+abstract class PrimitiveList extends AbstractList<APValue> {
+
+    /**
+     * Creates the most compact store for the given values. Lists of only
+     * numbers, only characters or only booleans get a primitive store, every
+     * other list gets a copy in an ArrayList. A {@link StringList} is
+     * immutable, so it is shared instead of copied.
+     *
+     * @param values
+     *            the values
+     * @return the store
+     */
+    static List<APValue> of(final List<APValue> values) {
+        if (values instanceof StringList) {
+            return values;
+        }
+        if (values.isEmpty()) {
+            return new ArrayList<>();
+        }
+        final Class<?> type = values.get(0).getClass();
+        for (final APValue value : values) {
+            if (value.getClass() != type) {
+                return new ArrayList<>(values);
+            }
+        }
+        if (type == APValueNum.class) {
+            return new NumberList(values);
+        } else if (type == APValueChar.class) {
+            return new CharList(values);
+        } else if (type == APValueBool.class) {
+            return new BoolList(values);
+        }
+        return new ArrayList<>(values);
+    }
+
+    /**
+     * Checks whether a value can be stored in this list without switching to a
+     * generic store.
+     *
+     * @param value
+     *            the value
+     * @return true, if the value fits
+     */
+    abstract boolean accepts(APValue value);
+
+    /**
+     * Returns the elements printed one after another, the way a string is
+     * printed.
+     *
+     * @return the text
+     */
+    String text() {
+        final StringBuilder builder = new StringBuilder(size());
+        for (final APValue value : this) {
+            builder.append(value);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Checks whether a list holds only characters in a primitive store.
+     *
+     * @param values
+     *            the values
+     * @return true, if the list is a string
+     */
+    static boolean isString(final List<APValue> values) {
+        return values instanceof StringList || values instanceof CharList;
+    }
+
+    /**
+     * The Class NumberList. Stores numbers in a double array.
+     */
+    static final class NumberList extends PrimitiveList {
+
+        /** The numbers. */
+        private final double[] numbers;
+
+        /**
+         * Instantiates a new number list.
+         *
+         * @param values
+         *            the values, all of which must be numbers
+         */
+        NumberList(final List<APValue> values) {
+            numbers = new double[values.size()];
+            for (int i = 0; i < numbers.length; i++) {
+                numbers[i] = ((APNumber) values.get(i).getValue())
+                        .doubleValue();
+            }
+        }
+
+        @Override
+        boolean accepts(final APValue value) {
+            return value instanceof APValueNum;
+        }
+
+        @Override
+        public APValue get(final int index) {
+            return new APValueNum(new APNumber(numbers[index]));
+        }
+
+        @Override
+        public APValue set(final int index, final APValue value) {
+            final APValue old = get(index);
+            numbers[index] = ((APNumber) value.getValue()).doubleValue();
+            return old;
+        }
+
+        @Override
+        public int size() {
+            return numbers.length;
+        }
+    }
+
+    /**
+     * The Class CharList. Stores characters in a char array.
+     */
+    static final class CharList extends PrimitiveList {
+
+        /** The characters. */
+        private final char[] characters;
+
+        /**
+         * Instantiates a new char list.
+         *
+         * @param values
+         *            the values, all of which must be characters
+         */
+        CharList(final List<APValue> values) {
+            characters = new char[values.size()];
+            for (int i = 0; i < characters.length; i++) {
+                characters[i] = (Character) values.get(i).getValue();
+            }
+        }
+
+        @Override
+        boolean accepts(final APValue value) {
+            return value instanceof APValueChar;
+        }
+
+        @Override
+        public APValue get(final int index) {
+            return new APValueChar(characters[index]);
+        }
+
+        @Override
+        public APValue set(final int index, final APValue value) {
+            final APValue old = get(index);
+            characters[index] = (Character) value.getValue();
+            return old;
+        }
+
+        @Override
+        public int size() {
+            return characters.length;
+        }
+
+        @Override
+        String text() {
+            return new String(characters);
+        }
+    }
+
+    /**
+     * The Class StringList. Stores an immutable run of characters in a Java
+     * String. String literals and the string builtins produce this store, and
+     * the first write copies it to a {@link CharList}.
+     */
+    static final class StringList extends PrimitiveList {
+
+        /** The string. */
+        private final String string;
+
+        /**
+         * Instantiates a new string list.
+         *
+         * @param string
+         *            the string
+         */
+        StringList(final String string) {
+            this.string = string;
+        }
+
+        @Override
+        boolean accepts(final APValue value) {
+            return false;
+        }
+
+        @Override
+        public APValue get(final int index) {
+            return new APValueChar(string.charAt(index));
+        }
+
+        @Override
+        public int size() {
+            return string.length();
+        }
+
+        @Override
+        String text() {
+            return string;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (obj instanceof StringList) {
+                return string.equals(((StringList) obj).string);
+            }
+            return super.equals(obj);
+        }
+
+        @Override
+        public int hashCode() {
+            return super.hashCode();
+        }
+    }
+
+    /**
+     * The Class BoolList. Stores booleans packed into the bits of a long array.
+     */
+    static final class BoolList extends PrimitiveList {
+
+        /** The bits, 64 booleans per word. */
+        private final long[] bits;
+
+        /** The size. */
+        private final int size;
+
+        /**
+         * Instantiates a new bool list.
+         *
+         * @param values
+         *            the values, all of which must be booleans
+         */
+        BoolList(final List<APValue> values) {
+            size = values.size();
+            bits = new long[(size + Long.SIZE - 1) / Long.SIZE];
+            for (int i = 0; i < size; i++) {
+                setBit(i, (Boolean) values.get(i).getValue());
+            }
+        }
+
+        /**
+         * Sets a single bit.
+         *
+         * @param index
+         *            the index
+         * @param bit
+         *            the bit
+         */
+        private void setBit(final int index, final boolean bit) {
+            if (bit) {
+                bits[index / Long.SIZE] |= 1L << index;
+            } else {
+                bits[index / Long.SIZE] &= ~(1L << index);
+            }
+        }
+
+        @Override
+        boolean accepts(final APValue value) {
+            return value instanceof APValueBool;
+        }
+
+        @Override
+        public APValue get(final int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index
+                        + ", Size: " + size);
+            }
+            return new APValueBool((bits[index / Long.SIZE] & 1L << index) != 0);
+        }
+
+        @Override
+        public APValue set(final int index, final APValue value) {
+            final APValue old = get(index);
+            setBit(index, (Boolean) value.getValue());
+            return old;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
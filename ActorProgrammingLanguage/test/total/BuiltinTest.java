@@ -1,10 +1,12 @@
 package total;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.Arrays;
 
 import org.junit.Test;
 
-import parser.ExpressionNode.ConstantNode;
 import type.APNumber;
 import type.APValueNum;
 
@@ -52,6 +54,17 @@ public class BuiltinTest {
         
     }
 
+    /**
+     * Test isa with a type named before its datatype is declared.
+     */
+    @Test
+    public void testIsaBeforeDeclaration() {
+        ProgramTest.test("f = func x -> x isa Shape$Circle; "
+                + "datatype Shape = Circle | Dot; "
+                + "a = [f(new Shape.Circle()), f(new Shape.Dot()), f(5)] "
+                + "= [true, false, false];", true, "a");
+    }
+
     /**
      * Test in function.
      */
@@ -80,9 +93,9 @@ public class BuiltinTest {
     @Test
     public void testMap() {
         ProgramTest.test("a = map([1,2,3], func b -> b+1);", Arrays.asList(
-                new ConstantNode(new APValueNum(new APNumber("2"))),
-                new ConstantNode(new APValueNum(new APNumber("3"))),
-                new ConstantNode(new APValueNum(new APNumber("4")))), "a");
+                new APValueNum(new APNumber("2")),
+                new APValueNum(new APNumber("3")),
+                new APValueNum(new APNumber("4"))), "a");
     }
 
     /**
@@ -99,9 +112,9 @@ public class BuiltinTest {
     @Test
     public void testMapBinary() {
         ProgramTest.test("a = [3,2,4] map func a -> a*2;", Arrays.asList(
-                new ConstantNode(new APValueNum(new APNumber("6"))),
-                new ConstantNode(new APValueNum(new APNumber("4"))),
-                new ConstantNode(new APValueNum(new APNumber("8")))), "a");
+                new APValueNum(new APNumber("6")),
+                new APValueNum(new APNumber("4")),
+                new APValueNum(new APNumber("8"))), "a");
     }
     
     /**
@@ -129,4 +142,122 @@ public class BuiltinTest {
         ProgramTest.expectOutput("println(\"Hi\");", "Hi");
     }
 
+    /**
+     * Test memoize on an exponential function.
+     */
+    @Test
+    public void testMemoize() {
+        ProgramTest.test("fib = memoize(func a -> if a < 2 then a "
+                + "else fib(a - 1) + fib(a - 2), 100); a = fib(60);",
+                new APNumber("1548008755920"), "a");
+    }
+
+    /**
+     * Test the memo cache evicts the least recently used result.
+     */
+    @Test
+    public void testMemoStats() {
+        ProgramTest.test("f = memoize(func a -> a * 2, 2); "
+                + "b = [f(1), f(1), f(2), f(3), f(1)]; "
+                + "a = memoStats(f) = [1, 4, 2];", true, "a");
+    }
+
+    /**
+     * Test memoize keys on list contents.
+     */
+    @Test
+    public void testMemoizeListKeys() {
+        ProgramTest.test("f = memoize(func l -> length(l), 10); "
+                + "b = [f([1, 2]), f([1, 2]), f(\"ab\"), f(['a', 'b']), f([])]; "
+                + "a = memoStats(f) = [2, 3, 3];", true, "a");
+    }
+
+    /**
+     * Test memoize keys on the caller's variables the function reads, and
+     * on those read by the functions it calls.
+     */
+    @Test
+    public void testMemoizeFreeVariables() {
+        ProgramTest.expectOutput("mut k = 1; f = memoize(func x -> x + k, 10); "
+                + "println(f(1)); k = 10; println(f(1));", "2\n11");
+        ProgramTest.expectOutput("f = memoize(func x -> x + k, 10); "
+                + "g = func k -> f(1); println(g(1)); println(g(100));",
+                "2\n101");
+        ProgramTest.expectOutput("mut k = 1; g = func x -> x + k; "
+                + "f = memoize(func x -> g(x), 10); println(f(1)); k = 10; "
+                + "println(f(1));", "2\n11");
+        ProgramTest.test("mut k = 1; f = memoize(func x -> x + k, 10); "
+                + "b = [f(1), f(1), f(2)]; a = memoStats(f) = [1, 2, 2];",
+                true, "a");
+    }
+
+    /**
+     * Test memoized results are reused by a later run, until the function
+     * changes.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testMemoizeToFile() throws IOException {
+        final File file = File.createTempFile("memo", ".bin");
+        file.delete();
+        file.deleteOnExit();
+        final String path = file.getPath().replace("\\", "\\\\");
+        final String program = "f = memoizeToFile(func a -> { print('x'); "
+                + "return a * %s; }, 10, \"" + path + "\"); "
+                + "println(f(2) + f(3));";
+        ProgramTest.expectOutput(String.format(program, "2"), "xx10");
+        ProgramTest.expectOutput(String.format(program, "2"), "10");
+        ProgramTest.expectOutput(String.format(program, "3"), "xx15");
+        ProgramTest.expectOutput(String.format(program, "3"), "15");
+    }
+
+    /**
+     * Test a record left incomplete by a run that stopped while writing it is
+     * cut off, so results stored by the next run are kept.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testMemoizeToFilePartialRecord() throws IOException {
+        final File file = File.createTempFile("memo", ".bin");
+        file.delete();
+        file.deleteOnExit();
+        final String path = file.getPath().replace("\\", "\\\\");
+        final String program = "f = memoizeToFile(func a -> { print('x'); "
+                + "return a * 2; }, 10, \"" + path + "\"); println(f(%s));";
+        ProgramTest.expectOutput(String.format(program, "1"), "x2");
+        // a key length past the end of the file, then part of a key
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(new byte[] { 0x7f, 0, 0, 0, 1, 2 });
+        }
+        ProgramTest.expectOutput(String.format(program, "2"), "x4");
+        ProgramTest.expectOutput(String.format(program, "2"), "4");
+        ProgramTest.expectOutput(String.format(program, "1"), "2");
+    }
+
+    /**
+     * Test stored results are not reused after a function they call or a
+     * variable they read changes.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testMemoizeToFileFreeVariables() throws IOException {
+        final File file = File.createTempFile("memo", ".bin");
+        file.delete();
+        file.deleteOnExit();
+        final String path = file.getPath().replace("\\", "\\\\");
+        final String program = "k = %s; g = func a -> a * %s; "
+                + "f = memoizeToFile(func a -> { print('x'); return g(a) + k; "
+                + "}, 10, \"" + path + "\"); println(f(2));";
+        ProgramTest.expectOutput(String.format(program, "0", "2"), "x4");
+        ProgramTest.expectOutput(String.format(program, "0", "2"), "4");
+        ProgramTest.expectOutput(String.format(program, "0", "3"), "x6");
+        ProgramTest.expectOutput(String.format(program, "1", "3"), "x7");
+        ProgramTest.expectOutput(String.format(program, "1", "3"), "7");
+    }
 }
@@ -119,6 +119,47 @@ public class DataTest {
                 new APNumber("5"), "a");
     }
     
+    /**
+     * Test fields are evaluated once.
+     */
+    @Test
+    public void testFieldEvaluatedOnce() {
+        ProgramTest.expectOutput("datatype Box = Box {size}; "
+                + "b = new Box.Box(size = {print(1); return 2;}); "
+                + "println(b.size + b.size);", "14");
+    }
+    
+    /**
+     * Test creation inside a function.
+     */
+    @Test
+    public void testCreationInFunction() {
+        ProgramTest.test("datatype Box = Box {size}; "
+                + "make = func s -> new Box.Box(size = s); a = make(3).size;",
+                new APNumber("3"), "a");
+    }
+    
+    /**
+     * Test the same field access on different constructors.
+     */
+    @Test
+    public void testFieldAccessDifferentShapes() {
+        ProgramTest.test("datatype Shape = Rect {width, size} | Square {size}; "
+                + "getSize = func s -> s.size; "
+                + "a = getSize(new Shape.Rect(width = 1, size = 2)) "
+                + "+ getSize(new Shape.Square(size = 3));", new APNumber("5"),
+                "a");
+    }
+    
+    /**
+     * Test assigning an undeclared field.
+     */
+    @Test
+    public void testEditUndefinedField() {
+        ProgramTest.testParserException("datatype Box = Box {size}; "
+                + "b = new Box.Box(size = 1); b.width = 2;");
+    }
+    
     /**
      * Test edit field.
      */
@@ -150,4 +191,76 @@ public class DataTest {
         .testNoError("datatype Rectangle = Rect {width, height} | Default; "
                 + "b = new Rectangle.Default(); ");
     }
+
+    /**
+     * Test constructor fields are checked when parsing.
+     */
+    @Test
+    public void testWrongFieldsAtParse() {
+        ProgramTest.testParserException("datatype Box = Box {size}; "
+                + "f = func x -> new Box.Box(width = x);");
+        ProgramTest.testParserException("datatype Rectangle = Rect {width, "
+                + "height}; f = func x -> new Rectangle.Rect(width = x);");
+        ProgramTest.testParserException("datatype Box = Box {size}; "
+                + "b = new Box.Box(size = 1, size = 2);");
+    }
+
+    /**
+     * Test each evaluation creates a new instance.
+     */
+    @Test
+    public void testDistinctInstances() {
+        ProgramTest.test("datatype Box = Box {size}; "
+                + "make = func s -> new Box.Box(size = s); "
+                + "b = make(1); c = make(2); a = b.size;", new APNumber("1"),
+                "a");
+    }
+
+    /**
+     * Test match with field destructuring.
+     */
+    @Test
+    public void testMatch() {
+        final String decl = "datatype Shape = Rect {width, height} "
+                + "| Square {size} | Dot; "
+                + "area = func s -> match s "
+                + "| Shape.Rect(width, height) -> width * height "
+                + "| Shape.Square(size) -> size * size | Shape.Dot -> 0;";
+        ProgramTest.test(decl + "a = area(new Shape.Rect(width = 2, "
+                + "height = 3));", new APNumber("6"), "a");
+        ProgramTest.test(decl + "a = area(new Shape.Square(size = 4));",
+                new APNumber("16"), "a");
+        ProgramTest.test(decl + "a = area(new Shape.Dot());",
+                new APNumber("0"), "a");
+    }
+
+    /**
+     * Test match falls back to the else case.
+     */
+    @Test
+    public void testMatchElse() {
+        final String decl = "datatype Boolean = True | False; "
+                + "f = func b -> match b | Boolean.True -> 1 | else -> 0;";
+        ProgramTest.test(decl + "a = f(new Boolean.False());",
+                new APNumber("0"), "a");
+        ProgramTest.test(decl + "a = f(5);", new APNumber("0"), "a");
+        ProgramTest.test(decl + "a = f(new Boolean.True());",
+                new APNumber("1"), "a");
+    }
+
+    /**
+     * Test match errors.
+     */
+    @Test
+    public void testMatchErrors() {
+        // no such field
+        ProgramTest.testParserException("datatype Box = Box {size}; "
+                + "f = func b -> match b | Box.Box(width) -> width;");
+        // duplicate case
+        ProgramTest.testParserException("datatype Box = Box {size}; "
+                + "f = func b -> match b | Box.Box -> 1 | Box.Box -> 2;");
+        // no case matches
+        ProgramTest.testParserException("datatype Boolean = True | False; "
+                + "a = match new Boolean.False() | Boolean.True -> 1;");
+    }
 }
@@ -0,0 +1,273 @@
+/*
+ * @author Kyran Adams
+ */
+package total;
+
+import interpreter.Engine;
+import interpreter.Interpreter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import lexer.Lexer;
+import machine.Context;
+import machine.Function;
+import machine.Profile;
+import machine.Tiering;
+import machine.TypeRegistry;
+import machine.bytecode.BytecodeCompiler;
+import machine.vm.VmCompiler;
+import machine.vm.VmCompiler.ChunkNode;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import parser.ExpressionNode;
+import parser.ExpressionNode.AssignmentNode;
+import parser.ExpressionNode.LambdaNode;
+import parser.ExpressionNode.MultiplicationNode;
+import parser.Parser;
+import parser.ParserException;
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class EngineTest. Checks that every engine runs programs the same way
+ * as the tree walker.
+ */
+public class EngineTest {
+
+    /**
+     * Test arithmetic and comparisons.
+     */
+    @Test
+    public void testOperators() {
+        expectSameOutput("println(7 + 1 * 3 - 2 / 4); println(10 % 3);"
+                + "println(2 ^ 10); println(2 ^ 0.5); println(1 / 3);");
+        expectSameOutput("println(1 < 2); println(2 <= 2); println(3 > 4);"
+                + "println(3 >= 4); println(0 = (0 - 0));");
+        expectSameOutput("println('a' + 1); println([1, 2] * 2);"
+                + "println(true && false); println(true || false);");
+    }
+
+    /**
+     * Test functions, closures and tail calls.
+     */
+    @Test
+    public void testFunctions() {
+        expectSameOutput("fib = func n -> if n < 2 then n "
+                + "else fib(n - 1) + fib(n - 2); println(fib(15));");
+        expectSameOutput("adder = func x -> func y -> x + y;"
+                + "addFive = adder(5); println(addFive(2));");
+        expectSameOutput("sum = func n acc -> if n = 0 then acc "
+                + "else sum(n - 1, acc + n); println(sum(100000, 0));");
+    }
+
+    /**
+     * Test that errors are the same in every engine.
+     */
+    @Test
+    public void testErrors() {
+        for (final Engine engine : Engine.values()) {
+            try {
+                output("f = func x -> if x then 1 else 2; println(f(3));",
+                        engine);
+                Assert.fail(engine + " did not throw parser exception!");
+            } catch (final ParserException e) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * Test that the register machine fuses compares with branches and
+     * operators with constants.
+     */
+    @Test
+    public void testVmSuperinstructions() {
+        final List<ExpressionNode> nodes = new Parser(new Lexer(
+                "n = 3; m = if n < 2 then n else n - 1;").lex())
+                .parse(ProgramTest.getEmptyContext());
+        final ExpressionNode m = ((AssignmentNode) nodes.get(1))
+                .getExpression();
+        final String chunk = ((ChunkNode) VmCompiler.compile(m)).getChunk()
+                .toString();
+        Assert.assertTrue(chunk, chunk.contains("BRANCH_IF_NOT_K"));
+        Assert.assertTrue(chunk, chunk.contains("BINARY_K"));
+        Assert.assertFalse(chunk, chunk.contains("TEST"));
+    }
+
+    /**
+     * Test that a function is promoted once it is hot.
+     *
+     * @throws InterruptedException
+     *             the interrupted exception
+     */
+    @Test
+    public void testTieredPromotion() throws InterruptedException {
+        final Context context = ProgramTest.getEmptyContext();
+        final List<ExpressionNode> nodes = new Parser(new Lexer(
+                "sum = func n acc -> if n = 0 then acc "
+                        + "else sum(n - 1, acc + n); x = sum(100, 0);").lex())
+                .parse(context);
+        final Function sum = ((LambdaNode) ((AssignmentNode) nodes.get(0))
+                .getExpression()).getFunction();
+        sum.setTiering(new Tiering(BytecodeCompiler::compile, 50));
+        new Interpreter(context.getOutputStream(), Engine.TREE).run(nodes,
+                context);
+        Assert.assertEquals(1, sum.getInvocations());
+        Assert.assertEquals(100, sum.getBackEdges());
+        Assert.assertEquals("5050", context.getVariable("x").toString());
+        for (int i = 0; i < 500 && sum.getCode() == sum.body; i++) {
+            Thread.sleep(10);
+        }
+        Assert.assertNotSame(sum.body, sum.getCode());
+    }
+
+    /**
+     * Test that a profile recorded by one run is used by the next run.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     * @throws InterruptedException
+     *             the interrupted exception
+     */
+    @Test
+    public void testProfile() throws IOException, InterruptedException {
+        final String code = "datatype Rectangle = Rect{width, height} "
+                + "| Square {size}; b = new Rectangle.Square(size = 5);"
+                + "a = b.size * 2; sum = func n acc -> if n = 0 then acc "
+                + "else sum(n - 1, acc + n); x = sum(1500, 0);";
+        final Path file = Files.createTempFile("apl", ".profile");
+        try {
+            Files.delete(file);
+            final Interpreter first = new Interpreter(new PrintStream(
+                    new ByteArrayOutputStream()), Engine.TREE);
+            first.setProfile(file);
+            first.interpret(code);
+            final String recorded = new String(Files.readAllBytes(file),
+                    StandardCharsets.UTF_8);
+            Assert.assertTrue(recorded, recorded.contains("types "));
+            Assert.assertTrue(recorded, recorded.contains("calls "));
+            Assert.assertTrue(recorded,
+                    recorded.contains(" Rectangle$Square"));
+            Assert.assertTrue(recorded, recorded.contains("hot "));
+
+            final Context context = ProgramTest.getEmptyContext();
+            final List<ExpressionNode> nodes = new Parser(new Lexer(code)
+                    .lex()).parse(context);
+            ExpressionNode times = null;
+            Function sum = null;
+            for (final ExpressionNode node : Profile.positions(nodes)
+                    .values()) {
+                if (node instanceof MultiplicationNode) {
+                    times = node;
+                } else if (node instanceof LambdaNode) {
+                    sum = ((LambdaNode) node).getFunction();
+                }
+            }
+            final Profile profile = Profile.load(file);
+            Assert.assertTrue(profile.apply(nodes, context));
+            Assert.assertEquals(ExpressionNode.typeBit(TypeRegistry.NUM),
+                    times.getOperandTypes());
+            sum.setTiering(new Tiering(BytecodeCompiler::compile, 1000));
+            profile.promote(nodes, 1000);
+            for (int i = 0; i < 500 && sum.getCode() == sum.body; i++) {
+                Thread.sleep(10);
+            }
+            Assert.assertNotSame(sum.body, sum.getCode());
+            Assert.assertEquals(0, sum.getInvocations());
+
+            Assert.assertFalse(profile.apply(new Parser(new Lexer(
+                    "x = 1 + 2;").lex()).parse(ProgramTest.getEmptyContext()),
+                    ProgramTest.getEmptyContext()));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Test that lazy bindings run when first read, and that the other
+     * statements still run in order.
+     */
+    @Test
+    public void testLazyBindings() {
+        for (final Engine engine : Engine.values()) {
+            final ByteArrayOutputStream output = new ByteArrayOutputStream();
+            final Interpreter interpreter = new Interpreter(new PrintStream(
+                    output), engine);
+            interpreter.setLazy(true);
+            final Context context = interpreter.interpret("mut count = 1; "
+                    + "sq = func x -> x * x; bad = true + 1; a = sq(4); "
+                    + "c = count + 1; p = println(c); count = 5;");
+            // the statements that read or change something ran in order
+            Assert.assertEquals("2", output.toString().trim());
+            Assert.assertEquals("16", context.getVariable("a").toString());
+            try {
+                context.getVariable("bad");
+                Assert.fail("Did not throw parser exception!");
+            } catch (final ParserException e) {
+                // the binding fails where it is read
+            }
+            // a list may be changed in place after the binding that reads it
+            final Context changed = interpreter.interpret("l = [1, 2]; "
+                    + "s = sublist(l, 0, 1); l{0} = 7;");
+            Assert.assertEquals("1", changed.getVariable("s").toString());
+        }
+    }
+
+    /**
+     * Test that a lazy binding may use a variable bound after it, which is
+     * undefined when bindings are not lazy.
+     */
+    @Test
+    public void testLazyForwardReference() {
+        final String code = "a = b + 1; b = 5; println(a);";
+        ProgramTest.testContextException(code);
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final Interpreter interpreter = new Interpreter(new PrintStream(
+                output));
+        interpreter.setLazy(true);
+        interpreter.interpret(code);
+        Assert.assertEquals("6", output.toString().trim());
+    }
+
+    /**
+     * Checks that a program prints the same with every engine.
+     *
+     * @param code
+     *            the code
+     */
+    private static void expectSameOutput(final String code) {
+        final String expected = output(code, Engine.TREE);
+        for (final Engine engine : Engine.values()) {
+            Assert.assertEquals(engine.toString(), expected,
+                    output(code, engine));
+        }
+    }
+
+    /**
+     * Runs a program with an engine.
+     *
+     * @param code
+     *            the code
+     * @param engine
+     *            the engine
+     * @return the output
+     */
+    private static String output(final String code, final Engine engine) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            new Interpreter(new PrintStream(out, true, "UTF-8"), engine)
+                    .interpret(code);
+            return out.toString("UTF-8");
+        } catch (final UnsupportedEncodingException e) {
+            throw new RuntimeException("Unsupported Encoding Exception");
+        }
+    }
+}
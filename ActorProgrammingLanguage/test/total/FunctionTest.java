@@ -3,9 +3,28 @@
  */
 package total;
 
+import interpreter.Interpreter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.List;
+
+import lexer.Lexer;
+import machine.Context;
+import machine.Effect;
+
+import org.junit.Assert;
 import org.junit.Test;
 
+import parser.Debug;
+import parser.ExpressionNode;
+import parser.ExpressionNode.AssignmentNode;
+import parser.ExpressionNode.LambdaNode;
+import parser.Parser;
+import parser.ParserException;
+import parser.checking.EffectAnalysis;
 import type.APNumber;
+import type.APValueFunction;
 
 /**
  * The Class FunctionTest.
@@ -30,6 +49,76 @@ public class FunctionTest {
         ProgramTest.test("mut f = 10; f = 5;", new APNumber("5"), "f");
     }
 
+    /**
+     * Test assignments to variables that are not mutable are found before
+     * the program runs, and the others are marked as checked.
+     */
+    @Test
+    public void testMutabilityChecked() {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try {
+            new Interpreter(new PrintStream(output))
+                    .interpret("f = 10; println(f); f = 5;");
+            Assert.fail("Did not throw parser exception!");
+        } catch (final ParserException e) {
+            Assert.assertEquals("", output.toString());
+            Assert.assertTrue(e.getMessage(), e.getMessage().endsWith(
+                    "Can't change the value of non mutable function f"));
+        }
+        ProgramTest.testParserException("mut f = 10; "
+                + "g = if f < 5 then 1 else 2; g = 3;");
+        final List<ExpressionNode> nodes = new Parser(new Lexer(
+                "mut a = 1; a = 2; f = func x -> {x = x + 1; y = x; return y;};")
+                .lex()).parse(new Context(System.out));
+        Assert.assertTrue(((AssignmentNode) nodes.get(0)).isChecked());
+        Assert.assertTrue(((AssignmentNode) nodes.get(1)).isChecked());
+        final List<ExpressionNode> body = ((LambdaNode) ((AssignmentNode) nodes
+                .get(2)).getExpression()).getFunction().body.getChildren();
+        // a parameter is known to be mutable, but y may be bound by a caller
+        Assert.assertTrue(((AssignmentNode) body.get(0)).isChecked());
+        Assert.assertFalse(((AssignmentNode) body.get(1)).isChecked());
+    }
+
+    /**
+     * Test an assignment to a variable that is not mutable is only found
+     * before the program runs if it always runs.
+     */
+    @Test
+    public void testMutabilityBranch() {
+        ProgramTest.expectOutput("x = 1; c = length([1]) = 2; "
+                + "r = if c then {x = 2; return 1;} else 0; println(r);", "0");
+        ProgramTest.testParserException("x = 1; c = length([1]) = 1; "
+                + "r = if c then {x = 2; return 1;} else 0;");
+        ProgramTest.expectOutput("f = func -> {y = 1; y = 2; return y;}; "
+                + "println(1);", "1");
+    }
+
+    /**
+     * Test a match case that binds fields does not bind variables after the
+     * match, since it runs in a copy of the context.
+     */
+    @Test
+    public void testMutabilityMatchScope() {
+        ProgramTest.expectOutput("datatype Shape = Circle{radius} | Dot{size}; "
+                + "s = new Shape.Circle(radius=1); a = match s "
+                + "| Shape.Circle(radius) -> { y = 1; return radius; } "
+                + "| Shape.Dot(size) -> { y = 1; return size; }; "
+                + "y = 2; println(y);", "2");
+    }
+
+    /**
+     * Test a checked assignment in a function does not change its caller's
+     * variable.
+     */
+    @Test
+    public void testCheckedAssignmentScope() {
+        ProgramTest.test("mut a = 1; f = func x -> {mut a = x; a = a + 1; "
+                + "return a;}; b = f(5) + a;", new APNumber(7), "b");
+        ProgramTest.test("sum = func n acc -> {acc = acc + n; "
+                + "return if n = 0 then acc else sum(n - 1, acc);}; "
+                + "a = sum(10, 0);", new APNumber(55), "a");
+    }
+
     /**
      * Test first class functions.
      */
@@ -204,4 +293,152 @@ public class FunctionTest {
                 + "diff = squareOfSums - sumOfSquares;", new APNumber("2640"),
                 "diff");
     }
+
+    /**
+     * Test a call site called with many different functions.
+     */
+    @Test
+    public void testManyTargets() {
+        ProgramTest.test("apply = func f x -> f(x); "
+                + "a = [apply(func x -> x + 1, 1), apply(func x -> x + 2, 1), "
+                + "apply(func x -> x + 3, 1), apply(func x -> x + 4, 1), "
+                + "apply(func x -> x + 5, 1), apply(func x -> x + 6, 1)] "
+                + "= [2, 3, 4, 5, 6, 7];", true, "a");
+        ProgramTest.testParserException("apply = func f x -> f(x); "
+                + "a = apply(func x -> x, 1); b = apply(func x y -> x, 1);");
+        // once the call site has stopped caching, arity is still checked
+        ProgramTest.testParserException("apply = func f x -> f(x); "
+                + "a = [apply(func x -> x + 1, 1), apply(func x -> x + 2, 1), "
+                + "apply(func x -> x + 3, 1), apply(func x -> x + 4, 1), "
+                + "apply(func x -> x + 5, 1)]; b = apply(func x y -> x, 1);");
+    }
+
+    /**
+     * Test a parameter can shadow a builtin that calls are linked to.
+     */
+    @Test
+    public void testShadowBuiltin() {
+        ProgramTest.test("f = func map -> map + 1; b = [1] map func x -> x; "
+                + "a = f(5);", new APNumber(6), "a");
+        ProgramTest.test("f = func length -> length; b = f(5); "
+                + "a = length([1, 2]);", new APNumber(2), "a");
+    }
+
+    /**
+     * Test a returned lambda keeps the parameters it uses.
+     */
+    @Test
+    public void testClosure() {
+        ProgramTest.test("adder = func n -> func x -> x + n; addTwo = adder(2); "
+                + "addFive = adder(5); a = [addTwo(1), addFive(1)] = [3, 6];", true,
+                "a");
+        ProgramTest.test("curry = func a -> func b -> func c -> a + b + c; "
+                + "a = curry(1)(2)(3);", new APNumber(6), "a");
+    }
+
+    /**
+     * Test a closure passed to a builtin.
+     */
+    @Test
+    public void testClosureInBuiltin() {
+        ProgramTest.test("scale = func k -> func list -> list map func x -> "
+                + "x * k; a = scale(3)([1, 2]) = [3, 6];", true, "a");
+    }
+
+    /**
+     * Test a closure captures a value, not the variable.
+     */
+    @Test
+    public void testClosureCapturesValue() {
+        ProgramTest.test("f = func list -> { g = func -> list{0}; "
+                + "list{0} = 9; return g; }; a = f([1])();", new APNumber(1),
+                "a");
+    }
+
+    /**
+     * Test tail recursion does not overflow the stack.
+     */
+    @Test
+    public void testTailRecursion() {
+        ProgramTest.test("sum = func n acc -> if n = 0 then acc "
+                + "else sum(n - 1, acc + n); a = sum(100000, 0);",
+                new APNumber("5000050000"), "a");
+    }
+
+    /**
+     * Test mutual tail recursion through a sequence.
+     */
+    @Test
+    public void testMutualTailRecursion() {
+        ProgramTest.test("even = func n -> if n = 0 then true else odd(n - 1); "
+                + "odd = func n -> { return if n = 0 then false "
+                + "else even(n - 1); }; a = [even(50000), odd(50000)] "
+                + "= [true, false];", true, "a");
+    }
+
+    /**
+     * Test a call that is not in tail position still returns to its caller.
+     */
+    @Test
+    public void testNonTailCall() {
+        ProgramTest.test("fact = func n -> if n = 0 then 1 else n * fact(n - 1); "
+                + "a = ([1, 2, 3] map fact) = [1, 2, 6];", true, "a");
+    }
+
+    /**
+     * Test functions are classified as pure, read only or effectful.
+     */
+    @Test
+    public void testEffects() {
+        final Context context = new Interpreter(new PrintStream(
+                new ByteArrayOutputStream()))
+                .interpret("mut count = 0;"
+                        + "fib = func n -> if n < 2 then n else fib(n - 1) + fib(n - 2);"
+                        + "show = func n -> println(n);"
+                        + "read = func n -> count + fib(n);"
+                        + "bump = func n -> {count = count + n; return count;};"
+                        + "local = func n -> {mut m = n; m = m + 1; return m;};"
+                        + "each = func l -> l foreach show;"
+                        + "squares = func l -> l map (func x -> x * x);"
+                        + "apply = func f -> f(1);");
+        Assert.assertEquals(Effect.PURE, effect(context, "fib"));
+        Assert.assertEquals(Effect.EFFECTFUL, effect(context, "show"));
+        Assert.assertEquals(Effect.READ_ONLY, effect(context, "read"));
+        Assert.assertEquals(Effect.EFFECTFUL, effect(context, "bump"));
+        Assert.assertEquals(Effect.PURE, effect(context, "local"));
+        Assert.assertEquals(Effect.EFFECTFUL, effect(context, "each"));
+        Assert.assertEquals(Effect.PURE, effect(context, "squares"));
+        Assert.assertEquals(Effect.EFFECTFUL, effect(context, "apply"));
+    }
+
+    /**
+     * Test the effects of functions can be listed.
+     */
+    @Test
+    public void testDumpEffects() {
+        final Context context = new Context(new PrintStream(
+                new ByteArrayOutputStream()));
+        final List<ExpressionNode> nodes = new Parser(new Lexer(
+                "fib = func n -> if n < 2 then n else fib(n - 1) + fib(n - 2);"
+                        + "show = func a b -> println(a + b);").lex())
+                .parse(context);
+        EffectAnalysis.analyze(nodes, context);
+        Assert.assertEquals("fib(n): PURE" + System.lineSeparator()
+                + "show(a, b): EFFECTFUL" + System.lineSeparator(),
+                Debug.dumpEffects(nodes));
+    }
+
+    /**
+     * Gets the effect of a function bound in a context.
+     *
+     * @param context
+     *            the context
+     * @param name
+     *            the name of the function
+     * @return the effect
+     */
+    private static Effect effect(final Context context, final String name) {
+        return ((APValueFunction) context.getVariable(name)).getValue()
+                .getEffect();
+    }
 }
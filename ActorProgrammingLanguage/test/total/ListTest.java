@@ -8,9 +8,8 @@ import java.util.List;
 
 import org.junit.Test;
 
-import parser.ExpressionNode.ConstantNode;
-import parser.ExpressionNode.VariableNode;
 import type.APNumber;
+import type.APValue;
 import type.APValueChar;
 import type.APValueNum;
 
@@ -24,17 +23,17 @@ import type.APValueNum;
 public class ListTest {
     
     /** The Constant ONE_TWO_LIST. */
-    private static final List<ConstantNode> ONE_TWO_LIST = Arrays.asList(
-            new ConstantNode(new APValueNum(new APNumber("1"))),
-            new ConstantNode(new APValueNum(new APNumber("2"))));
+    private static final List<APValue> ONE_TWO_LIST = Arrays.asList(
+            new APValueNum(new APNumber("1")),
+            new APValueNum(new APNumber("2")));
 
     /** The Constant LIST_ONE_THROUGH_FIVE. */
-    private static final List<ConstantNode> LIST_ONE_THROUGH_FIVE = Arrays
-            .asList(new ConstantNode(new APValueNum(new APNumber("1"))),
-                    new ConstantNode(new APValueNum(new APNumber("2"))),
-                    new ConstantNode(new APValueNum(new APNumber("3"))),
-                    new ConstantNode(new APValueNum(new APNumber("4"))),
-                    new ConstantNode(new APValueNum(new APNumber("5"))));
+    private static final List<APValue> LIST_ONE_THROUGH_FIVE = Arrays
+            .asList(new APValueNum(new APNumber("1")),
+                    new APValueNum(new APNumber("2")),
+                    new APValueNum(new APNumber("3")),
+                    new APValueNum(new APNumber("4")),
+                    new APValueNum(new APNumber("5")));
     
     /**
      * Index operator and concat.
@@ -52,6 +51,16 @@ public class ListTest {
         ProgramTest.test("a = ([1] + [2]){0};", new APNumber("1"), "a");
     }
     
+    /**
+     * List elements are evaluated once.
+     */
+    @Test
+    public void elementsEvaluatedOnce() {
+        ProgramTest.expectOutput(
+                "a = [{print(1); return 2;}]; b = a{0} + a{0}; println(b);",
+                "14");
+    }
+    
     /**
      * Index operator2.
      */
@@ -94,8 +103,8 @@ public class ListTest {
     @Test
     public void variableList() {
         ProgramTest.test("b = 2; a = [1] + [b];", Arrays.asList(
-                new ConstantNode(new APValueNum(new APNumber("1"))),
-                new VariableNode("b")), "a");
+                new APValueNum(new APNumber("1")),
+                new APValueNum(new APNumber("2"))), "a");
     }
     
     /**
@@ -130,14 +139,60 @@ public class ListTest {
         ProgramTest.test("a = [5,2]; a{0} = 1;", ONE_TWO_LIST, "a");
     }
     
+    /**
+     * List assignment does not change other variables holding the list.
+     */
+    @Test
+    public void listAssignmentValueSemantics() {
+        ProgramTest.test("a = [1,2]; b = a; b{0} = 5;", ONE_TWO_LIST, "a");
+        ProgramTest.test("f = func l -> {l{0} = 5; return l;}; a = [1,2];"
+                + "b = f(a);", ONE_TWO_LIST, "a");
+        ProgramTest.test("a = [[1]]; b = a; b{0}{0} = 5; c = a{0}{0};",
+                new APNumber("1"), "c");
+        ProgramTest.test("a = [[1]]; b = a; b{0}{0} = 5; c = b{0}{0};",
+                new APNumber("5"), "c");
+    }
+    
+    /**
+     * List assignment of a different type.
+     */
+    @Test
+    public void listAssignmentMixedType() {
+        ProgramTest.test("a = [5,2]; a{0} = 'c';", Arrays.asList(
+                new APValueChar('c'), new APValueNum(new APNumber("2"))), "a");
+    }
+    
+    /**
+     * Boolean list assignment.
+     */
+    @Test
+    public void boolListAssignment() {
+        ProgramTest.test("a = [true, false, true]; a{1} = true; b = a{1};",
+                true, "b");
+    }
+    
     /**
      * Sublist double param2.
      */
     @Test
     public void sublistDoubleParam2() {
         ProgramTest.test("a = sublist ([10,4,1,2], 1, 3);", Arrays.asList(
-                new ConstantNode(new APValueNum(new APNumber("4"))),
-                new ConstantNode(new APValueNum(new APNumber("1")))), "a");
+                new APValueNum(new APNumber("4")),
+                new APValueNum(new APNumber("1"))), "a");
+    }
+    
+    /**
+     * Sublist is not changed by writes to the original list.
+     */
+    @Test
+    public void sublistCopyOnWrite() {
+        ProgramTest.test("a = [10,4,1,2]; b = sublist(a, 2, 4); a{2} = 7;",
+                ONE_TWO_LIST, "b");
+        ProgramTest.test("a = [10,4,1,2]; b = sublist(a, 2, 4); b{0} = 7;",
+                Arrays.asList(new APValueNum(new APNumber("10")),
+                        new APValueNum(new APNumber("4")),
+                        new APValueNum(new APNumber("1")),
+                        new APValueNum(new APNumber("2"))), "a");
     }
     
     /**
@@ -153,12 +208,10 @@ public class ListTest {
      */
     @Test
     public void charTest() {
-        ProgramTest.test("a = \"Hi\";", Arrays.asList(new ConstantNode(
-                new APValueChar('H')), new ConstantNode(new APValueChar('i'))),
-                "a");
-        ProgramTest.test("a = ['H', 'i'];", Arrays.asList(new ConstantNode(
-                new APValueChar('H')), new ConstantNode(new APValueChar('i'))),
-                "a");
+        ProgramTest.test("a = \"Hi\";", Arrays.asList(
+                new APValueChar('H'), new APValueChar('i')), "a");
+        ProgramTest.test("a = ['H', 'i'];", Arrays.asList(
+                new APValueChar('H'), new APValueChar('i')), "a");
     }
 
     /**
@@ -166,12 +219,10 @@ public class ListTest {
      */
     @Test
     public void charTestUnicode() {
-        ProgramTest.test("a = \"Hi\";", Arrays.asList(new ConstantNode(
-                new APValueChar('H')), new ConstantNode(new APValueChar('i'))),
-                "a");
+        ProgramTest.test("a = \"Hi\";", Arrays.asList(
+                new APValueChar('H'), new APValueChar('i')), "a");
         ProgramTest.test("a = ['\\u0048', '\\u0069'];", Arrays.asList(
-                new ConstantNode(new APValueChar('H')), new ConstantNode(
-                        new APValueChar('i'))), "a");
+                new APValueChar('H'), new APValueChar('i')), "a");
     }
     
     /**
@@ -179,9 +230,10 @@ public class ListTest {
      */
     @Test
     public void stringConcatCharInList() {
-        ProgramTest.test("a = \"Hi\" + ['c'];", Arrays.asList(new ConstantNode(
-                new APValueChar('H')), new ConstantNode(new APValueChar('i')),
-                new ConstantNode(new APValueChar('c'))), "a");
+        ProgramTest.test("a = \"Hi\" + ['c'];", Arrays.asList(
+                new APValueChar('H'),
+                new APValueChar('i'),
+                new APValueChar('c')), "a");
     }
 
     /**
@@ -189,9 +241,8 @@ public class ListTest {
      */
     @Test
     public void stringTest() {
-        ProgramTest.test("a = \"Hi\";", Arrays.asList(new ConstantNode(
-                new APValueChar('H')), new ConstantNode(new APValueChar('i'))),
-                "a");
+        ProgramTest.test("a = \"Hi\";", Arrays.asList(
+                new APValueChar('H'), new APValueChar('i')), "a");
     }
 
     /**
@@ -199,9 +250,8 @@ public class ListTest {
      */
     @Test
     public void stringTestConcat() {
-        ProgramTest.test("a = \"H\" + \"i\";", Arrays.asList(new ConstantNode(
-                new APValueChar('H')), new ConstantNode(new APValueChar('i'))),
-                "a");
+        ProgramTest.test("a = \"H\" + \"i\";", Arrays.asList(
+                new APValueChar('H'), new APValueChar('i')), "a");
     }
     
     /**
@@ -217,9 +267,8 @@ public class ListTest {
      */
     @Test
     public void stringTestMultiplyNegative() {
-        ProgramTest.test("a = \"Hi\" * -1;", Arrays.asList(new ConstantNode(
-                new APValueChar('i')), new ConstantNode(new APValueChar('H'))),
-                "a");
+        ProgramTest.test("a = \"Hi\" * -1;", Arrays.asList(
+                new APValueChar('i'), new APValueChar('H')), "a");
     }
 
     /**
@@ -227,9 +276,8 @@ public class ListTest {
      */
     @Test
     public void stringTestMultiplyBackwards() {
-        ProgramTest.test("a = 1 * \"Hi\";", Arrays.asList(new ConstantNode(
-                new APValueChar('H')), new ConstantNode(new APValueChar('i'))),
-                "a");
+        ProgramTest.test("a = 1 * \"Hi\";", Arrays.asList(
+                new APValueChar('H'), new APValueChar('i')), "a");
     }
 
     /**
@@ -245,11 +293,11 @@ public class ListTest {
      */
     @Test
     public void multiplyTestTwo() {
-        ProgramTest.test("a = [1,2] * 2;", Arrays.asList(new ConstantNode(
-                new APValueNum(new APNumber("1"))), new ConstantNode(
-                        new APValueNum(new APNumber("2"))), new ConstantNode(
-                                new APValueNum(new APNumber("1"))), new ConstantNode(
-                                        new APValueNum(new APNumber("2")))), "a");
+        ProgramTest.test("a = [1,2] * 2;", Arrays.asList(
+                new APValueNum(new APNumber("1")),
+                new APValueNum(new APNumber("2")),
+                new APValueNum(new APNumber("1")),
+                new APValueNum(new APNumber("2"))), "a");
     }
 
     /**
@@ -265,10 +313,10 @@ public class ListTest {
      */
     @Test
     public void multiplyTestDecimal() {
-        ProgramTest.test("a = [1,2] * 1.5;", Arrays.asList(new ConstantNode(
-                new APValueNum(new APNumber("1"))), new ConstantNode(
-                new APValueNum(new APNumber("2"))), new ConstantNode(
-                new APValueNum(new APNumber("1")))), "a");
+        ProgramTest.test("a = [1,2] * 1.5;", Arrays.asList(
+                new APValueNum(new APNumber("1")),
+                new APValueNum(new APNumber("2")),
+                new APValueNum(new APNumber("1"))), "a");
     }
     
     /**
@@ -277,11 +325,11 @@ public class ListTest {
     @Test
     public void multiplyTestDecimal2() {
         ProgramTest.test("a = [1,2,3,4] * 1.25;", Arrays.asList(
-                new ConstantNode(new APValueNum(new APNumber("1"))),
-                new ConstantNode(new APValueNum(new APNumber("2"))),
-                new ConstantNode(new APValueNum(new APNumber("3"))),
-                new ConstantNode(new APValueNum(new APNumber("4"))),
-                new ConstantNode(new APValueNum(new APNumber("1")))), "a");
+                new APValueNum(new APNumber("1")),
+                new APValueNum(new APNumber("2")),
+                new APValueNum(new APNumber("3")),
+                new APValueNum(new APNumber("4")),
+                new APValueNum(new APNumber("1"))), "a");
     }
     
     /**
@@ -289,10 +337,10 @@ public class ListTest {
      */
     @Test
     public void multiplyTestNegativeDecimal() {
-        ProgramTest.test("a = [1,2] * -1.5;", Arrays.asList(new ConstantNode(
-                new APValueNum(new APNumber("1"))), new ConstantNode(
-                new APValueNum(new APNumber("2"))), new ConstantNode(
-                new APValueNum(new APNumber("1")))), "a");
+        ProgramTest.test("a = [1,2] * -1.5;", Arrays.asList(
+                new APValueNum(new APNumber("1")),
+                new APValueNum(new APNumber("2")),
+                new APValueNum(new APNumber("1"))), "a");
     }
     
     /**
@@ -302,11 +350,11 @@ public class ListTest {
     public void multiplyTestNegativeDecimal2() {
         // Should reverse
         ProgramTest.test("a = [1,2,3,4] * -1.25;", Arrays.asList(
-                new ConstantNode(new APValueNum(new APNumber("1"))),
-                new ConstantNode(new APValueNum(new APNumber("4"))),
-                new ConstantNode(new APValueNum(new APNumber("3"))),
-                new ConstantNode(new APValueNum(new APNumber("2"))),
-                new ConstantNode(new APValueNum(new APNumber("1")))), "a");
+                new APValueNum(new APNumber("1")),
+                new APValueNum(new APNumber("4")),
+                new APValueNum(new APNumber("3")),
+                new APValueNum(new APNumber("2")),
+                new APValueNum(new APNumber("1"))), "a");
     }
 
     /**
@@ -0,0 +1,263 @@
+/*
+ * @author Kyran Adams
+ */
+package total;
+
+import interpreter.Engine;
+import interpreter.Interpreter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.util.List;
+
+import lexer.Lexer;
+import machine.Context;
+import machine.TypeRegistry;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import parser.ExpressionNode;
+import parser.ExpressionNode.AssignmentNode;
+import parser.ExpressionNode.ConstantNode;
+import parser.ExpressionNode.FunctionCallNode;
+import parser.ExpressionNode.LambdaNode;
+import parser.Parser;
+import parser.ir.ConstantPropagation;
+import parser.ir.DeadCodeElimination;
+import parser.ir.EscapeAnalysis;
+import parser.ir.Inlining;
+import parser.ir.PassManager;
+import parser.ir.TypeInference;
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class PassTest. Checks the optimization passes on the intermediate
+ * representation.
+ */
+public class PassTest {
+
+    /**
+     * Test that operators on constants and constant variables are folded.
+     */
+    @Test
+    public void testConstantPropagation() {
+        final List<ExpressionNode> nodes = optimize(
+                "x = 2 * 3; y = x + 1;", passes());
+        Assert.assertEquals("7", constantAssigned(nodes.get(1)));
+        final List<ExpressionNode> branch = optimize(
+                "x = if 1 < 2 then 3 else 4;", passes());
+        Assert.assertEquals("3", constantAssigned(branch.get(0)));
+        // a mutable variable that is never assigned again is a constant
+        final List<ExpressionNode> once = optimize(
+                "mut x = 2; y = x * 3;", passes());
+        Assert.assertEquals("6", constantAssigned(once.get(1)));
+        final List<ExpressionNode> twice = optimize(
+                "mut x = 2; x = 4; y = x * 3;", passes());
+        Assert.assertEquals("12", constantAssigned(twice.get(2)));
+        final List<ExpressionNode> inner = optimize(
+                "mut x = 2; z = if true then {x = 4; return 1;} else 0;"
+                        + "y = x * 3;", passes());
+        Assert.assertFalse(((AssignmentNode) inner.get(2)).getExpression()
+                instanceof ConstantNode);
+    }
+
+    /**
+     * Test that a small function is inlined and then folded.
+     */
+    @Test
+    public void testInlining() {
+        final List<ExpressionNode> nodes = optimize(
+                "sq = func x -> x * x; y = sq(4);", passes());
+        Assert.assertEquals("16", constantAssigned(nodes.get(1)));
+        // a function whose name is bound again is not inlined
+        final List<ExpressionNode> rebound = optimize(
+                "sq = func x -> x * x; g = func sq -> sq(4); y = sq(3);",
+                passes());
+        Assert.assertTrue(((AssignmentNode) rebound.get(2)).getExpression()
+                instanceof FunctionCallNode);
+    }
+
+    /**
+     * Test that a list or data structure read where it is made is removed.
+     */
+    @Test
+    public void testEscapeAnalysis() {
+        final List<ExpressionNode> list = optimize("y = [1, 2, 3]{1};",
+                passes());
+        Assert.assertEquals("2", constantAssigned(list.get(0)));
+        final List<ExpressionNode> data = optimize(
+                "datatype Rectangle = Rect{width, height} | Square {size};"
+                        + "y = (new Rectangle.Rect(width = 2, height = 3)).height;",
+                passes());
+        Assert.assertEquals("3",
+                constantAssigned(data.get(data.size() - 1)));
+    }
+
+    /**
+     * Test that types are proven through operators and recursive functions,
+     * but not for a function that is passed as a value.
+     */
+    @Test
+    public void testTypeInference() {
+        final List<ExpressionNode> nodes = optimize("fib = func n -> "
+                + "if n < 2 then n else fib(n - 1) + fib(n - 2);"
+                + "x = fib(10) * 2;", passes());
+        Assert.assertEquals(TypeRegistry.NUM, body(nodes.get(0))
+                .getStaticType());
+        Assert.assertEquals(TypeRegistry.NUM, ((AssignmentNode) nodes.get(1))
+                .getExpression().getStaticType());
+        final List<ExpressionNode> escaped = optimize(
+                "f = func n -> n + 1; y = map([1, 2], f);", passes());
+        Assert.assertEquals(TypeRegistry.NONE, body(escaped.get(0))
+                .getStaticType());
+    }
+
+    /**
+     * Test that compiled code on proven numbers gives the same output as the
+     * tree walker.
+     */
+    @Test
+    public void testUnboxedOutput() {
+        final String code = "sum = func n acc -> if n = 0 then acc "
+                + "else sum(n - 1, acc + n * 2 - 1); println(sum(1000, 0));"
+                + "fib = func n -> if n < 2 then n "
+                + "else fib(n - 1) + fib(n - 2); println(fib(15) / 7);"
+                + "println(2 ^ 10 % 3 > 0); println(sqrt(16) + 1);";
+        Assert.assertEquals(output(code, new PassManager(), Engine.TREE),
+                output(code, passes(), Engine.BYTECODE));
+    }
+
+    /**
+     * Test that a pass that is switched off does not run.
+     */
+    @Test
+    public void testSwitches() {
+        final PassManager manager = passes();
+        manager.setEnabled(Inlining.NAME, false);
+        final List<ExpressionNode> nodes = optimize(
+                "sq = func x -> x * x; y = sq(4);", manager);
+        Assert.assertTrue(((AssignmentNode) nodes.get(1)).getExpression()
+                instanceof FunctionCallNode);
+        for (final String name : manager.getPassNames()) {
+            manager.setEnabled(name, false);
+        }
+        final Context context = new Context(System.out);
+        final List<ExpressionNode> parsed = new Parser(new Lexer(
+                "x = 2 * 3;").lex()).parse(context);
+        Assert.assertSame(parsed, manager.run(parsed));
+        try {
+            manager.setEnabled("unrolling", true);
+            Assert.fail("Unknown pass was switched on!");
+        } catch (final IllegalArgumentException e) {
+        }
+    }
+
+    /**
+     * Test that optimized programs print the same as the programs they were
+     * made from.
+     */
+    @Test
+    public void testSameOutput() {
+        expectSameOutput("x = 2 * 3; sq = func n -> n * n;"
+                + "println(sq(x) + [x, 2]{0});"
+                + "println(if x > 5 then 'a' else 'b');");
+        expectSameOutput("mut x = 1; x = x + 1; println(x * 2);"
+                + "f = func n -> n + x; println(f(1));");
+        expectSameOutput("datatype Rectangle = Rect{width, height} "
+                + "| Square {size};"
+                + "r = new Rectangle.Square(size = 5); println(r.size * 2);"
+                + "println(match r | Rectangle.Square(size) -> size "
+                + "| Rectangle.Rect(width, height) -> width * height);");
+    }
+
+    /**
+     * Gets the default passes, all switched on.
+     *
+     * @return the pass manager
+     */
+    private static PassManager passes() {
+        return new PassManager(new ConstantPropagation(), new Inlining(),
+                new EscapeAnalysis(), new ConstantPropagation(),
+                new DeadCodeElimination(), new TypeInference());
+    }
+
+    /**
+     * Parses and optimizes a program.
+     *
+     * @param code
+     *            the code
+     * @param manager
+     *            the passes
+     * @return the optimized statements
+     */
+    private static List<ExpressionNode> optimize(final String code,
+            final PassManager manager) {
+        final Context context = new Context(System.out);
+        return manager.run(new Parser(new Lexer(code).lex()).parse(context));
+    }
+
+    /**
+     * Gets the body of the function an assignment binds.
+     *
+     * @param node
+     *            the assignment
+     * @return the body
+     */
+    private static ExpressionNode body(final ExpressionNode node) {
+        return ((LambdaNode) ((AssignmentNode) node).getExpression())
+                .getFunction().body;
+    }
+
+    /**
+     * Gets the constant an assignment was optimized to.
+     *
+     * @param node
+     *            the assignment
+     * @return the constant, as a string
+     */
+    private static String constantAssigned(final ExpressionNode node) {
+        final ExpressionNode expression = ((AssignmentNode) node)
+                .getExpression();
+        Assert.assertTrue(expression.toString(),
+                expression instanceof ConstantNode);
+        return expression.getValue(null).toString();
+    }
+
+    /**
+     * Checks that a program prints the same with and without optimization.
+     *
+     * @param code
+     *            the code
+     */
+    private static void expectSameOutput(final String code) {
+        Assert.assertEquals(output(code, new PassManager(), Engine.TREE),
+                output(code, passes(), Engine.TREE));
+    }
+
+    /**
+     * Runs a program.
+     *
+     * @param code
+     *            the code
+     * @param manager
+     *            the passes
+     * @param engine
+     *            the engine
+     * @return what it printed
+     */
+    private static String output(final String code,
+            final PassManager manager, final Engine engine) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            final Interpreter interpreter = new Interpreter(new PrintStream(
+                    out, true, "UTF-8"), engine);
+            interpreter.setPasses(manager);
+            interpreter.interpret(code);
+            return out.toString("UTF-8");
+        } catch (final UnsupportedEncodingException e) {
+            throw new RuntimeException("Unsupported Encoding Exception");
+        }
+    }
+}
@@ -80,6 +80,18 @@ public class ProgramTest {
         test("a = 10; //a = 8", VAL_A, VAR_A);
     }
     
+    /**
+     * Runs parsed code with the engine chosen by the system property.
+     *
+     * @param nodes
+     *            the parsed code
+     * @param c
+     *            the context it was parsed in
+     */
+    public static void run(final List<ExpressionNode> nodes, final Context c) {
+        new Interpreter(c.getOutputStream()).run(nodes, c);
+    }
+
     public static Context getEmptyContext() {
         return new Context(getEmptyPrintStream());
     }
@@ -153,9 +165,7 @@ public class ProgramTest {
             }
             final List<ExpressionNode> nodes = new Parser(new Lexer(s).lex())
                     .parse(c);
-            for (final ExpressionNode node : nodes) {
-                node.getValue(c);
-            }
+            run(nodes, c);
             throw new AssertionFailedError("Did not throw StackOverflowError!");
         } catch (final StackOverflowError e) {
             return;
@@ -179,9 +189,7 @@ public class ProgramTest {
             }
             final List<ExpressionNode> nodes = new Parser(new Lexer(code).lex())
             .parse(c);
-            for (final ExpressionNode node : nodes) {
-                node.getValue(c);
-            }
+            run(nodes, c);
             throw new AssertionFailedError(
                     "Did not throw IndexOutOfBoundsException!");
         } catch (final IndexOutOfBoundsException e) {
@@ -206,9 +214,7 @@ public class ProgramTest {
             }
             final List<ExpressionNode> nodes = new Parser(new Lexer(code).lex())
             .parse(c);
-            for (final ExpressionNode node : nodes) {
-                node.getValue(c);
-            }
+            run(nodes, c);
             throw new AssertionFailedError("Did not throw parser exception!");
         } catch (final ParserException e) {
             return;
@@ -236,9 +242,7 @@ public class ProgramTest {
         }
         final List<ExpressionNode> nodes = new Parser(new Lexer(string).lex())
         .parse(c);
-        for (final ExpressionNode node : nodes) {
-            node.getValue(c);
-        }
+        run(nodes, c);
         final APValue variable = c.getVariable(variableName);
 
         if (variable == null) {
@@ -276,9 +280,7 @@ public class ProgramTest {
             }
             final List<ExpressionNode> nodes = new Parser(new Lexer(code).lex())
                     .parse(c);
-            for (final ExpressionNode node : nodes) {
-                node.getValue(c);
-            }
+            run(nodes, c);
             throw new AssertionFailedError("Did not throw context exception!");
         } catch (final ContextException e) {
             return;
@@ -301,9 +303,7 @@ public class ProgramTest {
         }
         final List<ExpressionNode> nodes = new Parser(new Lexer(string).lex())
         .parse(c);
-        for (final ExpressionNode node : nodes) {
-            node.getValue(c);
-        }
+        run(nodes, c);
     }
     
     /**
@@ -323,9 +323,7 @@ public class ProgramTest {
             }
             final List<ExpressionNode> nodes = new Parser(new Lexer(code).lex())
                     .parse(c);
-            for (final ExpressionNode node : nodes) {
-                node.getValue(c);
-            }
+            run(nodes, c);
             throw new AssertionFailedError(
                     "Did not throw arithmetic exception!");
         } catch (final ArithmeticException e) {
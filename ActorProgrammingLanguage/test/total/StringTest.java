@@ -0,0 +1,114 @@
+/*
+ *
+ */
+package total;
+
+import org.junit.Test;
+
+import type.APNumber;
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class StringTest.
+ */
+public class StringTest {
+
+    /**
+     * Test a string equals the same list of characters.
+     */
+    @Test
+    public void testEqualsCharList() {
+        ProgramTest.test("a = \"Hi\" = ['H', 'i'];", true, "a");
+        ProgramTest.test("a = \"Hi\" + \"!\" = \"Hi!\";", true, "a");
+    }
+
+    /**
+     * Test length and index.
+     */
+    @Test
+    public void testLengthAndIndex() {
+        ProgramTest.test("a = length(\"Hello\");", new APNumber(5), "a");
+        ProgramTest.test("a = \"Hello\"{1};", 'e', "a");
+    }
+
+    /**
+     * Test index assignment.
+     */
+    @Test
+    public void testIndexAssignment() {
+        ProgramTest.expectOutput("a = \"Hat\"; a{1} = 'i'; println(a);", "Hit");
+        ProgramTest.expectOutput("a = \"Hat\"; a{1} = 5; println(a);", "H5t");
+    }
+
+    /**
+     * Test a literal is not shared between evaluations.
+     */
+    @Test
+    public void testLiteralNotShared() {
+        ProgramTest.expectOutput("f = func x -> \"Hat\"; a = f(0); "
+                + "a{0} = 'C'; println(f(0));", "Hat");
+    }
+
+    /**
+     * Test split.
+     */
+    @Test
+    public void testSplit() {
+        ProgramTest.test("a = split(\"a,b,,c\", \",\") = [\"a\", \"b\", "
+                + "\"\", \"c\"];", true, "a");
+    }
+
+    /**
+     * Test join.
+     */
+    @Test
+    public void testJoin() {
+        ProgramTest.expectOutput("println(join([\"a\", \"b\", \"c\"], \", \"));",
+                "a, b, c");
+    }
+
+    /**
+     * Test substring.
+     */
+    @Test
+    public void testSubstring() {
+        ProgramTest.expectOutput("println(substring(\"Hello\", 1, 3));", "el");
+    }
+
+    /**
+     * Test index of.
+     */
+    @Test
+    public void testIndexOf() {
+        ProgramTest.test("a = indexOf(\"Hello\", \"llo\");", new APNumber(2),
+                "a");
+        ProgramTest.test("a = indexOf(\"Hello\", 'z');", new APNumber(-1),
+                "a");
+    }
+
+    /**
+     * Test replace.
+     */
+    @Test
+    public void testReplace() {
+        ProgramTest.expectOutput("println(replace(\"a-b-c\", \"-\", \"+\"));",
+                "a+b+c");
+    }
+
+    /**
+     * Test map over a string.
+     */
+    @Test
+    public void testMap() {
+        ProgramTest.expectOutput("println(\"abc\" map func c -> c + 1);",
+                "bcd");
+    }
+
+    /**
+     * Test to string.
+     */
+    @Test
+    public void testToString() {
+        ProgramTest.test("a = toString(12) + \"!\" = \"12!\";", true, "a");
+    }
+}